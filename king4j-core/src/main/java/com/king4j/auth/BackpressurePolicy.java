@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+/**
+ * Defines what a {@link SessionEventPublisher} does when its consumers fall behind.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * Events published while the buffer is full are dropped. Publishing never waits.
+     */
+    DROP,
+
+    /**
+     * Publishing waits until the buffer has room. No event is lost, but the publishing thread
+     * is slowed down to the speed of the consumers.
+     */
+    BLOCK,
+
+    /**
+     * Once the buffer is more than half full, only one event out of every
+     * {@link SessionEventPublisher#setSampleRate(int) sample rate} is kept; events published while
+     * the buffer is full are dropped. Publishing never waits.
+     */
+    SAMPLE
+}
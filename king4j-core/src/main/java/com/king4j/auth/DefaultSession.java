@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The default {@link Session} implementation. Attributes are kept in a {@link SessionAttributes}
+ * store, and the whole session is written in a compact binary form (see
+ * {@link #writeTo(DataOutput)}) both for Java serialization and for {@link #toByteArray()}.
+ * <p>
+ * The session also records which attributes were changed since the last
+ * {@link #takeDelta() replication delta}, so only those need to be shipped to backup nodes.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class DefaultSession implements Session, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The binary format version written by {@link #writeTo(DataOutput)}. */
+    private static final byte FORMAT_VERSION = 1;
+
+    private transient String id;
+    private transient long creationTime;
+    private transient volatile long lastAccessedTime;
+    private transient int maxInactiveInterval;
+    private transient boolean isNew;
+    private transient SessionAttributes attributes;
+    /** Names of the attributes changed since the last delta, or {@code null} if none. */
+    private transient List<String> dirtyAttributes;
+    private transient boolean fullReplicationRequired;
+    private transient long replicatedAccessTime;
+
+    public DefaultSession(String id, int maxInactiveInterval) {
+        this(id, System.currentTimeMillis(), maxInactiveInterval, true);
+        this.fullReplicationRequired = true;
+    }
+
+    protected DefaultSession(String id, long creationTime, int maxInactiveInterval,
+                             boolean isNew) {
+        this.id = checkNotNull(id, "The session id must not be null.");
+        this.creationTime = creationTime;
+        this.lastAccessedTime = creationTime;
+        this.maxInactiveInterval = maxInactiveInterval;
+        this.isNew = isNew;
+        this.attributes = new SessionAttributes();
+    }
+
+    /**
+     * Reads a session from the bytes returned by {@link #toByteArray()}.
+     */
+    public static DefaultSession fromByteArray(byte[] bytes) throws IOException {
+        return readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * Reads a session written by {@link #writeTo(DataOutput)}.
+     */
+    public static DefaultSession readFrom(DataInput in) throws IOException {
+        DefaultSession session = new DefaultSession("", 0L, 0, false);
+        session.readFields(in);
+        return session;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public synchronized boolean isNew() {
+        return isNew;
+    }
+
+    /**
+     * Marks that the client has joined the session.
+     */
+    public synchronized void setNotNew() {
+        isNew = false;
+    }
+
+    @Override
+    public synchronized Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    /**
+     * Returns a snapshot of the names of all attributes bound to this session.
+     */
+    public synchronized String[] getAttributeNames() {
+        return attributes.names();
+    }
+
+    @Override
+    public synchronized void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+        markDirty(name);
+    }
+
+    @Override
+    public synchronized void removeAttribute(String name) {
+        if (attributes.remove(name) != null) {
+            markDirty(name);
+        }
+    }
+
+    private void markDirty(String name) {
+        String interned = SessionAttributes.intern(name);
+        if (dirtyAttributes == null) {
+            dirtyAttributes = new ArrayList<String>(4);
+        } else if (dirtyAttributes.contains(interned)) {
+            return;
+        }
+        dirtyAttributes.add(interned);
+    }
+
+    /**
+     * Returns the changes of this session since the last call, or {@code null} if it has neither
+     * been changed nor accessed since then. The first delta of a new session is a full snapshot.
+     * All changes made between two calls are coalesced: an attribute set several times is shipped
+     * once, with its latest value.
+     */
+    public synchronized SessionDelta takeDelta() throws IOException {
+        long accessTime = lastAccessedTime;
+        if (fullReplicationRequired) {
+            fullReplicationRequired = false;
+            dirtyAttributes = null;
+            replicatedAccessTime = accessTime;
+            return SessionDelta.snapshot(id, toByteArray());
+        }
+        if (dirtyAttributes == null) {
+            if (accessTime == replicatedAccessTime) {
+                return null;
+            }
+            replicatedAccessTime = accessTime;
+            return SessionDelta.update(id, accessTime, maxInactiveInterval, null, null);
+        }
+        replicatedAccessTime = accessTime;
+        int count = dirtyAttributes.size();
+        String[] names = dirtyAttributes.toArray(new String[count]);
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = attributes.get(names[i]);
+        }
+        dirtyAttributes = null;
+        return SessionDelta.update(id, accessTime, maxInactiveInterval, names, values);
+    }
+
+    /**
+     * Applies a delta received from the primary node, without marking anything as changed.
+     */
+    synchronized void applyDelta(long lastAccessedTime, int maxInactiveInterval, String[] names,
+                                 Object[] values) {
+        this.lastAccessedTime = lastAccessedTime;
+        this.maxInactiveInterval = maxInactiveInterval;
+        this.isNew = false;
+        if (names != null) {
+            for (int i = 0; i < names.length; i++) {
+                attributes.put(names[i], values[i]);
+            }
+        }
+    }
+
+    @Override
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Returns the last time the client sent a request associated with this session, as the
+     * number of milliseconds since the epoch.
+     */
+    public long getLastAccessedTime() {
+        return lastAccessedTime;
+    }
+
+    /**
+     * Records that the client sent a request associated with this session.
+     */
+    public void access() {
+        lastAccessedTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns {@code true} if the session has been inactive for longer than its
+     * {@link #getMaxInactiveInterval() max inactive interval} at the specified time.
+     */
+    public boolean isExpired(long now) {
+        int interval = getMaxInactiveInterval();
+        return interval > 0 && now - lastAccessedTime > interval * 1000L;
+    }
+
+    @Override
+    public synchronized int getMaxInactiveInterval() {
+        return maxInactiveInterval;
+    }
+
+    @Override
+    public synchronized void setMaxInactiveInterval(int interval) {
+        this.maxInactiveInterval = interval;
+        // forces the next delta to carry the new interval
+        this.replicatedAccessTime = -1L;
+    }
+
+    /**
+     * Returns the session in its compact binary form.
+     */
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the session in its compact binary form.
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        SessionAttributeCodec.writeString(out, id);
+        out.writeLong(creationTime);
+        out.writeLong(lastAccessedTime);
+        SessionAttributeCodec.writeVarInt(out, maxInactiveInterval);
+        out.writeBoolean(isNew);
+        attributes.writeTo(out);
+    }
+
+    private synchronized void readFields(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new StreamCorruptedException("Unsupported session format version: " + version);
+        }
+        id = SessionAttributeCodec.readString(in);
+        creationTime = in.readLong();
+        lastAccessedTime = in.readLong();
+        maxInactiveInterval = SessionAttributeCodec.readVarInt(in);
+        isNew = in.readBoolean();
+        attributes = new SessionAttributes();
+        attributes.readFrom(in);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        writeTo(out);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        readFields(in);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this || (obj instanceof DefaultSession && id.equals(((DefaultSession) obj).id));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DefaultSession[id=%s, attributes=%s]", id, attributes);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The hello frame a {@link SessionReplicator} sends first on every connection to prove it knows
+ * the shared secret of the cluster. The frame carries a timestamp and a random nonce, signed with
+ * HMAC-SHA256; the receiver rejects frames with a bad signature, a timestamp too far from its own
+ * clock, or a nonce it has already seen, so a recorded hello cannot be replayed.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class ReplicationHandshake {
+
+    static final int MAGIC = 0x4B535231;
+    static final int NONCE_LENGTH = 16;
+    static final int MAC_LENGTH = 32;
+    /** The length of the hello frame body. */
+    static final int LENGTH = 4 + 8 + NONCE_LENGTH + MAC_LENGTH;
+    /** The largest accepted difference between the clocks of the two nodes. */
+    static final long MAX_CLOCK_SKEW = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+    /** The nonces accepted within the clock skew window, with their timestamps. */
+    private final Map<ByteBuffer, Long> seenNonces = new LinkedHashMap<ByteBuffer, Long>();
+
+    ReplicationHandshake(byte[] secret) {
+        checkArgument(secret != null && secret.length > 0, "The shared secret must not be empty.");
+        this.key = new SecretKeySpec(secret.clone(), ALGORITHM);
+    }
+
+    /**
+     * Returns the body of a new hello frame.
+     */
+    byte[] create() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+        ByteBuffer body = ByteBuffer.allocate(LENGTH);
+        body.putInt(MAGIC).putLong(System.currentTimeMillis()).put(nonce);
+        body.put(sign(body.array(), LENGTH - MAC_LENGTH));
+        return body.array();
+    }
+
+    /**
+     * Verifies the body of a hello frame received from a peer.
+     *
+     * @return {@code true} if the peer proved it knows the shared secret.
+     */
+    synchronized boolean verify(byte[] body, long now) {
+        if (body.length != LENGTH) {
+            return false;
+        }
+        ByteBuffer in = ByteBuffer.wrap(body);
+        if (in.getInt() != MAGIC) {
+            return false;
+        }
+        long timestamp = in.getLong();
+        byte[] mac = new byte[MAC_LENGTH];
+        System.arraycopy(body, LENGTH - MAC_LENGTH, mac, 0, MAC_LENGTH);
+        if (!MessageDigest.isEqual(mac, sign(body, LENGTH - MAC_LENGTH))
+                || Math.abs(now - timestamp) > MAX_CLOCK_SKEW) {
+            return false;
+        }
+        for (Iterator<Long> it = seenNonces.values().iterator(); it.hasNext(); ) {
+            if (now - it.next() <= 2 * MAX_CLOCK_SKEW) {
+                break;
+            }
+            it.remove();
+        }
+        ByteBuffer nonce = ByteBuffer.wrap(body, 12, NONCE_LENGTH).slice();
+        return seenNonces.put(nonce, now) == null;
+    }
+
+    private byte[] sign(byte[] data, int length) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            mac.update(data, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("HMAC-SHA256 is not available.", ex);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A compact binary codec for session attribute values. Common value types (strings, boxed
+ * primitives, dates and byte arrays) are written as a one byte type tag followed by a
+ * variable-length payload; any other {@link Serializable} value falls back to Java
+ * serialization.
+ * <p/>
+ * Serialized values are read back from swap files and from replication peers, so only the
+ * classes in a small built-in allowlist (boxed primitives, strings, dates, big numbers and the
+ * common {@code java.util} collections) and the ones registered with
+ * {@link #allowClasses(String...)} are deserialized; any other class, and any proxy, is rejected
+ * with an {@link InvalidClassException}.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public final class SessionAttributeCodec {
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_TRUE = 2;
+    static final byte TYPE_FALSE = 3;
+    static final byte TYPE_INT = 4;
+    static final byte TYPE_LONG = 5;
+    static final byte TYPE_DOUBLE = 6;
+    static final byte TYPE_FLOAT = 7;
+    static final byte TYPE_SHORT = 8;
+    static final byte TYPE_BYTE = 9;
+    static final byte TYPE_CHAR = 10;
+    static final byte TYPE_DATE = 11;
+    static final byte TYPE_BYTES = 12;
+    static final byte TYPE_SERIALIZED = 13;
+
+    /** The largest element count accepted by {@link #readCount(DataInput)}. */
+    static final int MAX_COUNT = 1 << 16;
+    /**
+     * Lengths read from the input are trusted only up to this many bytes; longer payloads are
+     * read in chunks of this size, so a corrupt length fails at the end of the input instead of
+     * allocating the claimed size up front.
+     */
+    private static final int READ_CHUNK_SIZE = 64 << 10;
+
+    private static final Set<String> DEFAULT_ALLOWED_CLASSES = ImmutableSet.of(
+            "java.lang.String", "java.lang.String$CaseInsensitiveComparator", "java.lang.Boolean",
+            "java.lang.Byte", "java.lang.Short", "java.lang.Integer", "java.lang.Long",
+            "java.lang.Float", "java.lang.Double", "java.lang.Character", "java.lang.Number",
+            "java.lang.Enum", "java.math.BigInteger", "java.math.BigDecimal", "java.util.Date",
+            "java.util.Locale", "java.util.UUID", "java.util.Currency", "java.util.ArrayList",
+            "java.util.LinkedList", "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap",
+            "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeSet",
+            "java.util.Arrays$ArrayList", "java.util.AbstractMap$SimpleEntry",
+            "java.util.AbstractMap$SimpleImmutableEntry");
+    private static final String[] DEFAULT_ALLOWED_PREFIXES = {"java.util.Collections$"};
+
+    private static final Set<String> allowedClasses = new CopyOnWriteArraySet<String>();
+    private static final List<String> allowedPrefixes = new CopyOnWriteArrayList<String>();
+
+    private SessionAttributeCodec() {
+    }
+
+    /**
+     * Allows the classes matching the specified patterns to be deserialized, in addition to the
+     * built-in allowlist. A pattern is either a fully qualified class name, a package name
+     * followed by {@code .*} (the classes of that package) or by {@code .**} (the classes of that
+     * package and of its subpackages). Nested classes must be allowed explicitly, or through a
+     * {@code .**} pattern. Every class of a deserialized object graph must be allowed, including
+     * enum types and the classes of collection elements.
+     */
+    public static void allowClasses(String... patterns) {
+        for (String pattern : patterns) {
+            checkArgument(pattern != null && !pattern.isEmpty(), "Empty class pattern.");
+            if (pattern.endsWith(".**")) {
+                allowedPrefixes.add(pattern.substring(0, pattern.length() - 2));
+            } else {
+                allowedClasses.add(pattern);
+            }
+        }
+    }
+
+    /**
+     * Returns whether instances of the class with the specified binary name (as returned by
+     * {@link ObjectStreamClass#getName()}) may be deserialized.
+     */
+    static boolean isAllowed(String className) {
+        String name = className;
+        while (name.startsWith("[")) {
+            name = name.substring(1);
+        }
+        if (name.length() == 1) {
+            // an array of primitives
+            return true;
+        }
+        if (name.startsWith("L") && name.endsWith(";")) {
+            name = name.substring(1, name.length() - 1);
+        }
+        if (DEFAULT_ALLOWED_CLASSES.contains(name) || allowedClasses.contains(name)) {
+            return true;
+        }
+        int dot = name.lastIndexOf('.');
+        if (dot > 0 && allowedClasses.contains(name.substring(0, dot) + ".*")) {
+            return true;
+        }
+        for (String prefix : DEFAULT_ALLOWED_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        for (String prefix : allowedPrefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the specified value to the output.
+     *
+     * @throws NotSerializableException if the value is neither a built-in type nor
+     *         {@link Serializable}.
+     */
+    public static void encode(Object value, DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            writeVarInt(out, zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            writeVarLong(out, zigZag((Long) value));
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(TYPE_CHAR);
+            out.writeChar((Character) value);
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            out.writeByte(TYPE_BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof Serializable) {
+            out.writeByte(TYPE_SERIALIZED);
+            writeBytes(out, serialize(value));
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    /**
+     * Reads a value written by {@link #encode(Object, DataOutput)}.
+     */
+    public static Object decode(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_TRUE:
+                return Boolean.TRUE;
+            case TYPE_FALSE:
+                return Boolean.FALSE;
+            case TYPE_INT:
+                return unZigZag(readVarInt(in));
+            case TYPE_LONG:
+                return unZigZag(readVarLong(in));
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_SHORT:
+                return in.readShort();
+            case TYPE_BYTE:
+                return in.readByte();
+            case TYPE_CHAR:
+                return in.readChar();
+            case TYPE_DATE:
+                return new Date(in.readLong());
+            case TYPE_BYTES:
+                return readBytes(in);
+            case TYPE_SERIALIZED:
+                return deserialize(readBytes(in));
+            default:
+                throw new StreamCorruptedException("Unknown attribute type: " + type);
+        }
+    }
+
+    /**
+     * Writes an unsigned variable-length int, 7 bits per byte.
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable-length int.");
+    }
+
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable-length long.");
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string. Unlike {@link DataOutput#writeUTF(String)} the
+     * length is not limited to 64 KB.
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        writeBytes(out, value.getBytes(Charsets.UTF_8));
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        return new String(readBytes(in), Charsets.UTF_8);
+    }
+
+    static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0) {
+            throw new StreamCorruptedException("Negative length: " + length);
+        }
+        if (length <= READ_CHUNK_SIZE) {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(READ_CHUNK_SIZE);
+        byte[] chunk = new byte[READ_CHUNK_SIZE];
+        for (int remaining = length; remaining > 0; ) {
+            int n = Math.min(remaining, READ_CHUNK_SIZE);
+            in.readFully(chunk, 0, n);
+            bytes.write(chunk, 0, n);
+            remaining -= n;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads an element count, rejecting counts that are negative or larger than
+     * {@link #MAX_COUNT} before anything is allocated for them.
+     */
+    static int readCount(DataInput in) throws IOException {
+        int count = readVarInt(in);
+        if (count < 0 || count > MAX_COUNT) {
+            throw new StreamCorruptedException("Illegal element count: " + count);
+        }
+        return count;
+    }
+
+    private static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unZigZag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static long zigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unZigZag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(value);
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc)
+                    throws IOException, ClassNotFoundException {
+                if (!isAllowed(desc.getName())) {
+                    throw new InvalidClassException(desc.getName(),
+                            "Not allowed to be deserialized as a session attribute.");
+                }
+                ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                if (loader != null) {
+                    try {
+                        return Class.forName(desc.getName(), false, loader);
+                    } catch (ClassNotFoundException ex) {
+                        // fall back to the default resolution
+                    }
+                }
+                return super.resolveClass(desc);
+            }
+
+            @Override
+            protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+                throw new InvalidClassException("Proxies are not allowed to be deserialized as session attributes.");
+            }
+        };
+        try {
+            return in.readObject();
+        } catch (ClassNotFoundException ex) {
+            IOException ioe = new IOException("Cannot deserialize session attribute.");
+            ioe.initCause(ex);
+            throw ioe;
+        } finally {
+            in.close();
+        }
+    }
+}
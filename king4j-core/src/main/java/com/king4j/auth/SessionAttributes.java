@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A compact attribute store for sessions. Sessions usually carry only a handful of attributes, so
+ * names and values are kept in two parallel arrays and looked up by a linear scan, which is both
+ * smaller and faster than a {@code HashMap} at that size. Attribute names are interned, so the
+ * scan compares references first and every session shares the same name instances.
+ *
+ * <p>This class is not thread-safe; callers must synchronize access externally.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public final class SessionAttributes {
+
+    private static final Interner<String> NAMES = Interners.newWeakInterner();
+    private static final String[] EMPTY_NAMES = new String[0];
+    private static final Object[] EMPTY_VALUES = new Object[0];
+    private static final int INITIAL_CAPACITY = 4;
+
+    private String[] names = EMPTY_NAMES;
+    private Object[] values = EMPTY_VALUES;
+    private int size;
+
+    /**
+     * Returns the shared instance of the specified attribute name.
+     */
+    static String intern(String name) {
+        return NAMES.intern(name);
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i] == name) {
+                return i;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value bound with the specified name, or {@code null} if no value is bound.
+     */
+    public Object get(String name) {
+        if (name == null) {
+            return null;
+        }
+        int i = indexOf(name);
+        return i < 0 ? null : values[i];
+    }
+
+    /**
+     * Binds the value to the specified name, replacing any existing value. Binding a
+     * {@code null} value is the same as {@link #remove(String)}.
+     *
+     * @return the previous value, or {@code null} if there was none.
+     */
+    public Object put(String name, Object value) {
+        checkNotNull(name, "The attribute name must not be null.");
+        if (value == null) {
+            return remove(name);
+        }
+        int i = indexOf(name);
+        if (i >= 0) {
+            Object old = values[i];
+            values[i] = value;
+            return old;
+        }
+        if (size == names.length) {
+            int capacity = size == 0 ? INITIAL_CAPACITY : size << 1;
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        names[size] = intern(name);
+        values[size] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the value bound with the specified name.
+     *
+     * @return the removed value, or {@code null} if there was none.
+     */
+    public Object remove(String name) {
+        if (name == null) {
+            return null;
+        }
+        int i = indexOf(name);
+        if (i < 0) {
+            return null;
+        }
+        Object old = values[i];
+        int last = --size;
+        names[i] = names[last];
+        values[i] = values[last];
+        names[last] = null;
+        values[last] = null;
+        return old;
+    }
+
+    /**
+     * Returns a snapshot of the names of all bound attributes.
+     */
+    public String[] names() {
+        return Arrays.copyOf(names, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        names = EMPTY_NAMES;
+        values = EMPTY_VALUES;
+        size = 0;
+    }
+
+    /**
+     * Writes all attributes in the compact binary format of {@link SessionAttributeCodec}.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        SessionAttributeCodec.writeVarInt(out, size);
+        for (int i = 0; i < size; i++) {
+            SessionAttributeCodec.writeString(out, names[i]);
+            SessionAttributeCodec.encode(values[i], out);
+        }
+    }
+
+    /**
+     * Reads the attributes written by {@link #writeTo(DataOutput)}, replacing the current ones.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        int count = SessionAttributeCodec.readCount(in);
+        names = count == 0 ? EMPTY_NAMES : new String[count];
+        values = count == 0 ? EMPTY_VALUES : new Object[count];
+        size = 0;
+        for (int i = 0; i < count; i++) {
+            String name = intern(SessionAttributeCodec.readString(in));
+            Object value = SessionAttributeCodec.decode(in);
+            if (value != null) {
+                names[size] = name;
+                values[size] = value;
+                size++;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder(size * 16 + 2).append('{');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            buf.append(names[i]).append('=').append(values[i]);
+        }
+        return buf.append('}').toString();
+    }
+}
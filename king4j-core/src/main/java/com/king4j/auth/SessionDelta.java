@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * The replicated change of a session: either a full snapshot of a new session, the attributes
+ * changed by a request (a {@code null} value meaning the attribute was removed), or the
+ * destruction of the session.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class SessionDelta {
+
+    static final byte TYPE_SNAPSHOT = 1;
+    static final byte TYPE_UPDATE = 2;
+    static final byte TYPE_DESTROY = 3;
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private final byte type;
+    private final String sessionId;
+    private final long lastAccessedTime;
+    private final int maxInactiveInterval;
+    private final String[] names;
+    private final Object[] values;
+    private final byte[] snapshot;
+
+    private SessionDelta(byte type, String sessionId, long lastAccessedTime,
+                         int maxInactiveInterval, String[] names, Object[] values,
+                         byte[] snapshot) {
+        this.type = type;
+        this.sessionId = sessionId;
+        this.lastAccessedTime = lastAccessedTime;
+        this.maxInactiveInterval = maxInactiveInterval;
+        this.names = names == null ? NO_NAMES : names;
+        this.values = values == null ? NO_VALUES : values;
+        this.snapshot = snapshot;
+    }
+
+    static SessionDelta snapshot(String sessionId, byte[] snapshot) {
+        return new SessionDelta(TYPE_SNAPSHOT, sessionId, 0L, 0, null, null, snapshot);
+    }
+
+    static SessionDelta update(String sessionId, long lastAccessedTime, int maxInactiveInterval,
+                               String[] names, Object[] values) {
+        return new SessionDelta(TYPE_UPDATE, sessionId, lastAccessedTime, maxInactiveInterval,
+                names, values, null);
+    }
+
+    /**
+     * Returns the delta destroying the session with the specified id.
+     */
+    public static SessionDelta destroy(String sessionId) {
+        return new SessionDelta(TYPE_DESTROY, sessionId, 0L, 0, null, null, null);
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Returns the number of attributes carried by this delta.
+     */
+    public int getAttributeCount() {
+        return names.length;
+    }
+
+    /**
+     * Applies this delta to the sessions of a backup store.
+     */
+    public void applyTo(SessionStore store) throws IOException {
+        switch (type) {
+            case TYPE_SNAPSHOT:
+                store.replace(DefaultSession.fromByteArray(snapshot));
+                break;
+            case TYPE_UPDATE:
+                DefaultSession session = store.lookup(sessionId);
+                if (session != null) {
+                    session.applyDelta(lastAccessedTime, maxInactiveInterval, names, values);
+                }
+                break;
+            case TYPE_DESTROY:
+                store.remove(sessionId);
+                break;
+            default:
+                throw new IllegalStateException("Unknown delta type: " + type);
+        }
+    }
+
+    /**
+     * Returns this delta in its binary form.
+     */
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(type);
+        SessionAttributeCodec.writeString(out, sessionId);
+        switch (type) {
+            case TYPE_SNAPSHOT:
+                SessionAttributeCodec.writeBytes(out, snapshot);
+                break;
+            case TYPE_UPDATE:
+                out.writeLong(lastAccessedTime);
+                SessionAttributeCodec.writeVarInt(out, maxInactiveInterval);
+                SessionAttributeCodec.writeVarInt(out, names.length);
+                for (int i = 0; i < names.length; i++) {
+                    SessionAttributeCodec.writeString(out, names[i]);
+                    SessionAttributeCodec.encode(values[i], out);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    public static SessionDelta fromByteArray(byte[] bytes) throws IOException {
+        return readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    public static SessionDelta readFrom(DataInput in) throws IOException {
+        byte type = in.readByte();
+        String sessionId = SessionAttributeCodec.readString(in);
+        switch (type) {
+            case TYPE_SNAPSHOT:
+                return snapshot(sessionId, SessionAttributeCodec.readBytes(in));
+            case TYPE_UPDATE:
+                long lastAccessedTime = in.readLong();
+                int maxInactiveInterval = SessionAttributeCodec.readVarInt(in);
+                int count = SessionAttributeCodec.readCount(in);
+                String[] names = new String[count];
+                Object[] values = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    names[i] = SessionAttributes.intern(SessionAttributeCodec.readString(in));
+                    values[i] = SessionAttributeCodec.decode(in);
+                }
+                return update(sessionId, lastAccessedTime, maxInactiveInterval, names, values);
+            case TYPE_DESTROY:
+                return destroy(sessionId);
+            default:
+                throw new StreamCorruptedException("Unknown delta type: " + type);
+        }
+    }
+
+    @Override
+    public String toString() {
+        String kind = type == TYPE_SNAPSHOT ? "snapshot" : type == TYPE_UPDATE ? "update" : "destroy";
+        return String.format("SessionDelta[%s, id=%s, attributes=%s]", kind, sessionId, names.length);
+    }
+}
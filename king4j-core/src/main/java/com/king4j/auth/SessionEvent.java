@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+/**
+ * A session lifecycle event. The {@link #getType() type} is one of
+ * {@link Session#SESSION_CREATED_EVENT}, {@link Session#SESSION_DESTROYED_EVENT},
+ * {@link Session#SESSION_ACTIVATED_EVENT} or {@link Session#SESSION_PASSIVATED_EVENT}.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class SessionEvent {
+
+    private final String type;
+    private final String sessionId;
+    private final long timestamp;
+
+    public SessionEvent(String type, String sessionId) {
+        this(type, sessionId, System.currentTimeMillis());
+    }
+
+    public SessionEvent(String type, String sessionId, long timestamp) {
+        this.type = type;
+        this.sessionId = sessionId;
+        this.timestamp = timestamp;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Returns the time the event happened, as the number of milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SessionEvent[%s, id=%s, at=%s]", type, sessionId, timestamp);
+    }
+}
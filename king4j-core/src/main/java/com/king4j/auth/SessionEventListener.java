@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import java.util.List;
+
+/**
+ * Receives session lifecycle events from a {@link SessionEventPublisher}. Events are delivered in
+ * batches, in publication order, on the publisher's dispatch thread, never on the request thread
+ * that caused them.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public interface SessionEventListener {
+
+    /**
+     * Handles a batch of session events. The list must not be retained after the call returns.
+     *
+     * @param events the events, never empty.
+     */
+    public void onEvents(List<SessionEvent> events);
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Publishes session lifecycle events to {@link SessionEventListener}s without running them on the
+ * publishing thread. Events go through a bounded, lock-free ring buffer: publishers claim a slot
+ * with a single CAS, and one dispatch thread drains the buffer in batches and hands every batch
+ * to the listeners. What happens when the buffer is full is decided by the
+ * {@link BackpressurePolicy}.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class SessionEventPublisher {
+
+    /**
+     * The logger.
+     */
+    protected final Logger LOGGER = LoggerFactory.getLogger(getClass());
+
+    /** The default capacity of the ring buffer. */
+    public static final int DEFAULT_CAPACITY = 8192;
+    /** The default maximum number of events in a batch. */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    /** The default sample rate of {@link BackpressurePolicy#SAMPLE}. */
+    public static final int DEFAULT_SAMPLE_RATE = 10;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final String name;
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<SessionEvent> ring;
+    /** The sequence of the next slot to claim, advanced by the publishers. */
+    private final AtomicLong tail = new AtomicLong();
+    /** The sequence of the next slot to consume, advanced only by the dispatch thread. */
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sampleTicket = new AtomicLong();
+    private final List<SessionEventListener> listeners =
+            new CopyOnWriteArrayList<SessionEventListener>();
+
+    private volatile BackpressurePolicy policy = BackpressurePolicy.DROP;
+    private volatile int sampleRate = DEFAULT_SAMPLE_RATE;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile Thread dispatchThread;
+    private volatile boolean dispatcherParked;
+    private volatile boolean isRunning = false;
+
+    public SessionEventPublisher(String name) {
+        this(name, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param name the name of the publisher, used to name the dispatch thread.
+     * @param capacity the capacity of the ring buffer, rounded up to a power of two.
+     */
+    public SessionEventPublisher(String name, int capacity) {
+        checkArgument(capacity > 0 && capacity <= 1 << 30, "Illegal capacity: %s", capacity);
+        this.name = name;
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.ring = new AtomicReferenceArray<SessionEvent>(size);
+    }
+
+    /**
+     * Starts the dispatch thread.
+     */
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        Thread thread = new Thread(new DispatchRunnable());
+        thread.setName(name == null ? "SessionEventPublisher" :
+                String.format("%s_SessionEventPublisher", name));
+        thread.setDaemon(true);
+        dispatchThread = thread;
+        thread.start();
+        LOGGER.info(String.format("%s started.", thread.getName()));
+    }
+
+    /**
+     * Stops the dispatch thread once the events already published have been dispatched.
+     */
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        Thread thread = dispatchThread;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info(String.format("%s stopped.", thread.getName()));
+    }
+
+    /**
+     * Publishes a session event.
+     *
+     * @return {@code true} if the event was queued for dispatch, {@code false} if there is no
+     *         listener, the publisher is stopped, or the event was dropped by the backpressure
+     *         policy. A full buffer drops the event even under {@link BackpressurePolicy#BLOCK}
+     *         once the dispatch thread has died.
+     */
+    public boolean publish(SessionEvent event) {
+        checkNotNull(event, "The session event must not be null.");
+        if (!isRunning || listeners.isEmpty()) {
+            return false;
+        }
+        long sequence;
+        while (true) {
+            sequence = tail.get();
+            long used = sequence - head.get();
+            if (used >= capacity) {
+                if (policy == BackpressurePolicy.BLOCK && isRunning && dispatchThread.isAlive()) {
+                    wakeDispatcher();
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    continue;
+                }
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (policy == BackpressurePolicy.SAMPLE && used >= (capacity >> 1)
+                    && sampleTicket.incrementAndGet() % sampleRate != 0) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        ring.lazySet((int) sequence & mask, event);
+        wakeDispatcher();
+        return true;
+    }
+
+    /**
+     * Publishes an event of the specified type for the specified session.
+     *
+     * @see #publish(SessionEvent)
+     */
+    public boolean publish(String type, String sessionId) {
+        if (!isRunning || listeners.isEmpty()) {
+            return false;
+        }
+        return publish(new SessionEvent(type, sessionId));
+    }
+
+    private void wakeDispatcher() {
+        if (dispatcherParked) {
+            LockSupport.unpark(dispatchThread);
+        }
+    }
+
+    public void addListener(SessionEventListener listener) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(SessionEventListener listener) {
+        if (listener != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Returns the number of events published but not yet dispatched.
+     */
+    public long getBacklog() {
+        return tail.get() - head.get();
+    }
+
+    /**
+     * Returns the number of events dropped by the backpressure policy.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return policy;
+    }
+
+    public void setBackpressurePolicy(BackpressurePolicy policy) {
+        this.policy = checkNotNull(policy, "The backpressure policy must not be null.");
+    }
+
+    /**
+     * Sets the rate of {@link BackpressurePolicy#SAMPLE}: one event out of {@code sampleRate} is
+     * kept once the buffer is more than half full.
+     */
+    public void setSampleRate(int sampleRate) {
+        checkArgument(sampleRate > 0, "The sample rate must be positive: %s", sampleRate);
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Sets the maximum number of events handed to the listeners in one batch.
+     */
+    public void setBatchSize(int batchSize) {
+        checkArgument(batchSize > 0, "The batch size must be positive: %s", batchSize);
+        this.batchSize = batchSize;
+    }
+
+    private void dispatch(List<SessionEvent> batch) {
+        List<SessionEvent> events = Collections.unmodifiableList(batch);
+        for (SessionEventListener listener : listeners) {
+            try {
+                listener.onEvents(events);
+            } catch (Throwable ex) {
+                // an error must not kill the only dispatch thread, publishers blocked on a full buffer
+                // would wait for it forever
+                LOGGER.error(String.format("Session event listener %s failed: ", listener), ex);
+            }
+        }
+    }
+
+    private class DispatchRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            List<SessionEvent> batch = Lists.newArrayListWithCapacity(batchSize);
+            while (isRunning || head.get() != tail.get()) {
+                long sequence = head.get();
+                int limit = batchSize;
+                int count = 0;
+                while (count < limit) {
+                    int index = (int) (sequence + count) & mask;
+                    SessionEvent event = ring.get(index);
+                    if (event == null) {
+                        break;
+                    }
+                    ring.lazySet(index, null);
+                    batch.add(event);
+                    count++;
+                }
+                if (count > 0) {
+                    head.lazySet(sequence + count);
+                    dispatch(batch);
+                    batch.clear();
+                } else {
+                    dispatcherParked = true;
+                    if (isRunning && ring.get((int) sequence & mask) == null) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    dispatcherParked = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Receives the session deltas sent by a {@link SessionReplicator} and applies them to a backup
+ * {@link SessionStore}. All connections are served by a single non-blocking I/O thread, and the
+ * deltas of a connection are applied in the order they were sent.
+ * <p/>
+ * Deltas carry session attributes, some of them deserialized with Java serialization (see
+ * {@link SessionAttributeCodec#allowClasses(String...)}), so the receiver must only be reachable by
+ * the primary nodes. It listens on the loopback interface unless given another address, which
+ * should be the cluster interface; peers can be restricted with
+ * {@link #setAllowedPeers(Collection)} and required to prove they know a
+ * {@link #setSharedSecret(byte[]) shared secret} before any of their deltas is read.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class SessionReplicationReceiver {
+
+    /**
+     * The logger.
+     */
+    protected final Logger LOGGER = LoggerFactory.getLogger(getClass());
+
+    /** The largest delta accepted, in bytes. */
+    public static final int MAX_FRAME_SIZE = 16 << 20;
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final SessionStore store;
+    private final InetSocketAddress bindAddress;
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private ReplicationHandshake handshake;
+    private Set<InetAddress> allowedPeers = ImmutableSet.of();
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private Thread ioThread;
+    private volatile boolean isRunning = false;
+
+    /**
+     * Creates a receiver listening on the specified port of the loopback interface.
+     */
+    public SessionReplicationReceiver(SessionStore store, int port) {
+        this(store, new InetSocketAddress("127.0.0.1", port));
+    }
+
+    public SessionReplicationReceiver(SessionStore store, InetSocketAddress bindAddress) {
+        this.store = checkNotNull(store, "The backup session store must not be null.");
+        this.bindAddress = checkNotNull(bindAddress, "The bind address must not be null.");
+    }
+
+    /**
+     * Binds the listening socket and starts the I/O thread.
+     */
+    public synchronized void start() throws IOException {
+        if (isRunning) {
+            return;
+        }
+        if (handshake == null && allowedPeers.isEmpty() && !bindAddress.getAddress().isLoopbackAddress()) {
+            LOGGER.warn(String.format("The session replication receiver accepts unauthenticated connections on %s; "
+                    + "set a shared secret or the allowed peers.", bindAddress));
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(bindAddress);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        isRunning = true;
+        ioThread = new Thread(new IoRunnable());
+        ioThread.setName(String.format("SessionReplicationReceiver_%s", getLocalAddress().getPort()));
+        ioThread.setDaemon(true);
+        ioThread.start();
+        LOGGER.info(String.format("%s started.", ioThread.getName()));
+    }
+
+    /**
+     * Closes the listening socket and all connections.
+     */
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        selector.wakeup();
+        try {
+            ioThread.join(1000L);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info(String.format("%s stopped.", ioThread.getName()));
+    }
+
+    /**
+     * Returns the address the receiver listens on, useful when binding to port {@code 0}.
+     */
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Sets the secret shared with the primary nodes. When set, a connection must start with a
+     * hello frame signed with the secret, and is closed before any delta is read otherwise.
+     * Must be set before {@link #start()}.
+     *
+     * @see SessionReplicator#setSharedSecret(byte[])
+     */
+    public void setSharedSecret(byte[] secret) {
+        this.handshake = secret == null ? null : new ReplicationHandshake(secret);
+    }
+
+    /**
+     * Restricts the connections to the specified peer addresses. An empty collection, the
+     * default, accepts every peer. Must be set before {@link #start()}.
+     */
+    public void setAllowedPeers(Collection<InetAddress> allowedPeers) {
+        this.allowedPeers = allowedPeers == null ? ImmutableSet.<InetAddress>of() : ImmutableSet.copyOf(allowedPeers);
+    }
+
+    /**
+     * Returns the number of deltas applied so far.
+     */
+    public long getAppliedCount() {
+        return applied.get();
+    }
+
+    /**
+     * Returns the number of deltas that could not be decoded or applied and were skipped.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of connections rejected because the peer is not allowed or failed to
+     * authenticate.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        InetAddress peer = channel.socket().getInetAddress();
+        if (!allowedPeers.isEmpty() && !allowedPeers.contains(peer)) {
+            rejected.incrementAndGet();
+            LOGGER.warn(String.format("Rejected a replication connection from %s.", peer));
+            channel.close();
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, new Peer(handshake == null));
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Peer peer = (Peer) key.attachment();
+        ByteBuffer buffer = peer.buffer;
+        int n = channel.read(buffer);
+        if (n < 0) {
+            throw new IOException("Connection closed by the primary node.");
+        }
+        buffer.flip();
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt(buffer.position());
+            if (!peer.authenticated && length != ReplicationHandshake.LENGTH) {
+                reject(channel);
+            }
+            if (length < 0 || length > MAX_FRAME_SIZE) {
+                throw new IOException("Illegal delta frame length: " + length);
+            }
+            if (buffer.remaining() < 4 + length) {
+                if (buffer.capacity() < 4 + length) {
+                    ByteBuffer larger = ByteBuffer.allocate(Math.max(4 + length, buffer.capacity() << 1));
+                    larger.put(buffer);
+                    peer.buffer = larger;
+                    return;
+                }
+                break;
+            }
+            buffer.position(buffer.position() + 4);
+            byte[] body = new byte[length];
+            buffer.get(body);
+            if (peer.authenticated) {
+                apply(body);
+            } else if (handshake.verify(body, System.currentTimeMillis())) {
+                peer.authenticated = true;
+            } else {
+                reject(channel);
+            }
+        }
+        buffer.compact();
+    }
+
+    private void reject(SocketChannel channel) throws IOException {
+        rejected.incrementAndGet();
+        LOGGER.warn(String.format("Replication peer %s failed to authenticate.", channel.socket().getInetAddress()));
+        throw new IOException("Authentication failed.");
+    }
+
+    private void apply(byte[] body) {
+        try {
+            SessionDelta.readFrom(new DataInputStream(new ByteArrayInputStream(body))).applyTo(store);
+            applied.incrementAndGet();
+        } catch (IOException ex) {
+            failed.incrementAndGet();
+            LOGGER.warn("Failed to apply a session delta: ", ex);
+        } catch (RuntimeException ex) {
+            // a corrupt delta must not stop the I/O thread serving every primary
+            failed.incrementAndGet();
+            LOGGER.warn("Failed to apply a session delta: ", ex);
+        }
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ex) {
+            // ignore
+        }
+    }
+
+    /**
+     * The state of a connection from a primary node.
+     */
+    private static class Peer {
+
+        ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        boolean authenticated;
+
+        Peer(boolean authenticated) {
+            this.authenticated = authenticated;
+        }
+    }
+
+    private class IoRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (isRunning) {
+                    selector.select();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        try {
+                            if (key.isValid() && key.isAcceptable()) {
+                                accept();
+                            } else if (key.isValid() && key.isReadable()) {
+                                read(key);
+                            }
+                        } catch (IOException ex) {
+                            LOGGER.debug("Closing a replication connection: ", ex);
+                            close(key);
+                        } catch (RuntimeException ex) {
+                            LOGGER.error("Failed to serve a replication connection: ", ex);
+                            close(key);
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                LOGGER.error("The session replication receiver failed: ", ex);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    close(key);
+                }
+                try {
+                    selector.close();
+                } catch (IOException ex) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
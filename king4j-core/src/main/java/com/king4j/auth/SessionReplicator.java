@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Ships session deltas to backup nodes running a {@link SessionReplicationReceiver}. Each delta
+ * is encoded once, queued for every backup and written by a single non-blocking I/O thread; the
+ * connections are pipelined, deltas are written back to back with gathering writes and never
+ * wait for an acknowledgement. A backup that cannot keep up has its pending deltas dropped once
+ * they exceed {@link #setMaxPendingBytes(long) a limit}, and lost connections are reopened
+ * periodically.
+ * <p/>
+ * A backup that missed deltas cannot apply later ones to the sessions it does not know, so
+ * whenever a backup connects or had deltas dropped, the replicator resynchronizes it: the most
+ * recent destructions (up to {@link #MAX_TOMBSTONES} of them) are replayed, since the ones written
+ * just before a connection broke may never have arrived, then a full snapshot of every live
+ * session of the {@link SessionStore#setReplicator(SessionReplicator) bound store} is streamed to
+ * it, throttled so that it never takes more than half of the pending limit. Sessions whose
+ * destruction was not replayed expire on the backup once inactive.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class SessionReplicator {
+
+    /**
+     * The logger.
+     */
+    protected final Logger LOGGER = LoggerFactory.getLogger(getClass());
+
+    /** The default limit of bytes queued for a single backup. */
+    public static final long DEFAULT_MAX_PENDING_BYTES = 8L << 20;
+    /** The default delay before reconnecting to a backup, in milliseconds. */
+    public static final long DEFAULT_RECONNECT_DELAY = 1000L;
+
+    /** The largest number of recent destructions replayed to a resynchronized backup. */
+    public static final int MAX_TOMBSTONES = 65536;
+
+    private static final int MAX_GATHER = 64;
+    private static final int READ_BUFFER_SIZE = 64;
+
+    private final String name;
+    private final List<Backup> backups = Lists.newArrayList();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    /** The ids of the most recently destroyed sessions, oldest first, guarded by itself. */
+    private final Set<String> tombstones = Sets.newLinkedHashSet();
+    /** Owned by the I/O thread. */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private volatile SessionStore store;
+    private ReplicationHandshake handshake;
+    private long maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+    private long reconnectDelayMillis = DEFAULT_RECONNECT_DELAY;
+    private Selector selector;
+    private Thread ioThread;
+    private volatile boolean isRunning = false;
+
+    public SessionReplicator(String name, List<InetSocketAddress> backupAddresses) {
+        checkArgument(backupAddresses != null && !backupAddresses.isEmpty(),
+                "At least one backup address is required.");
+        this.name = name;
+        for (InetSocketAddress address : backupAddresses) {
+            backups.add(new Backup(address));
+        }
+    }
+
+    /**
+     * Starts the I/O thread and connects to the backups.
+     */
+    public synchronized void start() throws IOException {
+        if (isRunning) {
+            return;
+        }
+        selector = Selector.open();
+        isRunning = true;
+        ioThread = new Thread(new IoRunnable());
+        ioThread.setName(name == null ? "SessionReplicator" :
+                String.format("%s_SessionReplicator", name));
+        ioThread.setDaemon(true);
+        ioThread.start();
+        LOGGER.info(String.format("%s started.", ioThread.getName()));
+    }
+
+    /**
+     * Stops the I/O thread and closes the connections. Deltas not yet written are discarded.
+     */
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        selector.wakeup();
+        try {
+            ioThread.join(1000L);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info(String.format("%s stopped.", ioThread.getName()));
+    }
+
+    /**
+     * Replicates the changes of the specified session since its last replication.
+     *
+     * @see DefaultSession#takeDelta()
+     */
+    public void replicate(DefaultSession session) {
+        if (!isRunning) {
+            return;
+        }
+        try {
+            SessionDelta delta = session.takeDelta();
+            if (delta != null) {
+                send(delta);
+            }
+        } catch (IOException ex) {
+            LOGGER.warn(String.format("Failed to encode the delta of session %s: ", session.getId()), ex);
+        }
+    }
+
+    /**
+     * Replicates the destruction of the session with the specified id.
+     */
+    public void replicateDestroy(String sessionId) {
+        if (!isRunning) {
+            return;
+        }
+        try {
+            send(SessionDelta.destroy(sessionId));
+        } catch (IOException ex) {
+            LOGGER.warn(String.format("Failed to encode the destruction of session %s: ", sessionId), ex);
+        }
+    }
+
+    /**
+     * Queues a delta for every backup. A backup that cannot take the delta is marked for
+     * resynchronization.
+     */
+    public void send(SessionDelta delta) throws IOException {
+        ByteBuffer frame = encode(delta);
+        if (frame.get(4) == SessionDelta.TYPE_DESTROY) {
+            // before queueing, so that a resynchronization caused by a drop replays it
+            tombstone(delta.getSessionId());
+        }
+        for (Backup backup : backups) {
+            if (!enqueue(backup, frame.duplicate())) {
+                backup.needsResync = true;
+            }
+        }
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Binds the store the backups are resynchronized from.
+     */
+    void bind(SessionStore store) {
+        this.store = store;
+    }
+
+    private static ByteBuffer encode(SessionDelta delta) throws IOException {
+        byte[] body = delta.toByteArray();
+        ByteBuffer frame = ByteBuffer.allocate(4 + body.length);
+        frame.putInt(body.length).put(body).flip();
+        return frame;
+    }
+
+    /**
+     * Queues a frame for a backup, unless it would exceed the pending limit.
+     *
+     * @return {@code true} if the frame was queued, {@code false} if it was dropped.
+     */
+    private boolean enqueue(Backup backup, ByteBuffer frame) {
+        if (backup.pendingBytes.get() + frame.remaining() > maxPendingBytes) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        backup.pendingBytes.addAndGet(frame.remaining());
+        backup.queue.offer(frame);
+        return true;
+    }
+
+    /**
+     * Returns the number of deltas dropped because a backup fell too far behind.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of resynchronizations started, one per connection to a backup plus one
+     * per round of dropped deltas.
+     */
+    public long getResyncCount() {
+        return resyncs.get();
+    }
+
+    /**
+     * Returns whether every backup is connected and has no resynchronization pending or running.
+     */
+    public boolean isInSync() {
+        for (Backup backup : backups) {
+            if (!backup.connected || backup.needsResync || backup.resyncIds != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void setMaxPendingBytes(long maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    public void setReconnectDelay(long reconnectDelayMillis) {
+        this.reconnectDelayMillis = reconnectDelayMillis;
+    }
+
+    /**
+     * Sets the secret shared with the backups. When set, every connection starts with a hello
+     * frame signed with the secret, which the backups configured with the same secret require
+     * before accepting any delta. Must be set before {@link #start()}.
+     *
+     * @see SessionReplicationReceiver#setSharedSecret(byte[])
+     */
+    public void setSharedSecret(byte[] secret) {
+        this.handshake = secret == null ? null : new ReplicationHandshake(secret);
+    }
+
+    private void connect(Backup backup) {
+        backup.nextConnectTime = System.currentTimeMillis() + reconnectDelayMillis;
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            backup.channel = channel;
+            if (channel.connect(backup.address)) {
+                backup.key = channel.register(selector, SelectionKey.OP_READ, backup);
+                connected(backup);
+            } else {
+                backup.key = channel.register(selector, SelectionKey.OP_CONNECT, backup);
+            }
+        } catch (IOException ex) {
+            disconnect(backup, ex);
+        }
+    }
+
+    private void connected(Backup backup) {
+        if (handshake != null) {
+            byte[] hello = handshake.create();
+            ByteBuffer frame = ByteBuffer.allocate(4 + hello.length);
+            frame.putInt(hello.length).put(hello).flip();
+            backup.pendingBytes.addAndGet(frame.remaining());
+            backup.inFlight.addFirst(frame);
+        }
+        backup.connected = true;
+        // the backup may have missed deltas, or restarted empty, while it was unreachable
+        backup.needsResync = true;
+        LOGGER.info(String.format("Connected to backup %s.", backup.address));
+    }
+
+    private void disconnect(Backup backup, IOException cause) {
+        if (backup.connected && cause != null) {
+            LOGGER.warn(String.format("Lost the connection to backup %s: ", backup.address), cause);
+        }
+        backup.connected = false;
+        backup.resyncIds = null;
+        if (backup.key != null) {
+            backup.key.cancel();
+            backup.key = null;
+        }
+        if (backup.channel != null) {
+            try {
+                backup.channel.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+            backup.channel = null;
+        }
+        // deltas queued while disconnected are stale by the time the backup comes back
+        discard(backup);
+    }
+
+    private void discard(Backup backup) {
+        ByteBuffer frame;
+        while ((frame = backup.inFlight.poll()) != null || (frame = backup.queue.poll()) != null) {
+            backup.pendingBytes.addAndGet(-frame.remaining());
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remembers a destroyed session, so that its destruction is replayed by the next
+     * resynchronizations. Deltas are never acknowledged, so a destruction written to a connection
+     * that breaks soon after may be lost as well as a dropped one.
+     */
+    private void tombstone(String sessionId) {
+        synchronized (tombstones) {
+            tombstones.remove(sessionId);
+            tombstones.add(sessionId);
+            if (tombstones.size() > MAX_TOMBSTONES) {
+                Iterator<String> oldest = tombstones.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Queues the snapshots of the next sessions to resynchronize, while the backup's pending
+     * bytes stay under half of the limit, leaving room for the live deltas.
+     */
+    private void resync(Backup backup) {
+        SessionStore s = store;
+        if (s == null) {
+            backup.needsResync = false;
+            return;
+        }
+        if (backup.needsResync) {
+            backup.needsResync = false;
+            // the recent destructions go first, then every live session
+            List<String> ids;
+            synchronized (tombstones) {
+                ids = Lists.newArrayList(tombstones);
+            }
+            int destroyed = ids.size();
+            ids.addAll(s.getSessionIds());
+            backup.resyncIds = ids.iterator();
+            resyncs.incrementAndGet();
+            LOGGER.info(String.format("Resynchronizing backup %s: %s destroyed and %s live sessions.",
+                    backup.address, destroyed, ids.size() - destroyed));
+        }
+        Iterator<String> ids = backup.resyncIds;
+        if (ids == null) {
+            return;
+        }
+        long limit = maxPendingBytes >> 1;
+        while (backup.pendingBytes.get() < limit && ids.hasNext()) {
+            String id = ids.next();
+            Lock lock = s.lockFor(id);
+            lock.lock();
+            try {
+                // queued under the session's lock, so that a later destruction is queued after it
+                SessionDelta snapshot = s.snapshot(id);
+                if (snapshot == null) {
+                    // applying a destruction the backup already has is harmless
+                    enqueue(backup, encode(SessionDelta.destroy(id)));
+                } else if (!enqueue(backup, encode(snapshot))) {
+                    LOGGER.warn(String.format("Session %s is too large to resynchronize to backup %s.",
+                            id, backup.address));
+                }
+            } catch (IOException ex) {
+                LOGGER.warn(String.format("Failed to resynchronize session %s: ", id), ex);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (!ids.hasNext()) {
+            backup.resyncIds = null;
+        }
+    }
+
+    private void flush(Backup backup) throws IOException {
+        ByteBuffer frame;
+        while (backup.inFlight.size() < MAX_GATHER && (frame = backup.queue.poll()) != null) {
+            backup.inFlight.add(frame);
+        }
+        while (!backup.inFlight.isEmpty()) {
+            ByteBuffer[] buffers = backup.inFlight.toArray(new ByteBuffer[backup.inFlight.size()]);
+            long written = backup.channel.write(buffers);
+            backup.pendingBytes.addAndGet(-written);
+            while (!backup.inFlight.isEmpty() && !backup.inFlight.peek().hasRemaining()) {
+                backup.inFlight.poll();
+            }
+            if (!backup.inFlight.isEmpty()) {
+                backup.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            while (backup.inFlight.size() < MAX_GATHER && (frame = backup.queue.poll()) != null) {
+                backup.inFlight.add(frame);
+            }
+        }
+        backup.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Reads from a backup, which never sends anything: a readable connection has been closed by
+     * the backup. Without this, the replicator would only notice when a later write fails, and
+     * take the deltas written in between for delivered.
+     */
+    private void read(Backup backup) throws IOException {
+        readBuffer.clear();
+        if (backup.channel.read(readBuffer) < 0) {
+            throw new IOException("Connection closed by the backup.");
+        }
+    }
+
+    private class IoRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (isRunning) {
+                    if (isResyncing()) {
+                        selector.selectNow();
+                    } else {
+                        selector.select(reconnectDelayMillis);
+                    }
+                    wakeupPending.set(false);
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Backup backup = (Backup) key.attachment();
+                        try {
+                            if (key.isValid() && key.isConnectable() && backup.channel.finishConnect()) {
+                                key.interestOps(SelectionKey.OP_READ);
+                                connected(backup);
+                            } else if (key.isValid() && key.isReadable()) {
+                                read(backup);
+                            }
+                        } catch (IOException ex) {
+                            disconnect(backup, ex);
+                        }
+                    }
+                    long now = System.currentTimeMillis();
+                    for (Backup backup : backups) {
+                        if (backup.channel == null) {
+                            if (now >= backup.nextConnectTime) {
+                                connect(backup);
+                            } else {
+                                discard(backup);
+                            }
+                        }
+                        if (backup.connected) {
+                            resync(backup);
+                            try {
+                                flush(backup);
+                            } catch (IOException ex) {
+                                disconnect(backup, ex);
+                            }
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                LOGGER.error("The session replication I/O thread failed: ", ex);
+            } finally {
+                for (Backup backup : backups) {
+                    disconnect(backup, null);
+                }
+                try {
+                    selector.close();
+                } catch (IOException ex) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether a connected backup has snapshots left to queue and can take more of them.
+     */
+    private boolean isResyncing() {
+        for (Backup backup : backups) {
+            if (backup.connected && (backup.needsResync || backup.resyncIds != null)
+                    && backup.pendingBytes.get() < maxPendingBytes >> 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Backup {
+
+        final InetSocketAddress address;
+        final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<ByteBuffer>();
+        /** Frames being written, owned by the I/O thread. */
+        final ArrayDeque<ByteBuffer> inFlight = new ArrayDeque<ByteBuffer>();
+        final AtomicLong pendingBytes = new AtomicLong();
+        SocketChannel channel;
+        SelectionKey key;
+        volatile boolean connected;
+        long nextConnectTime;
+        /** Set when the backup missed deltas; it is then sent a snapshot of every session. */
+        volatile boolean needsResync;
+        /** The ids of the sessions left to resynchronize, owned by the I/O thread. */
+        volatile Iterator<String> resyncIds;
+
+        Backup(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+}
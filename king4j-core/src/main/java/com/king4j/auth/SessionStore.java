@@ -0,0 +1,547 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Holds the live sessions of an application. Sessions that stay idle longer than the
+ * {@link #setPassivateAfterIdle(long, TimeUnit) passivation threshold} are written to a
+ * {@link SessionSwapFile} and dropped from the heap; the store keeps only their swap handle, so
+ * the next {@link #get(String)} activates the session again with a single positional read.
+ * Sessions inactive for longer than their max inactive interval are removed, whether they are
+ * resident or passivated. Lifecycle events are published through an optional
+ * {@link SessionEventPublisher}, and session changes are shipped to backup nodes through an
+ * optional {@link SessionReplicator}.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class SessionStore {
+
+    /**
+     * The logger.
+     */
+    protected final Logger LOGGER = LoggerFactory.getLogger(getClass());
+
+    /**
+     * The default interval between two sweeps of the store, in milliseconds.
+     */
+    public static final long DEFAULT_SWEEP_INTERVAL = 10000L;
+
+    private final String storeName;
+    private final ConcurrentMap<String, DefaultSession> sessions =
+            new ConcurrentHashMap<String, DefaultSession>();
+    private final ConcurrentMap<String, SwappedSession> swapped =
+            new ConcurrentHashMap<String, SwappedSession>();
+    private final Striped<Lock> locks = Striped.lock(64);
+
+    private File swapFileLocation;
+    private SessionSwapFile swapFile;
+    private long passivateAfterIdleMillis = -1L;
+    private long sweepIntervalMillis = DEFAULT_SWEEP_INTERVAL;
+    private ScheduledExecutorService sweeper;
+    private SessionEventPublisher eventPublisher;
+    private SessionReplicator replicator;
+    private volatile boolean isRunning = false;
+
+    public SessionStore(String storeName) {
+        this.storeName = storeName;
+    }
+
+    /**
+     * Starts the store: opens the swap file (if passivation is enabled) and schedules the sweeper.
+     */
+    public synchronized void start() throws IOException {
+        if (isRunning) {
+            return;
+        }
+        if (passivateAfterIdleMillis > 0) {
+            File location = swapFileLocation;
+            if (location == null) {
+                location = File.createTempFile(
+                        storeName == null ? "sessions" : storeName + "-sessions", ".swap");
+            }
+            swapFile = new SessionSwapFile(location);
+        }
+        if (eventPublisher != null) {
+            eventPublisher.start();
+        }
+        if (replicator != null) {
+            replicator.start();
+        }
+        String threadName = storeName == null ? "SessionStore" :
+                String.format("%s_SessionStore", storeName);
+        sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(threadName).setDaemon(true).build());
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweep();
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Failed to sweep the session store: ", ex);
+                }
+            }
+        }, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        isRunning = true;
+        LOGGER.info(String.format("%s started.", threadName));
+    }
+
+    /**
+     * Stops the store, discarding all sessions and deleting the swap file.
+     */
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        sweeper.shutdownNow();
+        sessions.clear();
+        swapped.clear();
+        if (swapFile != null) {
+            try {
+                swapFile.close();
+            } catch (IOException ex) {
+                LOGGER.warn("Failed to close the session swap file: ", ex);
+            }
+            swapFile = null;
+        }
+        if (eventPublisher != null) {
+            eventPublisher.stop();
+        }
+        if (replicator != null) {
+            replicator.stop();
+        }
+    }
+
+    /**
+     * Adds a new session to the store.
+     */
+    public void add(DefaultSession session) {
+        checkNotNull(session, "The session must not be null.");
+        put(session, true);
+    }
+
+    /**
+     * Replaces the session with the same id by the specified one, as a backup does with the
+     * snapshots it receives. Only a session whose id is new to the store fires a creation event.
+     */
+    void replace(DefaultSession session) {
+        checkNotNull(session, "The session must not be null.");
+        put(session, false);
+    }
+
+    /**
+     * Makes the specified session resident, dropping any passivated copy of a session with the
+     * same id so that the stale copy cannot expire later and take the live session with it.
+     */
+    private void put(DefaultSession session, boolean alwaysCreated) {
+        String id = session.getId();
+        Lock lock = locks.get(id);
+        lock.lock();
+        try {
+            SwappedSession swappedSession = swapped.remove(id);
+            if (swappedSession != null) {
+                release(swappedSession);
+            }
+            DefaultSession previous = sessions.put(id, session);
+            if (alwaysCreated || (previous == null && swappedSession == null)) {
+                fireEvent(Session.SESSION_CREATED_EVENT, id);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the session with the specified id, activating it from the swap file if it was
+     * passivated, and records the access. Returns {@code null} if there is no such session or
+     * it has expired.
+     * <p/>
+     * The access is recorded under the same lock {@link #passivate(DefaultSession)} holds while
+     * it re-checks the idle time, so a session being handed out is never passivated.
+     */
+    public DefaultSession get(String id) {
+        if (id == null) {
+            return null;
+        }
+        DefaultSession session;
+        boolean expired;
+        Lock lock = locks.get(id);
+        lock.lock();
+        try {
+            session = lookup(id);
+            if (session == null) {
+                return null;
+            }
+            expired = session.isExpired(System.currentTimeMillis());
+            if (!expired) {
+                session.access();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (expired) {
+            remove(id);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Signals the end of a request that accessed the specified session. All the changes the
+     * request made to the session are replicated as a single delta.
+     */
+    public void endAccess(DefaultSession session) {
+        SessionReplicator r = replicator;
+        if (r != null && session != null) {
+            r.replicate(session);
+        }
+    }
+
+    /**
+     * Returns the session with the specified id, activating it if needed, without recording an
+     * access or checking its expiration.
+     */
+    DefaultSession lookup(String id) {
+        DefaultSession session = sessions.get(id);
+        if (session == null && swapped.containsKey(id)) {
+            session = activate(id);
+        }
+        return session;
+    }
+
+    /**
+     * Removes the session with the specified id, whether it is resident or passivated.
+     *
+     * @return the removed session if it was resident, otherwise {@code null}.
+     */
+    public DefaultSession remove(String id) {
+        Lock lock = locks.get(id);
+        lock.lock();
+        try {
+            SwappedSession swappedSession = swapped.remove(id);
+            if (swappedSession != null) {
+                release(swappedSession);
+            }
+            DefaultSession session = sessions.remove(id);
+            if (session != null || swappedSession != null) {
+                destroyed(id);
+            }
+            return session;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the specified expired session, unless it has been replaced in the meantime.
+     */
+    private void expire(String id, DefaultSession session) {
+        Lock lock = locks.get(id);
+        lock.lock();
+        try {
+            if (sessions.remove(id, session)) {
+                destroyed(id);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the specified expired passivated session, unless it has been activated or replaced
+     * in the meantime.
+     */
+    private void expire(String id, SwappedSession swappedSession) {
+        Lock lock = locks.get(id);
+        lock.lock();
+        try {
+            if (swapped.remove(id, swappedSession)) {
+                release(swappedSession);
+                destroyed(id);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void destroyed(String id) {
+        fireEvent(Session.SESSION_DESTROYED_EVENT, id);
+        SessionReplicator r = replicator;
+        if (r != null) {
+            r.replicateDestroy(id);
+        }
+    }
+
+    /**
+     * Returns the ids of the live sessions, resident or passivated, at the time of the call.
+     */
+    List<String> getSessionIds() {
+        Set<String> ids = Sets.newLinkedHashSet(sessions.keySet());
+        ids.addAll(swapped.keySet());
+        // a session activated while the swapped ids were read is back among the resident ones
+        ids.addAll(sessions.keySet());
+        return Lists.newArrayList(ids);
+    }
+
+    /**
+     * Returns the lock guarding the session with the specified id. Adding, removing, passivating
+     * and activating the session all happen under this lock.
+     */
+    Lock lockFor(String id) {
+        return locks.get(id);
+    }
+
+    /**
+     * Returns a full snapshot of the session with the specified id, read from the swap file if it
+     * is passivated, or {@code null} if there is no such session. The caller must hold
+     * {@link #lockFor(String)} so that the snapshot cannot overtake the session's destruction.
+     */
+    SessionDelta snapshot(String id) throws IOException {
+        DefaultSession session = sessions.get(id);
+        if (session != null) {
+            return SessionDelta.snapshot(id, session.toByteArray());
+        }
+        SwappedSession swappedSession = swapped.get(id);
+        SessionSwapFile file = swapFile;
+        if (swappedSession != null && file != null) {
+            return SessionDelta.snapshot(id, file.read(swappedSession.handle));
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of live sessions, including the passivated ones.
+     */
+    public int size() {
+        return sessions.size() + swapped.size();
+    }
+
+    /**
+     * Returns the number of sessions currently passivated to the swap file.
+     */
+    public int getPassivatedCount() {
+        return swapped.size();
+    }
+
+    /**
+     * Removes expired sessions and passivates the ones idle for longer than the passivation
+     * threshold. This is called periodically once the store is started.
+     */
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        for (DefaultSession session : sessions.values()) {
+            if (session.isExpired(now)) {
+                expire(session.getId(), session);
+            } else if (passivateAfterIdleMillis > 0
+                    && now - session.getLastAccessedTime() > passivateAfterIdleMillis) {
+                passivate(session);
+            }
+        }
+        for (Map.Entry<String, SwappedSession> entry : swapped.entrySet()) {
+            if (entry.getValue().isExpired(now)) {
+                expire(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the specified session to the swap file and drops it from the heap. The session is
+     * left resident if it was accessed within the passivation threshold, which is re-checked
+     * under the session's lock.
+     *
+     * @return {@code true} if the session was passivated.
+     */
+    protected boolean passivate(DefaultSession session) {
+        SessionSwapFile file = swapFile;
+        if (file == null) {
+            return false;
+        }
+        String id = session.getId();
+        Lock lock = locks.get(id);
+        lock.lock();
+        try {
+            if (sessions.get(id) != session
+                    || System.currentTimeMillis() - session.getLastAccessedTime() <= passivateAfterIdleMillis) {
+                return false;
+            }
+            long handle = file.write(session.toByteArray());
+            swapped.put(id, new SwappedSession(handle, session.getLastAccessedTime(),
+                    session.getMaxInactiveInterval()));
+            sessions.remove(id);
+            fireEvent(Session.SESSION_PASSIVATED_EVENT, id);
+            return true;
+        } catch (IOException ex) {
+            LOGGER.warn(String.format("Failed to passivate session %s: ", id), ex);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the passivated session with the specified id back into the heap.
+     *
+     * @return the activated session, or {@code null} if it is not passivated.
+     */
+    protected DefaultSession activate(String id) {
+        Lock lock = locks.get(id);
+        lock.lock();
+        try {
+            DefaultSession session = sessions.get(id);
+            if (session != null) {
+                return session;
+            }
+            SessionSwapFile file = swapFile;
+            if (file == null) {
+                // the store has been stopped
+                return null;
+            }
+            SwappedSession swappedSession = swapped.remove(id);
+            if (swappedSession == null) {
+                return null;
+            }
+            try {
+                session = DefaultSession.fromByteArray(file.read(swappedSession.handle));
+            } finally {
+                release(swappedSession);
+            }
+            sessions.put(id, session);
+            fireEvent(Session.SESSION_ACTIVATED_EVENT, id);
+            return session;
+        } catch (IOException ex) {
+            LOGGER.error(String.format("Failed to activate session %s: ", id), ex);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fireEvent(String type, String id) {
+        SessionEventPublisher publisher = eventPublisher;
+        if (publisher != null) {
+            publisher.publish(type, id);
+        }
+    }
+
+    private void release(SwappedSession swappedSession) {
+        SessionSwapFile file = swapFile;
+        if (file != null) {
+            file.release(swappedSession.handle);
+        }
+    }
+
+    public String getStoreName() {
+        return storeName;
+    }
+
+    /**
+     * Sets the location of the swap file. If not set, a temporary file is used.
+     */
+    public void setSwapFile(File swapFileLocation) {
+        this.swapFileLocation = swapFileLocation;
+    }
+
+    /**
+     * Sets how long a session may stay idle before it is passivated. A non-positive duration
+     * disables passivation. Must be set before {@link #start()}.
+     */
+    public void setPassivateAfterIdle(long duration, TimeUnit unit) {
+        this.passivateAfterIdleMillis = unit.toMillis(duration);
+    }
+
+    public long getPassivateAfterIdleMillis() {
+        return passivateAfterIdleMillis;
+    }
+
+    /**
+     * Sets the interval between two sweeps of the store. Must be set before {@link #start()}.
+     */
+    public void setSweepInterval(long interval, TimeUnit unit) {
+        this.sweepIntervalMillis = unit.toMillis(interval);
+    }
+
+    public SessionEventPublisher getEventPublisher() {
+        return eventPublisher;
+    }
+
+    /**
+     * Sets the publisher of the session lifecycle events. The store starts and stops the
+     * publisher together with itself. Must be set before {@link #start()}.
+     */
+    public void setEventPublisher(SessionEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    public SessionReplicator getReplicator() {
+        return replicator;
+    }
+
+    /**
+     * Sets the replicator shipping session changes to the backup nodes. The store starts and
+     * stops the replicator together with itself, and the replicator resynchronizes a backup from
+     * the sessions of this store whenever it connects or had to drop changes. Must be set before
+     * {@link #start()}.
+     */
+    public void setReplicator(SessionReplicator replicator) {
+        this.replicator = replicator;
+        if (replicator != null) {
+            replicator.bind(this);
+        }
+    }
+
+    /**
+     * The index entry of a passivated session.
+     */
+    private static class SwappedSession {
+
+        final long handle;
+        final long lastAccessedTime;
+        final int maxInactiveInterval;
+
+        SwappedSession(long handle, long lastAccessedTime, int maxInactiveInterval) {
+            this.handle = handle;
+            this.lastAccessedTime = lastAccessedTime;
+            this.maxInactiveInterval = maxInactiveInterval;
+        }
+
+        boolean isExpired(long now) {
+            return maxInactiveInterval > 0 && now - lastAccessedTime > maxInactiveInterval * 1000L;
+        }
+    }
+}
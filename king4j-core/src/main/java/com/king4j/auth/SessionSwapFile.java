@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import com.google.common.collect.Lists;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A memory-mapped, append-structured swap file for passivated sessions. The file is divided into
+ * fixed-size segments that are mapped on demand; records are appended to the current segment and
+ * addressed by an opaque {@code long} handle. A segment is reused as soon as every record in it
+ * has been {@link #release(long) released}, so the file only grows while old sessions are still
+ * swapped out.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class SessionSwapFile {
+
+    /** The default size of a mapped segment: 16 MB. */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+
+    private static final int RECORD_MAGIC = 0x4B534E31;
+    private static final int HEADER_SIZE = 8;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final List<Segment> segments = Lists.newArrayList();
+    private Segment current;
+    private boolean closed;
+
+    public SessionSwapFile(File file) throws IOException {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public SessionSwapFile(File file, int segmentSize) throws IOException {
+        checkArgument(segmentSize > HEADER_SIZE, "The segment size is too small: %s", segmentSize);
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.raf.setLength(0L);
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * Appends the specified record and returns its handle.
+     *
+     * @throws IOException if the record is larger than a segment, or the file cannot be mapped.
+     */
+    public synchronized long write(byte[] data) throws IOException {
+        checkOpen();
+        int size = HEADER_SIZE + data.length;
+        if (size > segmentSize) {
+            throw new IOException(String.format("The record (%s bytes) exceeds the segment size %s.",
+                    data.length, segmentSize));
+        }
+        if (current != null && current.liveRecords == 0) {
+            current.position = 0;
+        }
+        if (current == null || current.position + size > segmentSize) {
+            current = nextSegment();
+        }
+        int offset = current.position;
+        ByteBuffer buffer = current.buffer.duplicate();
+        buffer.position(offset);
+        buffer.putInt(RECORD_MAGIC).putInt(data.length).put(data);
+        current.position += size;
+        current.liveRecords++;
+        return ((long) current.index << 32) | offset;
+    }
+
+    /**
+     * Reads the record with the specified handle.
+     */
+    public synchronized byte[] read(long handle) throws IOException {
+        checkOpen();
+        Segment segment = segmentOf(handle);
+        int offset = (int) handle;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        if (buffer.getInt(offset) != RECORD_MAGIC) {
+            throw new StreamCorruptedException("No swap record at handle " + handle);
+        }
+        int length = buffer.getInt(offset + 4);
+        byte[] data = new byte[length];
+        buffer.position(offset + HEADER_SIZE);
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Releases the record with the specified handle. The handle must not be used again.
+     */
+    public synchronized void release(long handle) {
+        if (closed) {
+            return;
+        }
+        Segment segment = segmentOf(handle);
+        segment.buffer.putInt((int) handle, 0);
+        if (--segment.liveRecords == 0 && segment != current) {
+            segment.position = 0;
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently mapped by this swap file.
+     */
+    public synchronized long getMappedSize() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Closes the swap file and deletes it from disk.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments.clear();
+        current = null;
+        try {
+            channel.close();
+            raf.close();
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private Segment nextSegment() throws IOException {
+        for (Segment segment : segments) {
+            if (segment.liveRecords == 0 && segment != current) {
+                segment.position = 0;
+                return segment;
+            }
+        }
+        int index = segments.size();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                (long) index * segmentSize, segmentSize);
+        Segment segment = new Segment(index, buffer);
+        segments.add(segment);
+        return segment;
+    }
+
+    private Segment segmentOf(long handle) {
+        int index = (int) (handle >>> 32);
+        checkArgument(index >= 0 && index < segments.size(), "Invalid swap handle: %s", handle);
+        return segments.get(index);
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The session swap file is closed: " + file);
+        }
+    }
+
+    private static class Segment {
+
+        final int index;
+        final MappedByteBuffer buffer;
+        int position;
+        int liveRecords;
+
+        Segment(int index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -56,6 +57,34 @@ public class CacheBuilder<K, V> {
     long refreshNanos = NOSET_VAL;
 
     List<RemovalListener> removalListeners = Lists.newArrayList();
+    CacheTracer tracer;
+    Expiry<? super K, ? super V> expiry;
+    double readyFraction = NOSET_VAL;
+    long expireAbsentAfterNanos = NOSET_VAL;
+    double maximumAbsentFraction = NOSET_VAL;
+    int hotKeyCount = NOSET_VAL;
+    boolean recordHitRatioCurve;
+    CacheWriter<? super K, ? super V> writer;
+    long writeBehindNanos = NOSET_VAL;
+    int writeBehindBatchSize = NOSET_VAL;
+    long maximumWeight = NOSET_VAL;
+    Weigher<? super K, ? super V> weigher;
+    boolean threadless;
+    ValueCodec<?> valueCodec;
+    int compressionThreshold = NOSET_VAL;
+    int decompressedCacheSize = NOSET_VAL;
+    File overflowDirectory;
+    long overflowMaximumBytes = NOSET_VAL;
+    ValueCodec<?> overflowCodec;
+    CacheLoader<?, ?> batchLoader;
+    int maximumConcurrentLoads = NOSET_VAL;
+    long loadTimeoutNanos = NOSET_VAL;
+    long staleIfErrorNanos = NOSET_VAL;
+    double expirationJitter = NOSET_VAL;
+    double earlyRefreshBeta = NOSET_VAL;
+    long batchLoadWindowNanos = NOSET_VAL;
+    int maximumLoadBatchSize = NOSET_VAL;
+    int eventJournalCapacity = NOSET_VAL;
 
     private CacheBuilder(String name) {
         this.cacheName = name;
@@ -94,8 +123,66 @@ public class CacheBuilder<K, V> {
         return initialCapacity == NOSET_VAL ? DEFAULT_INITIAL_CAPACITY : initialCapacity;
     }
 
+    /**
+     * 设置缓存条目的最大数量，超出时即将过期的缓存条目将被移除。
+     *
+     * @param maximumSize 缓存条目的最大数量。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code maximumSize} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code maximumSize < 0}。
+     */
+    public CacheBuilder<K, V> maximumSize(int maximumSize) {
+        checkState(this.maximumSize == NOSET_VAL, "maximum size was already set to %s", this.maximumSize);
+        checkArgument(maximumSize >= 0, "The maximum size must not be negative: %s", maximumSize);
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
     int getMaximumSize() {
-        return 0;
+        return maximumSize;
+    }
+
+    /**
+     * 设置缓存条目权重总和的上限，超出时即将过期的缓存条目将被移除。条目的权重由 {@link #weigher(Weigher)}
+     * 计算，没有指定时每个条目的权重为 {@code 1}。
+     *
+     * @param maximumWeight 缓存条目权重总和的上限。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code maximumWeight} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code maximumWeight < 0}。
+     */
+    public CacheBuilder<K, V> maximumWeight(long maximumWeight) {
+        checkState(this.maximumWeight == NOSET_VAL, "maximum weight was already set to %s",
+                this.maximumWeight);
+        checkArgument(maximumWeight >= 0, "The maximum weight must not be negative: %s", maximumWeight);
+        this.maximumWeight = maximumWeight;
+        return this;
+    }
+
+    long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * 指定计算缓存条目权重的 {@link Weigher}。
+     *
+     * @param weigher 缓存条目的权重计算器。
+     * @param <K1> 缓存的键类型。
+     * @param <V1> 缓存的值类型。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code weigher} 已经被设置。
+     */
+    public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> weigher(
+            Weigher<? super K1, ? super V1> weigher) {
+        checkNotNull(weigher, "The Weigher instance must not be null.");
+        checkState(this.weigher == null, "weigher was already set to %s", this.weigher);
+        CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+        me.weigher = weigher;
+        return me;
+    }
+
+    Weigher<? super K, ? super V> getWeigher() {
+        return weigher;
     }
 
     /**
@@ -110,6 +197,7 @@ public class CacheBuilder<K, V> {
     public CacheBuilder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
         checkState(expireAfterWriteNanos == NOSET_VAL, "expireAfterWrite was already set %s ns",
                 expireAfterWriteNanos);
+        checkState(expiry == null, "expireAfterWrite may not be used with expireAfter(Expiry)");
         checkArgument(duration >= 0, "The duration must not be negative: %s %s", duration, unit);
         this.expireAfterWriteNanos = unit.toNanos(duration);
         return this;
@@ -133,6 +221,7 @@ public class CacheBuilder<K, V> {
     public CacheBuilder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
         checkState(expireAfterAccessNanos == NOSET_VAL, "expireAfterAccess was already set %s ns",
                 expireAfterAccessNanos);
+        checkState(expiry == null, "expireAfterAccess may not be used with expireAfter(Expiry)");
         checkArgument(duration >= 0, "The duration must not be negative: %s %s", duration, unit);
         this.expireAfterAccessNanos = unit.toNanos(duration);
         return this;
@@ -142,6 +231,516 @@ public class CacheBuilder<K, V> {
         return expireAfterAccessNanos == NOSET_VAL ? DEFAULT_EXPIRATION_NANOS : expireAfterAccessNanos;
     }
 
+    /**
+     * 指定计算每个缓存条目存活时间的过期策略，存活时间精确到纳秒。
+     * <p/>
+     * 过期策略与 {@link #expireAfterWrite(long, TimeUnit)}、{@link #expireAfterAccess(long, TimeUnit)} 不能同时使用。
+     *
+     * @param expiry 过期策略。
+     * @param <K1> 缓存的键类型。
+     * @param <V1> 缓存的值类型。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果过期策略、{@code expireAfterWrite} 或 {@code expireAfterAccess} 已经被设置。
+     */
+    public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> expireAfter(
+            Expiry<? super K1, ? super V1> expiry) {
+        checkNotNull(expiry, "The Expiry instance must not be null.");
+        checkState(this.expiry == null, "expiry was already set to %s", this.expiry);
+        checkState(expireAfterWriteNanos == NOSET_VAL, "expireAfter may not be used with expireAfterWrite");
+        checkState(expireAfterAccessNanos == NOSET_VAL, "expireAfter may not be used with expireAfterAccess");
+        CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+        me.expiry = expiry;
+        return me;
+    }
+
+    Expiry<? super K, ? super V> getExpiry() {
+        return expiry;
+    }
+
+    /**
+     * 缓存不存在的键：{@code valueLoader} 返回 {@code null} 时，在持续的时间{@code duration}内记住该键不存在，
+     * 对该键的读取直接返回 {@code null}，不再调用 {@code valueLoader}。不存在的条目与正常的条目分开统计，
+     * 不会通知移除事件监听器。
+     *
+     * @param duration 不存在的键的缓存时间值。
+     * @param unit 不存在的键的缓存时间单位。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code expireAbsentAfter} 已经被设置。
+     * @throws IllegalArgumentException 如果指定的时间值 {@code duration <= 0}。
+     */
+    public CacheBuilder<K, V> expireAbsentAfter(long duration, TimeUnit unit) {
+        checkState(expireAbsentAfterNanos == NOSET_VAL, "expireAbsentAfter was already set %s ns",
+                expireAbsentAfterNanos);
+        checkArgument(duration > 0, "The duration must be positive: %s %s", duration, unit);
+        this.expireAbsentAfterNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    long getExpireAbsentAfterNanos() {
+        return expireAbsentAfterNanos;
+    }
+
+    /**
+     * 设置不存在的条目最多占用的缓存最大数量的比例，默认为 {@code 0.1}。
+     *
+     * @param maximumAbsentFraction 不存在的条目的最大比例。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code maximumAbsentFraction} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code maximumAbsentFraction} 不在 {@code (0, 1]} 之间。
+     */
+    public CacheBuilder<K, V> maximumAbsentFraction(double maximumAbsentFraction) {
+        checkState(this.maximumAbsentFraction == NOSET_VAL, "maximumAbsentFraction was already set to %s",
+                this.maximumAbsentFraction);
+        checkArgument(maximumAbsentFraction > 0.0 && maximumAbsentFraction <= 1.0,
+                "The maximumAbsentFraction must be in (0, 1]: %s", maximumAbsentFraction);
+        this.maximumAbsentFraction = maximumAbsentFraction;
+        return this;
+    }
+
+    double getMaximumAbsentFraction() {
+        return maximumAbsentFraction == NOSET_VAL ? DefaultCache.DEFAULT_MAXIMUM_ABSENT_FRACTION :
+                maximumAbsentFraction;
+    }
+
+    /**
+     * 指定缓存的写入器，{@code put} 和 {@code remove} 操作在更新缓存前同步写入存储（直写）。
+     * 配合 {@link #writeBehind(long, TimeUnit)} 使用时改为延迟写。
+     *
+     * @param writer 缓存的写入器。
+     * @param <K1> 缓存的键类型。
+     * @param <V1> 缓存的值类型。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code writer} 已经被设置。
+     */
+    public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> writer(CacheWriter<K1, V1> writer) {
+        checkNotNull(writer, "The CacheWriter instance must not be null.");
+        checkState(this.writer == null, "writer was already set to %s", this.writer);
+        CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+        me.writer = writer;
+        return me;
+    }
+
+    <K1 extends K, V1 extends V> CacheWriter<K1, V1> getWriter() {
+        return (CacheWriter<K1, V1>) writer;
+    }
+
+    /**
+     * 开启延迟写：同一个键在 {@code delay} 内的多次写入和删除被合并，到期后由后台线程批量提交给写入器，
+     * 提交失败时自动重试。必须同时通过 {@link #writer(CacheWriter)} 指定写入器。
+     *
+     * @param delay 延迟时间值。
+     * @param unit 延迟时间单位。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code writeBehind} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code delay <= 0}。
+     */
+    public CacheBuilder<K, V> writeBehind(long delay, TimeUnit unit) {
+        checkState(writeBehindNanos == NOSET_VAL, "writeBehind was already set %s ns", writeBehindNanos);
+        checkState(!threadless, "writeBehind may not be used with threadless");
+        checkArgument(delay > 0, "The delay must be positive: %s %s", delay, unit);
+        this.writeBehindNanos = unit.toNanos(delay);
+        return this;
+    }
+
+    long getWriteBehindNanos() {
+        return writeBehindNanos;
+    }
+
+    /**
+     * 设置延迟写每批提交的最大操作数量，默认为 {@link DefaultCache#DEFAULT_WRITE_BEHIND_BATCH_SIZE}。
+     *
+     * @param batchSize 每批的最大操作数量。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code writeBehindBatchSize} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code batchSize <= 0}。
+     */
+    public CacheBuilder<K, V> writeBehindBatchSize(int batchSize) {
+        checkState(writeBehindBatchSize == NOSET_VAL, "writeBehindBatchSize was already set to %s",
+                writeBehindBatchSize);
+        checkArgument(batchSize > 0, "The batchSize must be positive: %s", batchSize);
+        this.writeBehindBatchSize = batchSize;
+        return this;
+    }
+
+    int getWriteBehindBatchSize() {
+        return writeBehindBatchSize == NOSET_VAL ? DefaultCache.DEFAULT_WRITE_BEHIND_BATCH_SIZE :
+                writeBehindBatchSize;
+    }
+
+    /**
+     * 使用无守护线程模式：缓存不启动任何线程，也不注册 MBean，过期的条目由读写缓存的调用者线程分摊处理，
+     * 每次只处理少量到期的条目。{@link #build()} 返回的缓存立即可用，不需要调用 {@link DefaultCache#start()}。
+     * <p/>
+     * 适用于需要快速启动的短生命周期进程，或者限制创建线程的环境。过期的条目在下一次读写之前不会被移除。
+     * 无守护线程模式不能与 {@link #writeBehind(long, TimeUnit)} 同时使用，{@link #earlyRefresh(double) 提前刷新}
+     * 在触发它的调用者线程上执行。
+     *
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code threadless} 或 {@code writeBehind} 已经被设置。
+     */
+    public CacheBuilder<K, V> threadless() {
+        checkState(!threadless, "threadless was already set");
+        checkState(writeBehindNanos == NOSET_VAL, "threadless may not be used with writeBehind");
+        checkState(loadTimeoutNanos == NOSET_VAL, "threadless may not be used with loadTimeout");
+        this.threadless = true;
+        return this;
+    }
+
+    boolean isThreadless() {
+        return threadless;
+    }
+
+    /**
+     * 开启合并加载：{@link Cache#get(Object, java.util.concurrent.Callable)} 未命中时不直接调用
+     * {@code valueLoader}，而是将键交给批量加载器。{@code window} 时间内（或者达到 {@code maximumBatchSize}
+     * 之前）不同线程的未命中被合并为一次 {@link CacheLoader#loadAll(Iterable)} 调用，结果写入缓存并分发给
+     * 每个等待的调用者，同一个键同时只会被加载一次。
+     * <p/>
+     * {@code loadAll} 的结果中没有的键仍由调用者各自的 {@code valueLoader} 加载；{@code loadAll} 抛出异常时，
+     * 该批次的所有调用者都抛出 {@link java.util.concurrent.ExecutionException}。指定了过期时间的
+     * {@link Cache#get(Object, int, java.util.concurrent.Callable)} 不参与合并。
+     * 合并加载不使用额外的线程，每个批次由第一个未命中的调用者等待窗口结束后执行。
+     *
+     * @param loader 批量加载器，应覆盖 {@link CacheLoader#loadAll(Iterable)}。
+     * @param window 合并的时间窗口。
+     * @param unit 时间窗口的单位。
+     * @param maximumBatchSize 每批最多合并的键的数量。
+     * @param <K1> 缓存的键类型。
+     * @param <V1> 缓存的值类型。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果合并加载已经被设置。
+     * @throws IllegalArgumentException 如果 {@code window < 0} 或者 {@code maximumBatchSize <= 0}。
+     */
+    public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> coalesceLoads(CacheLoader<K1, V1> loader,
+                                                                         long window, TimeUnit unit,
+                                                                         int maximumBatchSize) {
+        checkNotNull(loader, "The CacheLoader instance must not be null.");
+        checkState(batchLoader == null, "coalesceLoads was already set to %s", batchLoader);
+        checkArgument(window >= 0, "The window must not be negative: %s", window);
+        checkArgument(maximumBatchSize > 0, "The maximum batch size must be positive: %s", maximumBatchSize);
+        CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+        me.batchLoader = loader;
+        me.batchLoadWindowNanos = unit.toNanos(window);
+        me.maximumLoadBatchSize = maximumBatchSize;
+        return me;
+    }
+
+    /**
+     * 限制同时进行的加载数量（舱壁隔离）。设置后，{@link Cache#get(Object, java.util.concurrent.Callable)}
+     * 的加载在缓存锁外执行，同一个键同时只有一个加载，其他调用者等待其结果；没有可用的加载许可时，
+     * 调用者在 {@link #loadTimeout(long, TimeUnit) 加载超时时间} 内等待许可（没有设置超时时间时立即），
+     * 仍然没有许可则加载被拒绝，抛出以 {@link java.util.concurrent.RejectedExecutionException} 为原因的
+     * {@link java.util.concurrent.ExecutionException}。
+     * <p/>
+     * 后端故障时，加载许可限制了压向后端的并发请求，配合 {@link #staleIfError(long, TimeUnit)} 可以在拒绝时返回过期的值。
+     *
+     * @param maximumConcurrentLoads 同时进行的加载数量的上限。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code maximumConcurrentLoads} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code maximumConcurrentLoads <= 0}。
+     */
+    public CacheBuilder<K, V> maximumConcurrentLoads(int maximumConcurrentLoads) {
+        checkState(this.maximumConcurrentLoads == NOSET_VAL, "maximumConcurrentLoads was already set to %s",
+                this.maximumConcurrentLoads);
+        checkArgument(maximumConcurrentLoads > 0, "The maximum concurrent loads must be positive: %s",
+                maximumConcurrentLoads);
+        this.maximumConcurrentLoads = maximumConcurrentLoads;
+        return this;
+    }
+
+    int getMaximumConcurrentLoads() {
+        return maximumConcurrentLoads;
+    }
+
+    /**
+     * 设置加载的超时时间。设置后，加载在缓存锁外由缓存的加载线程执行，调用者最多等待 {@code timeout}
+     * （包括等待加载许可的时间），超时后抛出以 {@link java.util.concurrent.TimeoutException} 为原因的
+     * {@link java.util.concurrent.ExecutionException}，或者返回过期的值。超时的加载不会被取消，完成后照常写入缓存。
+     * <p/>
+     * 加载超时不能与 {@link #threadless()} 同时使用。
+     *
+     * @param timeout 加载的超时时间。
+     * @param unit 超时时间的单位。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code loadTimeout} 已经被设置，或者已经设置了 {@code threadless}。
+     * @throws IllegalArgumentException 如果 {@code timeout <= 0}。
+     */
+    public CacheBuilder<K, V> loadTimeout(long timeout, TimeUnit unit) {
+        checkState(loadTimeoutNanos == NOSET_VAL, "loadTimeout was already set %s ns", loadTimeoutNanos);
+        checkState(!threadless, "loadTimeout may not be used with threadless");
+        checkArgument(timeout > 0, "The load timeout must be positive: %s %s", timeout, unit);
+        this.loadTimeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    long getLoadTimeoutNanos() {
+        return loadTimeoutNanos;
+    }
+
+    /**
+     * 设置过期条目的保留期：条目过期后不会立即被移除，在 {@code grace} 时间内，对它的读取仍视为未命中并重新加载，
+     * 但重新加载失败、超时或被拒绝时返回过期的值，而不是抛出异常。保留期内的条目仍然计入缓存的大小。
+     *
+     * @param grace 过期条目的保留时间。
+     * @param unit 保留时间的单位。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code staleIfError} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code grace <= 0}。
+     */
+    public CacheBuilder<K, V> staleIfError(long grace, TimeUnit unit) {
+        checkState(staleIfErrorNanos == NOSET_VAL, "staleIfError was already set %s ns", staleIfErrorNanos);
+        checkArgument(grace > 0, "The grace period must be positive: %s %s", grace, unit);
+        this.staleIfErrorNanos = unit.toNanos(grace);
+        return this;
+    }
+
+    long getStaleIfErrorNanos() {
+        return staleIfErrorNanos;
+    }
+
+    /**
+     * 设置存活时间的抖动比例：每次写入时，条目的存活时间被随机缩短 {@code [0, jitter)} 的比例。
+     * 同时写入的一批条目（例如预热）因此不会在同一时刻过期，过期引起的加载被分散开。
+     *
+     * @param jitter 抖动比例，取值范围 {@code (0, 1)}。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code expirationJitter} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code jitter} 不在 {@code (0, 1)} 之间。
+     */
+    public CacheBuilder<K, V> expirationJitter(double jitter) {
+        checkState(expirationJitter == NOSET_VAL, "expirationJitter was already set to %s", expirationJitter);
+        checkArgument(jitter > 0.0 && jitter < 1.0, "The expiration jitter must be in (0, 1): %s", jitter);
+        this.expirationJitter = jitter;
+        return this;
+    }
+
+    double getExpirationJitter() {
+        return expirationJitter == NOSET_VAL ? 0.0 : expirationJitter;
+    }
+
+    /**
+     * 开启概率性的提前刷新（XFetch）：{@link Cache#get(Object, java.util.concurrent.Callable)} 命中时，
+     * 以随着临近到期和最近加载耗时增大的概率将命中视为需要刷新，用该调用者的 {@code valueLoader} 在后台重新加载，
+     * 调用者直接返回原来的值。同一个键同时只有一个刷新；刷新失败或者刷新线程都在忙时保留原来的值。
+     * 设置了 {@link #loadTimeout(long, TimeUnit) 加载超时时间} 时刷新在加载线程池中执行，否则由缓存的刷新线程执行。
+     * {@link #threadless() 无守护线程模式}下不创建刷新线程，刷新在触发它的调用者线程上、缓存锁外同步执行，
+     * 该调用者等待刷新完成后返回原来的值，其他读取者不受影响。
+     * <p/>
+     * 热点条目因此在过期之前就被某一个读取者刷新，而不是在过期时被大量读取者同时加载。
+     * {@code beta} 为 {@code 1.0} 时效果接近最优，大于 {@code 1.0} 时更早刷新。
+     *
+     * @param beta 提前刷新的系数。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code earlyRefresh} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code beta <= 0}。
+     */
+    public CacheBuilder<K, V> earlyRefresh(double beta) {
+        checkState(earlyRefreshBeta == NOSET_VAL, "earlyRefresh was already set to %s", earlyRefreshBeta);
+        checkArgument(beta > 0.0, "The early refresh beta must be positive: %s", beta);
+        this.earlyRefreshBeta = beta;
+        return this;
+    }
+
+    double getEarlyRefreshBeta() {
+        return earlyRefreshBeta == NOSET_VAL ? 0.0 : earlyRefreshBeta;
+    }
+
+    <K1 extends K, V1 extends V> CacheLoader<K1, V1> getBatchLoader() {
+        return (CacheLoader<K1, V1>) batchLoader;
+    }
+
+    long getBatchLoadWindowNanos() {
+        return batchLoadWindowNanos;
+    }
+
+    int getMaximumLoadBatchSize() {
+        return maximumLoadBatchSize;
+    }
+
+    /**
+     * 开启值压缩：写入缓存时，用 {@code codec} 编码后长度达到 {@code threshold} 字节的值使用 LZF 压缩后保存，
+     * 读取时再解压缩并解码；压缩后不会更小的值保持原样。最近解压缩的值保存在一个小的缓存中，
+     * 热点键的重复读取不需要重复解压缩。
+     * <p/>
+     * 压缩的条目按压缩率折算权重，相同的 {@code maximumWeight} 可以容纳更多的条目。
+     * 注意读取压缩的条目返回的是解码后的新对象，而不是写入时的对象。
+     *
+     * @param codec 缓存值的编解码器。
+     * @param threshold 压缩的阈值（字节）。
+     * @param <K1> 缓存的键类型。
+     * @param <V1> 缓存的值类型。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果值压缩已经被设置。
+     * @throws IllegalArgumentException 如果 {@code threshold < 0}。
+     * @see ValueCodecs
+     */
+    public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> compressValues(ValueCodec<V1> codec,
+                                                                          int threshold) {
+        checkNotNull(codec, "The ValueCodec instance must not be null.");
+        checkState(valueCodec == null, "compressValues was already set to %s", valueCodec);
+        checkArgument(threshold >= 0, "The threshold must not be negative: %s", threshold);
+        CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+        me.valueCodec = codec;
+        me.compressionThreshold = threshold;
+        return me;
+    }
+
+    <V1 extends V> ValueCodec<V1> getValueCodec() {
+        return (ValueCodec<V1>) valueCodec;
+    }
+
+    int getCompressionThreshold() {
+        return compressionThreshold == NOSET_VAL ? 0 : compressionThreshold;
+    }
+
+    /**
+     * 设置最近解压缩的值的缓存槽数量，默认为 {@link DefaultCache#DEFAULT_DECOMPRESSED_CACHE_SIZE}。
+     *
+     * @param size 缓存槽数量，向上取整为 {@code 2} 的幂。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code decompressedCacheSize} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code size <= 0}。
+     */
+    public CacheBuilder<K, V> decompressedCacheSize(int size) {
+        checkState(decompressedCacheSize == NOSET_VAL, "decompressedCacheSize was already set to %s",
+                decompressedCacheSize);
+        checkArgument(size > 0 && size <= 1 << 20, "Illegal decompressed cache size: %s", size);
+        this.decompressedCacheSize = size;
+        return this;
+    }
+
+    int getDecompressedCacheSize() {
+        return decompressedCacheSize == NOSET_VAL ? DefaultCache.DEFAULT_DECOMPRESSED_CACHE_SIZE :
+                decompressedCacheSize;
+    }
+
+    /**
+     * 开启磁盘溢出层：因容量限制（{@code maximumSize} 或 {@code maximumWeight}）被淘汰的条目
+     * 使用 {@code codec} 编码后追加写入 {@code directory} 下的内存映射段文件，而不是直接丢弃。
+     * 内存中未命中时会查找磁盘，命中的条目以剩余的存活时间提升回内存。
+     * <p/>
+     * 磁盘层只在内存中保存键的索引，读取不加锁；被覆盖或删除的条目由后台任务压缩回收，
+     * 超出 {@code maximumBytes} 时丢弃最早写入的段。带有标签的条目不会写入磁盘。
+     * 磁盘层的内容在缓存停止时删除，不会在重启后恢复。
+     *
+     * @param directory 段文件所在的目录。
+     * @param maximumBytes 磁盘层占用空间的上限（字节）。
+     * @param codec 缓存值的编解码器。
+     * @param <K1> 缓存的键类型。
+     * @param <V1> 缓存的值类型。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果磁盘溢出层已经被设置。
+     * @throws IllegalArgumentException 如果 {@code maximumBytes <= 0}。
+     * @see ValueCodecs
+     */
+    public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> overflowToDisk(File directory, long maximumBytes,
+                                                                          ValueCodec<V1> codec) {
+        checkNotNull(directory, "The overflow directory must not be null.");
+        checkNotNull(codec, "The ValueCodec instance must not be null.");
+        checkState(overflowDirectory == null, "overflowToDisk was already set to %s", overflowDirectory);
+        checkArgument(maximumBytes > 0, "The maximum bytes must be positive: %s", maximumBytes);
+        CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+        me.overflowDirectory = directory;
+        me.overflowMaximumBytes = maximumBytes;
+        me.overflowCodec = codec;
+        return me;
+    }
+
+    File getOverflowDirectory() {
+        return overflowDirectory;
+    }
+
+    long getOverflowMaximumBytes() {
+        return overflowMaximumBytes;
+    }
+
+    <V1 extends V> ValueCodec<V1> getOverflowCodec() {
+        return (ValueCodec<V1>) overflowCodec;
+    }
+
+    /**
+     * 开启事件日志：缓存条目的创建、更新、移除和过期按修改顺序记录在容量为 {@code capacity} 的环形缓冲区中，
+     * 消费者可以按序号读取或异步订阅，用于同步派生的索引或下游系统，不必轮询比较缓存的内容。
+     * 缓冲区满时最早的事件被覆盖，修改缓存的线程不会被阻塞。
+     *
+     * @param capacity 环形缓冲区的容量，向上取整为 2 的幂。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code eventJournal} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code capacity <= 0}。
+     * @see DefaultCache#getEventJournal()
+     */
+    public CacheBuilder<K, V> eventJournal(int capacity) {
+        checkState(eventJournalCapacity == NOSET_VAL, "eventJournal was already set to %s", eventJournalCapacity);
+        checkArgument(capacity > 0 && capacity <= 1 << 30, "Illegal event journal capacity: %s", capacity);
+        this.eventJournalCapacity = capacity;
+        return this;
+    }
+
+    int getEventJournalCapacity() {
+        return eventJournalCapacity == NOSET_VAL ? 0 : eventJournalCapacity;
+    }
+
+    /**
+     * 开启热点键跟踪，使用有限的内存持续统计访问最频繁的 {@code count} 个键。
+     *
+     * @param count 跟踪的热点键的数量。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code recordHotKeys} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code count <= 0}。
+     * @see DefaultCache#getHotKeys()
+     */
+    public CacheBuilder<K, V> recordHotKeys(int count) {
+        checkState(hotKeyCount == NOSET_VAL, "recordHotKeys was already set to %s", hotKeyCount);
+        checkArgument(count > 0, "The count of hot keys must be positive: %s", count);
+        this.hotKeyCount = count;
+        return this;
+    }
+
+    int getHotKeyCount() {
+        return hotKeyCount == NOSET_VAL ? 0 : hotKeyCount;
+    }
+
+    /**
+     * 开启命中率曲线估计：对访问的键按哈希采样，保留最近访问（包括已被淘汰）的采样键的哈希值，
+     * 估计缓存的最大数量为当前的 {@code 0.5}、{@code 2}、{@code 4} 倍时的命中率，用于评估扩容或缩容的效果。
+     * 占用的内存有固定的上限，与缓存大小无关。
+     *
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code recordHitRatioCurve} 已经被设置。
+     * @see DefaultCache#getEstimatedHitRatio(double)
+     */
+    public CacheBuilder<K, V> recordHitRatioCurve() {
+        checkState(!recordHitRatioCurve, "recordHitRatioCurve was already set");
+        this.recordHitRatioCurve = true;
+        return this;
+    }
+
+    boolean isRecordHitRatioCurve() {
+        return recordHitRatioCurve;
+    }
+
+    /**
+     * 设置预热时缓存被视为就绪所需加载的键的比例，默认为 {@code 1.0}，即全部加载后才就绪。
+     *
+     * @param readyFraction 就绪比例。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code readyFraction} 已经被设置。
+     * @throws IllegalArgumentException 如果 {@code readyFraction} 不在 {@code (0, 1]} 之间。
+     * @see DefaultCache#warmUp(Iterable, CacheLoader, int)
+     */
+    public CacheBuilder<K, V> readyFraction(double readyFraction) {
+        checkState(this.readyFraction == NOSET_VAL, "readyFraction was already set to %s",
+                this.readyFraction);
+        checkArgument(readyFraction > 0.0 && readyFraction <= 1.0,
+                "The readyFraction must be in (0, 1]: %s", readyFraction);
+        this.readyFraction = readyFraction;
+        return this;
+    }
+
+    double getReadyFraction() {
+        return readyFraction == NOSET_VAL ? DefaultCache.DEFAULT_READY_FRACTION : readyFraction;
+    }
+
     long getRefreshNanos() {
         return refreshNanos == NOSET_VAL ? DEFAULT_REFRESH_NANOS : refreshNanos;
     }
@@ -169,4 +768,33 @@ public class CacheBuilder<K, V> {
     List<RemovalListener> getRemovalListeners() {
         return removalListeners;
     }
+
+    /**
+     * 指定缓存运行事件的跟踪器，替换默认的跟踪器（支持 JDK Flight Recorder 的 JVM 上默认将事件写入 JFR）。
+     *
+     * @param tracer 缓存事件跟踪器。
+     * @return 当前缓存构建器实例。
+     * @throws IllegalStateException 如果 {@code tracer} 已经被设置。
+     */
+    public CacheBuilder<K, V> tracer(CacheTracer tracer) {
+        checkState(this.tracer == null, "tracer was already set to %s", this.tracer);
+        this.tracer = checkNotNull(tracer, "The CacheTracer instance must not be null.");
+        return this;
+    }
+
+    /**
+     * 使用当前的设置构造一个新的缓存实例，缓存需要调用 {@link DefaultCache#start()} 后才可使用，
+     * 无守护线程模式的缓存除外。
+     *
+     * @param <K1> 缓存的键类型。
+     * @param <V1> 缓存的值类型。
+     * @return 新的缓存实例。
+     */
+    public <K1 extends K, V1 extends V> DefaultCache<K1, V1> build() {
+        return new DefaultCache<K1, V1>((CacheBuilder<K1, V1>) this);
+    }
+
+    CacheTracer getTracer() {
+        return tracer == null ? CacheTracers.defaultTracer() : tracer;
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import java.io.Serializable;
+
+/**
+ * 缓存事件日志中的一个事件：缓存条目的创建、更新、移除或过期。
+ *
+ * @author Fuchun
+ * @since 1.0
+ * @see CacheEventJournal
+ */
+public class CacheEvent<K, V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long sequence;
+    private final CacheEventType type;
+    private final K key;
+    private final V value;
+    private final V oldValue;
+    private final long timestamp;
+
+    CacheEvent(long sequence, CacheEventType type, K key, V value, V oldValue) {
+        this.sequence = sequence;
+        this.type = type;
+        this.key = key;
+        this.value = value;
+        this.oldValue = oldValue;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * 返回事件在事件日志中的序号。同一个缓存的事件序号从 {@code 0} 开始连续递增，
+     * 同一个键的事件的序号顺序与修改的顺序一致。
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public CacheEventType getType() {
+        return type;
+    }
+
+    public K getKey() {
+        return key;
+    }
+
+    /**
+     * 返回事件的值：{@link CacheEventType#CREATED} 和 {@link CacheEventType#UPDATED} 为写入的新值，
+     * {@link CacheEventType#REMOVED} 和 {@link CacheEventType#EXPIRED} 为被移除的值。
+     */
+    public V getValue() {
+        return value;
+    }
+
+    /**
+     * 返回 {@link CacheEventType#UPDATED} 事件中被替换的值，其他事件返回 {@code null}。
+     */
+    public V getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * 返回事件发生的时间（毫秒）。
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return sequence + ":" + type + " " + key + "=" + value;
+    }
+}
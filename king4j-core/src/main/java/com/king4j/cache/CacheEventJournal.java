@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * 缓存的事件日志：按修改顺序记录缓存条目的创建、更新、移除和过期事件（{@link CacheEventType}），
+ * 每个事件带有连续递增的序号。事件保存在有界的环形缓冲区中，写入只需一次原子递增，不会阻塞修改缓存的线程；
+ * 缓冲区满时最早的事件被覆盖。
+ * <p />
+ * 消费者可以按序号{@link #read(long, int) 读取}事件，也可以{@link #subscribe(long, Predicate, CacheEventListener) 订阅}：
+ * 订阅可以从缓冲区中仍保留的任意序号开始追赶，按键过滤事件，由一个分发线程分批异步通知。
+ * 消费者记录处理过的最后一个序号，重新订阅时从下一个序号开始即可不重不漏；
+ * 消费过慢以至于事件被覆盖时，跳过的事件数量记录在 {@link Subscription#getLostCount()} 中。
+ * <p />
+ * 事件持有条目的键和值，缓冲区中的事件在被覆盖之前不会被回收。
+ *
+ * @author Fuchun
+ * @since 1.0
+ * @see CacheBuilder#eventJournal(int)
+ */
+public class CacheEventJournal<K, V> {
+
+    /**
+     * The logger.
+     */
+    protected final Logger LOGGER = LoggerFactory.getLogger(getClass());
+
+    /** 默认的每批通知的最大事件数量。 */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String name;
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<CacheEvent<K, V>> ring;
+    /** 下一个事件的序号。 */
+    private final AtomicLong tail = new AtomicLong();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile Thread dispatchThread;
+    private volatile boolean dispatcherParked;
+    private volatile boolean isRunning = false;
+
+    /**
+     * @param name 缓存名称，用于命名分发线程。
+     * @param capacity 环形缓冲区的容量，向上取整为 2 的幂。
+     */
+    CacheEventJournal(String name, int capacity) {
+        checkArgument(capacity > 0 && capacity <= 1 << 30, "Illegal capacity: %s", capacity);
+        this.name = name;
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.ring = new AtomicReferenceArray<CacheEvent<K, V>>(size);
+    }
+
+    /**
+     * 追加一个事件，由缓存在修改条目时调用。同一个键的修改在缓存锁内进行，因此其事件的序号顺序与修改顺序一致。
+     */
+    void append(CacheEventType type, K key, V value, V oldValue) {
+        long sequence = tail.getAndIncrement();
+        CacheEvent<K, V> event = new CacheEvent<K, V>(sequence, type, key, value, oldValue);
+        int index = (int) sequence & mask;
+        while (true) {
+            CacheEvent<K, V> current = ring.get(index);
+            if (current != null && current.getSequence() > sequence) {
+                // 缓冲区在写入前已经绕过一圈，该事件视为被覆盖
+                break;
+            }
+            if (ring.compareAndSet(index, current, event)) {
+                break;
+            }
+        }
+        if (dispatcherParked) {
+            LockSupport.unpark(dispatchThread);
+        }
+    }
+
+    /**
+     * 读取从 {@code fromSequence} 开始的最多 {@code maxCount} 个事件。{@code fromSequence} 之后的事件
+     * 已被覆盖时从缓冲区中最早的事件开始，可以通过返回的第一个事件的序号判断跳过了多少事件。
+     * 下一次读取应从返回的最后一个事件的序号加一开始。
+     *
+     * @return 按序号排序的事件，没有新的事件时返回空列表。
+     */
+    public List<CacheEvent<K, V>> read(long fromSequence, int maxCount) {
+        checkArgument(fromSequence >= 0L, "The sequence must not be negative: %s", fromSequence);
+        checkArgument(maxCount > 0, "The max count must be positive: %s", maxCount);
+        List<CacheEvent<K, V>> events = Lists.newArrayListWithCapacity(Math.min(maxCount, 64));
+        collect(fromSequence, maxCount, null, events, null);
+        return events;
+    }
+
+    /**
+     * 订阅从当前序号开始的所有事件。
+     *
+     * @see #subscribe(long, Predicate, CacheEventListener)
+     */
+    public Subscription subscribe(CacheEventListener<K, V> listener) {
+        return subscribe(tail.get(), null, listener);
+    }
+
+    /**
+     * 订阅从 {@code fromSequence} 开始、键满足 {@code keyFilter} 的事件。事件按序号顺序分批通知，
+     * 每批最多 {@link #setBatchSize(int) batchSize} 个；{@code fromSequence} 之后的事件已被覆盖时从缓冲区中
+     * 最早的事件开始，跳过的事件计入 {@link Subscription#getLostCount()}。
+     *
+     * @param fromSequence 第一个通知的事件的序号，可以是 {@link #getTailSequence()} 以只接收新的事件。
+     * @param keyFilter 事件的键的过滤条件，为 {@code null} 时接收所有事件。
+     * @param listener 事件的订阅者。
+     * @return 订阅，用于查询进度或取消订阅。
+     */
+    public Subscription subscribe(long fromSequence, Predicate<? super K> keyFilter,
+                                  CacheEventListener<K, V> listener) {
+        checkArgument(fromSequence >= 0L, "The sequence must not be negative: %s", fromSequence);
+        checkNotNull(listener, "The cache event listener must not be null.");
+        Subscription subscription = new Subscription(fromSequence, keyFilter, listener);
+        subscriptions.add(subscription);
+        startDispatcher();
+        return subscription;
+    }
+
+    /**
+     * 返回缓冲区中仍保留的最早的事件的序号。
+     */
+    public long getHeadSequence() {
+        return Math.max(0L, tail.get() - capacity);
+    }
+
+    /**
+     * 返回下一个事件的序号，即到目前为止追加的事件数量。
+     */
+    public long getTailSequence() {
+        return tail.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 返回当前的订阅数量。
+     */
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * 设置每批通知的最大事件数量，默认为 {@link #DEFAULT_BATCH_SIZE}。
+     */
+    public void setBatchSize(int batchSize) {
+        checkArgument(batchSize > 0, "The batch size must be positive: %s", batchSize);
+        this.batchSize = batchSize;
+    }
+
+    private synchronized void startDispatcher() {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        Thread thread = new Thread(new DispatchRunnable());
+        thread.setName(name == null ? "CacheEventJournal" : String.format("%s_CacheEventJournal", name));
+        thread.setDaemon(true);
+        dispatchThread = thread;
+        thread.start();
+        LOGGER.info(String.format("%s started.", thread.getName()));
+    }
+
+    /**
+     * 取消所有订阅并停止分发线程，由缓存在停止时调用。
+     */
+    synchronized void stop() {
+        for (Subscription subscription : subscriptions) {
+            subscription.cancelled = true;
+        }
+        subscriptions.clear();
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        Thread thread = dispatchThread;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info(String.format("%s stopped.", thread.getName()));
+    }
+
+    /**
+     * 从 {@code sequence} 开始检查最多 {@code maxCount} 个事件，将满足过滤条件的加入 {@code out}。
+     *
+     * @return 下一个要检查的事件的序号。
+     */
+    private long collect(long sequence, int maxCount, Predicate<? super K> keyFilter,
+                         List<CacheEvent<K, V>> out, Subscription subscription) {
+        int count = 0;
+        while (count < maxCount) {
+            CacheEvent<K, V> event = ring.get((int) sequence & mask);
+            if (event == null || event.getSequence() < sequence) {
+                // 尚未写入
+                break;
+            }
+            if (event.getSequence() > sequence) {
+                long head = Math.max(sequence + 1, tail.get() - capacity);
+                if (subscription != null) {
+                    subscription.lostCount.addAndGet(head - sequence);
+                }
+                sequence = head;
+                continue;
+            }
+            if (keyFilter == null || keyFilter.apply(event.getKey())) {
+                out.add(event);
+            }
+            sequence++;
+            count++;
+        }
+        return sequence;
+    }
+
+    /**
+     * 事件日志的一个订阅。
+     */
+    public final class Subscription {
+
+        private final Predicate<? super K> keyFilter;
+        private final CacheEventListener<K, V> listener;
+        private final AtomicLong lostCount = new AtomicLong();
+        /** 下一个要检查的事件的序号，只由分发线程修改。 */
+        private volatile long sequence;
+        private volatile boolean cancelled;
+
+        Subscription(long sequence, Predicate<? super K> keyFilter, CacheEventListener<K, V> listener) {
+            this.sequence = sequence;
+            this.keyFilter = keyFilter;
+            this.listener = listener;
+        }
+
+        /**
+         * 返回下一个要通知的事件的序号，之前的事件都已通知（或被过滤、跳过）。
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * 返回由于消费过慢被覆盖而跳过的事件数量。
+         */
+        public long getLostCount() {
+            return lostCount.get();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * 取消订阅，正在进行的通知不受影响。
+         */
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        /**
+         * 通知下一批事件。
+         *
+         * @return 是否检查了新的事件。
+         */
+        boolean dispatch(List<CacheEvent<K, V>> batch) {
+            long from = sequence;
+            long next = collect(from, batchSize, keyFilter, batch, this);
+            if (next == from) {
+                return false;
+            }
+            try {
+                if (!batch.isEmpty() && !cancelled) {
+                    listener.onEvents(Collections.unmodifiableList(batch));
+                }
+            } catch (RuntimeException ex) {
+                LOGGER.error(String.format("Cache event listener %s failed: ", listener), ex);
+            } finally {
+                batch.clear();
+            }
+            sequence = next;
+            return true;
+        }
+
+        boolean hasPending() {
+            return !cancelled && sequence < tail.get();
+        }
+    }
+
+    private class DispatchRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            List<CacheEvent<K, V>> batch = Lists.newArrayList();
+            while (isRunning) {
+                boolean progressed = false;
+                for (Subscription subscription : subscriptions) {
+                    progressed |= subscription.dispatch(batch);
+                }
+                if (!progressed) {
+                    dispatcherParked = true;
+                    if (isRunning && !hasPending()) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    dispatcherParked = false;
+                }
+            }
+        }
+
+        private boolean hasPending() {
+            for (Subscription subscription : subscriptions) {
+                if (subscription.hasPending()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import java.util.List;
+
+/**
+ * 接收缓存事件日志中的事件的订阅者。事件按序号顺序、分批在事件日志的分发线程上通知，
+ * 不会在修改缓存的线程上调用。
+ *
+ * @author Fuchun
+ * @since 1.0
+ * @see CacheEventJournal#subscribe(long, com.google.common.base.Predicate, CacheEventListener)
+ */
+public interface CacheEventListener<K, V> {
+
+    /**
+     * 处理一批缓存事件，调用返回后不能再持有该列表。
+     *
+     * @param events 按序号排序的事件，不会为空。
+     */
+    public void onEvents(List<CacheEvent<K, V>> events);
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+/**
+ * 定义缓存事件日志中的事件类型。
+ *
+ * @author Fuchun
+ * @since 1.0
+ * @see CacheEventJournal
+ */
+public enum CacheEventType {
+
+    /**
+     * 写入了一个缓存中原来没有（或已过期）的键。
+     */
+    CREATED,
+
+    /**
+     * 键原来的值被新的值替换。
+     */
+    UPDATED,
+
+    /**
+     * 条目被手动移除（包括 {@link Cache#clear()} 和按标签移除），或由于容量限制被淘汰。
+     */
+    REMOVED,
+
+    /**
+     * 条目由于过期被移除。
+     */
+    EXPIRED
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * 根据缓存的键加载缓存值的加载器，用于缓存预热等需要批量加载的场景。
+ * <p />
+ * 只需实现 {@link #load(Object)}；如果后端支持批量查询，应同时覆盖 {@link #loadAll(Iterable)}，
+ * 以一次查询加载多个键。
+ *
+ * @param <K> 缓存的键类型。
+ * @param <V> 缓存的值类型。
+ * @author Fuchun
+ * @since 1.0
+ */
+public abstract class CacheLoader<K, V> {
+
+    /**
+     * 加载指定键对应的缓存值。
+     *
+     * @param key 缓存的键。
+     * @return 缓存值，不存在时返回 {@code null}。
+     * @throws Exception 如果加载失败。
+     */
+    public abstract V load(K key) throws Exception;
+
+    /**
+     * 批量加载指定的键对应的缓存值。默认实现逐个调用 {@link #load(Object)}。
+     *
+     * @param keys 缓存的键。
+     * @return 键到缓存值的映射，不包含不存在的键；返回 {@code null} 视为所有键都不存在。
+     * @throws Exception 如果加载失败。
+     */
+    public Map<K, V> loadAll(Iterable<? extends K> keys) throws Exception {
+        Map<K, V> result = Maps.newLinkedHashMap();
+        for (K key : keys) {
+            V value = load(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.king4j.cache;
+
+import java.util.Map;
+
+/**
+ * 本地缓存的 JMX 管理接口。每个 {@link DefaultCache} 启动时以
+ * {@code com.king4j.cache:type=DefaultCache,name=<cacheName>} 注册一个该接口的实例，停止时注销。
+ * <p />
+ * 所有的统计值都只在读取时才计算（累加计数单元或查看过期队列头部），不会给缓存的读写增加额外的开销。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public interface CacheMXBean {
+
+    /** 返回缓存名称。 */
+    String getCacheName();
+
+    /** 返回缓存中的条目数量。 */
+    int getSize();
+
+    /** 返回缓存可容纳条目的最大数量。 */
+    int getMaximumSize();
+
+    /** 返回缓存条目权重总和的上限，负数表示不限制。 */
+    long getMaximumWeight();
+
+    /** 返回缓存中所有条目的权重总和。 */
+    long getTotalWeight();
+
+    /** 返回磁盘溢出层中的条目数量，未开启磁盘溢出层时返回 {@code 0}。 */
+    int getDiskEntryCount();
+
+    /** 返回磁盘溢出层的段文件占用的空间（字节）。 */
+    long getDiskSize();
+
+    /** 返回从磁盘溢出层命中的次数，这部分同时计入 {@link #getHitCount()}。 */
+    long getDiskHitCount();
+
+    /** 返回缓存命中的次数。 */
+    long getHitCount();
+
+    /** 返回缓存未命中的次数。 */
+    long getMissCount();
+
+    /** 返回缓存的命中率（没有任何请求时返回 {@code 1.0}）。 */
+    double getHitRate();
+
+    /** 返回各个移除原因（{@link RemovalCause} 的名称）对应的条目移除次数。 */
+    Map<String, Long> getRemovalCounts();
+
+    /** 返回因过期而被移除的条目数量。 */
+    long getExpiredCount();
+
+    /** 返回因容量限制而被移除的条目数量。 */
+    long getSizeEvictedCount();
+
+    /**
+     * 返回过期处理的积压时间（毫秒），即过期队列中最早过期的条目已经过期了多久。
+     * 该值持续大于 {@code 0} 说明缓存的守护线程处理过期条目的速度跟不上。
+     */
+    long getExpiryBacklogMillis();
+
+    /** 返回命中缓存的不存在的键的次数，不计入 {@link #getHitCount()}。 */
+    long getNegativeHitCount();
+
+    /** 返回当前缓存的不存在的键的数量。 */
+    int getNegativeEntryCount();
+
+    /** 返回加载结果为不存在并被缓存的次数。 */
+    long getNegativeLoadCount();
+
+    /**
+     * 返回访问最频繁的键（以 {@code toString()} 表示）及其估计的访问频率，未开启热点键跟踪时为空。
+     */
+    Map<String, Integer> getHotKeys();
+
+    /**
+     * 返回缓存的最大数量为当前的 {@code 0.5}、{@code 1}、{@code 2}、{@code 4} 倍时估计的命中率，
+     * 键为倍数（如 {@code "2x"}），未开启命中率曲线估计时为空。
+     */
+    Map<String, Double> getEstimatedHitRatios();
+
+    /** 返回等待延迟写的键的数量。 */
+    int getWriteBehindBacklog();
+
+    /** 返回写入存储失败（直写失败或延迟写重试后仍失败）的次数。 */
+    long getWriteFailureCount();
+
+    /** 返回成功加载缓存值的次数。 */
+    long getLoadSuccessCount();
+
+    /** 返回加载缓存值时抛出异常（或返回 {@code null}）的次数。 */
+    long getLoadFailureCount();
+
+    /** 返回加载缓存值所花费的总时间（纳秒）。 */
+    long getTotalLoadTimeNanos();
+
+    /** 返回每次加载缓存值的平均耗时（毫秒）。 */
+    double getAverageLoadPenaltyMillis();
+
+    /** 返回因达到同时加载数量的上限而被拒绝的加载次数。 */
+    long getLoadRejectedCount();
+
+    /** 返回等待加载超时的次数。 */
+    long getLoadTimeoutCount();
+
+    /** 返回加载失败、超时或被拒绝时返回过期的值的次数。 */
+    long getStaleServedCount();
+
+    /** 返回命中的条目在过期前被提前刷新的次数。 */
+    long getEarlyRefreshCount();
+
+    /** 返回合并加载执行的批量加载次数。 */
+    long getLoadBatchCount();
+
+    /** 返回通过合并加载加载的键的数量，与 {@link #getLoadBatchCount()} 之比即为平均批量大小。 */
+    long getCoalescedLoadCount();
+
+    /** 返回缓存是否就绪，预热中的缓存在加载的键达到就绪比例前返回 {@code false}。 */
+    boolean isReady();
+
+    /** 移除缓存中的所有条目。 */
+    void clear();
+
+    /**
+     * 调整缓存可容纳条目的最大数量，超出新容量的条目将被立即移除。
+     *
+     * @param maximumSize 新的最大数量。
+     */
+    void resize(int maximumSize);
+}
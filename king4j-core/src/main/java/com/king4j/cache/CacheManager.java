@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * 按名称管理一组本地缓存，负责它们的启动和停止，并让所有缓存共享一个全局的权重预算。
+ * <p />
+ * 每个缓存分得预算的一部分作为它的 {@link DefaultCache#setMaximumWeight(long) 权重上限}：新建的缓存平分预算，
+ * 并从已有的缓存中按比例收回；之后守护线程定期重新分配，把预算从边际收益最低的缓存移给边际收益最高的缓存。
+ * 缓存的边际收益用“影子命中率”估计：每个缓存记住最近因容量被淘汰的键，统计周期内未命中但仍在影子记录中的
+ * 次数，除以影子记录覆盖的权重，即每增加一个单位的权重能多带来的命中次数。
+ * <p />
+ * 由管理器创建的缓存，构建器中的 {@code maximumWeight} 会被忽略；没有设置 {@code maximumSize} 时不限制条目数量，
+ * 只受分得的权重约束。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class CacheManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheManager.class);
+
+    /** 默认的预算重新分配间隔（毫秒）。 */
+    public static final long DEFAULT_REBALANCE_INTERVAL = 10000L;
+
+    /** 每次重新分配移动的预算占全局预算的比例的倒数。 */
+    private static final int REBALANCE_STEPS = 20;
+    private static final int MIN_GHOST_CAPACITY = 64;
+    private static final int MAX_GHOST_CAPACITY = 16384;
+
+    private final String name;
+    private final long maximumWeight;
+    /** 按创建顺序保存的缓存，由 {@code this} 保护。 */
+    private final Map<String, ManagedCache> caches = Maps.newLinkedHashMap();
+    private long rebalanceIntervalMillis = DEFAULT_REBALANCE_INTERVAL;
+    private ScheduledExecutorService rebalancer;
+    private volatile boolean isRunning = false;
+
+    /**
+     * @param name 缓存管理器的名称，用于命名守护线程。
+     * @param maximumWeight 所有缓存共享的权重预算。
+     */
+    public CacheManager(String name, long maximumWeight) {
+        checkArgument(maximumWeight > 0, "The maximum weight must be positive: %s", maximumWeight);
+        this.name = name;
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * 启动所有缓存，并开始定期重新分配预算。
+     */
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        for (ManagedCache managed : caches.values()) {
+            managed.cache.start();
+        }
+        String threadName = name == null ? "CacheManager" : String.format("%s_CacheManager", name);
+        rebalancer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(threadName).setDaemon(true).build());
+        rebalancer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebalance();
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Failed to rebalance the cache capacity: ", ex);
+                }
+            }
+        }, rebalanceIntervalMillis, rebalanceIntervalMillis, TimeUnit.MILLISECONDS);
+        isRunning = true;
+        LOGGER.info(String.format("%s started.", threadName));
+    }
+
+    /**
+     * 停止重新分配预算，并停止所有缓存。
+     */
+    public synchronized void shutdown() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        rebalancer.shutdownNow();
+        rebalancer = null;
+        for (ManagedCache managed : caches.values()) {
+            managed.cache.stop();
+        }
+    }
+
+    /**
+     * 使用指定的构建器创建一个缓存，缓存的名称即构建器的缓存名称。缓存管理器已经启动时，新的缓存立即启动。
+     *
+     * @param builder 缓存构建器。
+     * @return 新创建的缓存。
+     * @throws IllegalArgumentException 如果缓存名称为 {@code null}。
+     * @throws IllegalStateException 如果同名的缓存已经存在。
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <K, V> DefaultCache<K, V> createCache(CacheBuilder<? super K, ? super V> builder) {
+        checkNotNull(builder, "The CacheBuilder instance must not be null.");
+        String cacheName = builder.getCacheName();
+        checkArgument(cacheName != null, "A managed cache must have a name.");
+        checkState(!caches.containsKey(cacheName), "The cache %s already exists.", cacheName);
+
+        DefaultCache<K, V> cache = new DefaultCache<K, V>((CacheBuilder<K, V>) builder);
+        if (builder.getMaximumSize() == CacheBuilder.NOSET_VAL) {
+            cache.setMaximumSize(Integer.MAX_VALUE);
+        }
+        long allocation = maximumWeight / (caches.size() + 1);
+        // 其余的缓存按比例让出新缓存的份额
+        long remaining = maximumWeight - allocation;
+        long allocated = getAllocatedWeight();
+        for (ManagedCache managed : caches.values()) {
+            managed.setAllocation(allocated == 0 ? 0L : (long) ((double) managed.allocation * remaining / allocated));
+        }
+        ManagedCache managed = new ManagedCache(cache);
+        managed.setAllocation(allocation);
+        cache.trackEvictedKeys((int) Math.max(MIN_GHOST_CAPACITY, Math.min(allocation / 4, MAX_GHOST_CAPACITY)));
+        caches.put(cacheName, managed);
+        if (isRunning) {
+            cache.start();
+        }
+        return cache;
+    }
+
+    /**
+     * 返回指定名称的缓存，不存在时返回 {@code null}。
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <K, V> DefaultCache<K, V> getCache(String cacheName) {
+        ManagedCache managed = caches.get(cacheName);
+        return managed == null ? null : (DefaultCache<K, V>) managed.cache;
+    }
+
+    /**
+     * 停止并移除指定名称的缓存，它分得的预算按比例分给其余的缓存。
+     *
+     * @return 如果缓存存在并被移除，返回 {@code true}。
+     */
+    public synchronized boolean removeCache(String cacheName) {
+        ManagedCache removed = caches.remove(cacheName);
+        if (removed == null) {
+            return false;
+        }
+        removed.cache.stop();
+        long allocated = getAllocatedWeight();
+        for (ManagedCache managed : caches.values()) {
+            managed.setAllocation(allocated == 0 ? maximumWeight / caches.size() :
+                    (long) ((double) managed.allocation * maximumWeight / allocated));
+        }
+        return true;
+    }
+
+    /**
+     * 返回所有缓存的名称。
+     */
+    public synchronized Set<String> getCacheNames() {
+        return Collections.unmodifiableSet(Maps.newLinkedHashMap(caches).keySet());
+    }
+
+    /**
+     * 重新分配一次预算：把全局预算的 {@code 1/20} 从边际收益最低的缓存移给边际收益最高的缓存。
+     * 只有在统计周期内出现了影子命中的缓存才会得到预算，每个缓存至少保留平均份额的 {@code 1/4}。
+     * 缓存管理器启动后，该方法由守护线程定期调用。
+     */
+    public synchronized void rebalance() {
+        int n = caches.size();
+        if (n < 2) {
+            return;
+        }
+        long step = maximumWeight / REBALANCE_STEPS;
+        long floor = maximumWeight / (4L * n);
+        List<ManagedCache> candidates = Lists.newArrayList(caches.values());
+        ManagedCache receiver = null;
+        for (ManagedCache managed : candidates) {
+            managed.sample();
+            if (managed.ghostHits > 0 && (receiver == null || managed.utility > receiver.utility)) {
+                receiver = managed;
+            }
+        }
+        if (receiver == null || step == 0L) {
+            return;
+        }
+        ManagedCache donor = null;
+        for (ManagedCache managed : candidates) {
+            if (managed != receiver && managed.allocation - step >= floor
+                    && managed.utility < receiver.utility
+                    && (donor == null || managed.utility < donor.utility)) {
+                donor = managed;
+            }
+        }
+        if (donor == null) {
+            return;
+        }
+        // 先收缩再扩张，任何时刻的分配总和都不超过全局预算
+        donor.setAllocation(donor.allocation - step);
+        receiver.setAllocation(receiver.allocation + step);
+        LOGGER.debug("Moved {} weight from cache {} to cache {}.", new Object[] {
+                step, donor.cache.getCacheName(), receiver.cache.getCacheName() });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 返回所有缓存共享的权重预算。
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * 返回所有缓存当前的权重总和。
+     */
+    public synchronized long getTotalWeight() {
+        long total = 0L;
+        for (ManagedCache managed : caches.values()) {
+            total += managed.cache.getTotalWeight();
+        }
+        return total;
+    }
+
+    /**
+     * 设置预算重新分配的间隔，必须在 {@link #start()} 之前设置。
+     */
+    public void setRebalanceInterval(long interval, TimeUnit unit) {
+        checkArgument(interval > 0, "The interval must be positive: %s %s", interval, unit);
+        this.rebalanceIntervalMillis = unit.toMillis(interval);
+    }
+
+    private long getAllocatedWeight() {
+        long allocated = 0L;
+        for (ManagedCache managed : caches.values()) {
+            allocated += managed.allocation;
+        }
+        return allocated;
+    }
+
+    private static class ManagedCache {
+
+        final DefaultCache<?, ?> cache;
+        long allocation;
+        long lastGhostHits;
+        long ghostHits;
+        double utility;
+
+        ManagedCache(DefaultCache<?, ?> cache) {
+            this.cache = cache;
+        }
+
+        void setAllocation(long allocation) {
+            this.allocation = allocation;
+            cache.setMaximumWeight(allocation);
+        }
+
+        /**
+         * 计算上一个统计周期的影子命中次数和每单位权重的边际收益。
+         */
+        void sample() {
+            long hits = cache.ghostHitCount.sum();
+            ghostHits = hits - lastGhostHits;
+            lastGhostHits = hits;
+            double ghostWeight = cache.getGhostWeight();
+            utility = ghostWeight > 0.0 ? ghostHits / ghostWeight : 0.0;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.king4j.cache;
+
+/**
+ * 缓存运行事件的跟踪接口，用于把缓存内部的加载、淘汰、过期处理和锁等待等事件输出到外部的诊断工具。
+ * <p />
+ * 在支持 JDK Flight Recorder 的 JVM 上，{@link DefaultCache} 默认使用将事件写入 JFR 的实现，
+ * 只有在记录开启时才真正产生事件；在其他 JVM 上默认不做任何事情。
+ * 也可以通过 {@link CacheBuilder#tracer(CacheTracer)} 指定其他实现。
+ * <p />
+ * 该接口的方法在缓存的读写线程或守护线程上同步调用，实现必须尽可能轻量，不能阻塞。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public interface CacheTracer {
+
+    /**
+     * 缓存值加载完成（{@code valueLoader} 返回或抛出异常）。
+     *
+     * @param cacheName 缓存名称。
+     * @param keyHash 缓存键的 {@code hashCode}。
+     * @param durationNanos 加载耗时（纳秒）。
+     * @param success 是否加载成功。
+     */
+    void onLoad(String cacheName, int keyHash, long durationNanos, boolean success);
+
+    /**
+     * 一批缓存条目由于容量限制被淘汰。
+     *
+     * @param cacheName 缓存名称。
+     * @param count 本批淘汰的条目数量。
+     * @param durationNanos 本批淘汰的耗时（纳秒）。
+     */
+    void onEviction(String cacheName, int count, long durationNanos);
+
+    /**
+     * 守护线程处理完一批过期的缓存条目。
+     *
+     * @param cacheName 缓存名称。
+     * @param count 本批处理的过期条目数量。
+     * @param backlogNanos 本批中最早过期的条目被处理时已经过期了多久（纳秒）。
+     * @param durationNanos 本批处理的耗时（纳秒）。
+     */
+    void onExpiryDrain(String cacheName, int count, long backlogNanos, long durationNanos);
+
+    /**
+     * 线程在获取缓存内部锁时发生了等待。没有竞争时不会调用该方法。
+     *
+     * @param cacheName 缓存名称。
+     * @param waitNanos 等待的时间（纳秒）。
+     */
+    void onLockWait(String cacheName, long waitNanos);
+}
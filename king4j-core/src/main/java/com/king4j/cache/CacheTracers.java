@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.king4j.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CacheTracer} 的工具类。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class CacheTracers {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheTracers.class);
+    private static final String JFR_CLASS = "jdk.jfr.FlightRecorder";
+    private static final String JFR_TRACER_CLASS = "com.king4j.cache.JfrCacheTracer";
+
+    private static final CacheTracer DEFAULT_TRACER = createDefaultTracer();
+
+    private CacheTracers() {
+    }
+
+    /**
+     * 不做任何事情的跟踪器。
+     */
+    enum NullTracer implements CacheTracer {
+        INSTANCE;
+
+        @Override
+        public void onLoad(String cacheName, int keyHash, long durationNanos, boolean success) {
+        }
+
+        @Override
+        public void onEviction(String cacheName, int count, long durationNanos) {
+        }
+
+        @Override
+        public void onExpiryDrain(String cacheName, int count, long backlogNanos, long durationNanos) {
+        }
+
+        @Override
+        public void onLockWait(String cacheName, long waitNanos) {
+        }
+    }
+
+    /**
+     * 返回默认的跟踪器：当前 JVM 支持 JDK Flight Recorder 时返回 JFR 实现，否则返回 {@link NullTracer}。
+     */
+    static CacheTracer defaultTracer() {
+        return DEFAULT_TRACER;
+    }
+
+    private static CacheTracer createDefaultTracer() {
+        ClassLoader loader = CacheTracers.class.getClassLoader();
+        try {
+            Class.forName(JFR_CLASS, false, loader);
+        } catch (ClassNotFoundException ex) {
+            return NullTracer.INSTANCE;
+        }
+        try {
+            return (CacheTracer) Class.forName(JFR_TRACER_CLASS, true, loader).newInstance();
+        } catch (Throwable ex) {
+            LOGGER.debug("JDK Flight Recorder events are not available: {}", ex.toString());
+            return NullTracer.INSTANCE;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * 把缓存的写操作同步到外部存储的写入器。{@link DefaultCache} 的 {@code put} 和 {@code remove}
+ * 操作会调用写入器：直写模式下在更新缓存前同步调用，延迟写模式下由后台线程合并后批量调用。
+ * 过期、容量淘汰和 {@code clear} 只影响缓存本身，不会调用写入器。
+ * <p />
+ * 只需实现 {@link #write(Object, Object)} 和 {@link #delete(Object)}；如果存储支持批量操作，
+ * 应同时覆盖 {@link #writeAll(Map)} 和 {@link #deleteAll(Collection)}。
+ *
+ * @param <K> 缓存的键类型。
+ * @param <V> 缓存的值类型。
+ * @author Fuchun
+ * @since 1.0
+ * @see CacheBuilder#writer(CacheWriter)
+ */
+public abstract class CacheWriter<K, V> {
+
+    /**
+     * 把指定的键值写入存储。
+     *
+     * @throws Exception 如果写入失败。
+     */
+    public abstract void write(K key, V value) throws Exception;
+
+    /**
+     * 从存储中删除指定的键。
+     *
+     * @throws Exception 如果删除失败。
+     */
+    public abstract void delete(K key) throws Exception;
+
+    /**
+     * 把所有指定的键值批量写入存储。默认实现逐个调用 {@link #write(Object, Object)}。
+     *
+     * @throws Exception 如果写入失败。
+     */
+    public void writeAll(Map<K, V> entries) throws Exception {
+        for (Entry<K, V> entry : entries.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 从存储中批量删除所有指定的键。默认实现逐个调用 {@link #delete(Object)}。
+     *
+     * @throws Exception 如果删除失败。
+     */
+    public void deleteAll(Collection<K> keys) throws Exception {
+        for (K key : keys) {
+            delete(key);
+        }
+    }
+}
@@ -17,20 +17,63 @@
 package com.king4j.cache;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Monitor;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * @author Fuchun
@@ -59,40 +102,258 @@ public class DefaultCache<K, V> implements Cache<K, V> {
      * 本地缓存的默认初始容量。
      */
     public static final int DEFAULT_INITIAL_CAPACITY = 100;
+    /**
+     * 预热时缓存被视为就绪所需加载的键的默认比例。
+     */
+    public static final double DEFAULT_READY_FRACTION = 1.0;
+
+    /**
+     * 缓存的不存在的条目最多占用的最大数量的默认比例。
+     */
+    public static final double DEFAULT_MAXIMUM_ABSENT_FRACTION = 0.1;
+
+    /**
+     * 延迟写每批提交的最大操作数量的默认值。
+     */
+    public static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 100;
+
+    /**
+     * 表示键不存在的缓存值，只在缓存内部使用，不会返回给调用者或移除事件监听器。
+     */
+    private static final Object ABSENT = new Object();
+    /**
+     * 预热时每次批量加载和写入的键的数量。
+     */
+    private static final int WARM_UP_BATCH_SIZE = 256;
+    /**
+     * 无守护线程模式下，每次维护处理的到期元素的最大数量。
+     */
+    private static final int MAINTENANCE_BATCH_SIZE = 16;
+    /**
+     * 无守护线程模式下，每 {@code 64} 次读操作进行一次维护。
+     */
+    private static final int READ_MAINTENANCE_MASK = 63;
+    /**
+     * 磁盘溢出层的压缩间隔（毫秒）；无守护线程模式下每 {@code 1024} 次写操作压缩一次。
+     */
+    private static final long DISK_COMPACTION_INTERVAL = 1000L;
+    private static final int DISK_COMPACTION_MASK = 1023;
+    /**
+     * 并行遍历时每个线程每次领取的条目数量。
+     */
+    private static final int ITERATION_CHUNK_SIZE = 1024;
+    /**
+     * 执行提前刷新的线程数量，以及等待执行的刷新的最大数量，超过时放弃刷新。
+     */
+    private static final int REFRESH_THREADS = 2;
+    private static final int REFRESH_QUEUE_CAPACITY = 1024;
+    /**
+     * 最近解压缩的值的缓存槽数量的默认值。
+     */
+    public static final int DEFAULT_DECOMPRESSED_CACHE_SIZE = 64;
+
+    /**
+     * 不指定存活时间，由过期策略计算。
+     */
+    private static final long POLICY_DURATION = Long.MIN_VALUE;
+    /**
+     * 条目存活时间的上限（纳秒），约 146 年，避免到期时刻溢出。
+     */
+    private static final long MAXIMUM_DURATION = Long.MAX_VALUE >> 1;
+    /**
+     * 计算存活时间抖动和提前刷新概率使用的随机数，每个线程一个实例，读操作之间没有竞争。
+     */
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
 
     private final List<RemovalListener<K, V>> removalListeners = Lists.newArrayList();
     private final Monitor cacheMonitor = new Monitor();
-    private DelayQueue<DelayElement<Entry<K, V>>> queue = new DelayQueue<DelayElement<Entry<K, V>>>();
+    private final ExpirationQueue<LocalCacheEntry<K, V>> queue = new ExpirationQueue<LocalCacheEntry<K, V>>();
+    /**
+     * 标签到带有该标签的键的索引，按标签排序以支持前缀查找。由缓存锁保护。
+     */
+    private final TreeMap<String, Set<K>> tagIndex = Maps.newTreeMap();
 
-    private ConcurrentMap<K, V> cacheMap;
+    /**
+     * 缓存键到其延迟队列元素的映射，条目的值和过期时间保存在元素持有的 {@link LocalCacheEntry} 中。
+     */
+    private ConcurrentMap<K, DelayElement<LocalCacheEntry<K, V>>> cacheMap;
+    private CacheTracer tracer = CacheTracers.defaultTracer();
+    private Expiry<? super K, ? super V> expiry;
+    private HotKeyTracker<K> hotKeyTracker;
+    private Weigher<? super K, ? super V> weigher;
+    private ValueCodec<V> valueCodec;
+    /**
+     * 编码后达到该长度（字节）的值才会被压缩。
+     */
+    private int compressionThreshold;
+    /**
+     * 最近解压缩的值，按压缩值的标识哈希直接映射，槽冲突时后来者覆盖。
+     */
+    private AtomicReferenceArray<DecompressedValue> decompressedCache;
+    /**
+     * 磁盘溢出层的目录，为 {@code null} 时不启用磁盘溢出层。
+     */
+    private File overflowDirectory;
+    private long overflowMaximumBytes;
+    private ValueCodec<V> overflowCodec;
+    private DiskStore<K, V> diskStore;
+    /**
+     * 因容量被淘汰、等待在缓存锁外写入磁盘溢出层的条目。
+     */
+    private final Queue<LocalCacheEntry<K, V>> pendingSpills = new ConcurrentLinkedQueue<LocalCacheEntry<K, V>>();
+    /**
+     * 等待写入磁盘溢出层的条目，键被重新写入或移除时在缓存锁内移除，已写入的条目因此不会被发布。
+     */
+    private final ConcurrentMap<K, LocalCacheEntry<K, V>> spilling =
+            new ConcurrentHashMap<K, LocalCacheEntry<K, V>>();
+    private ScheduledExecutorService diskCompactor;
+    /** 写操作计数，无守护线程模式下用于触发磁盘压缩，不要求精确。 */
+    private int writeCount;
+    private volatile GhostKeys ghostKeys;
+    private CacheWriter<K, V> writer;
+    private WriteBehindQueue<K, V> writeBehindQueue;
+    /**
+     * 缓存的事件日志，为 {@code null} 时不记录事件。事件在缓存锁内追加。
+     */
+    private CacheEventJournal<K, V> eventJournal;
+    /**
+     * 直写模式下按键串行化存储写入和缓存更新的锁。
+     */
+    private final Striped<Lock> writeLocks = Striped.lock(64);
 
     /**
      * 本地缓存可容纳对象的最大数量。
      */
     private int maximumSize = DEFAULT_MAXIMUM_SIZE;
     /**
-     * 本地缓存自写入后的过期时间（秒）。
+     * 本地缓存中条目权重总和的上限，负数表示不限制。
+     */
+    private long maximumWeight = -1L;
+    /**
+     * 本地缓存自写入后的过期时间（纳秒）。
      */
-    private int expireAfterWrite = DEFAULT_EXPIRE_AFTER_WRITE;
+    private long expireAfterWriteNanos = TimeUnit.SECONDS.toNanos(DEFAULT_EXPIRE_AFTER_WRITE);
     /**
-     * 本地缓存自访问后的过期时间（秒）。
+     * 本地缓存自访问后的过期时间（纳秒），非正数表示不启用。
      */
-    private int expireAfterAccess = DEFAULT_EXPIRE_AFTER_ACCESS;
+    private long expireAfterAccessNanos = DEFAULT_EXPIRE_AFTER_ACCESS;
     /**
      * 本地缓存的初始容量。
      */
     private int initialCapacity = DEFAULT_INITIAL_CAPACITY;
-
-    private long expireAfterAccessNanos;
-    private long expireAfterWriteNanos;
+    /**
+     * 不存在的条目的过期时间（纳秒），非正数表示不缓存不存在的键。
+     */
+    private long expireAbsentAfterNanos = -1L;
+    /**
+     * 不存在的条目最多占用的最大数量的比例。
+     */
+    private double maximumAbsentFraction = DEFAULT_MAXIMUM_ABSENT_FRACTION;
+    /**
+     * 跟踪的热点键的数量，{@code 0} 表示不跟踪。
+     */
+    private int hotKeyCount;
+    /**
+     * 是否估计缓存在不同容量下的命中率。
+     */
+    private boolean recordHitRatioCurve;
+    private volatile HitRatioEstimator hitRatioEstimator;
+    /**
+     * 延迟写的延迟时间（纳秒），非正数表示直写。
+     */
+    private long writeBehindNanos = -1L;
+    /**
+     * 延迟写每批提交的最大操作数量。
+     */
+    private int writeBehindBatchSize = DEFAULT_WRITE_BEHIND_BATCH_SIZE;
+    /**
+     * 预热时缓存被视为就绪所需加载的键的比例。
+     */
+    private double readyFraction = DEFAULT_READY_FRACTION;
+    /**
+     * 最近一次预热的就绪信号，没有进行中的预热时已经打开。
+     */
+    private volatile CountDownLatch readyLatch = new CountDownLatch(0);
 
     private final String cacheName;
     private DaemonRunnable daemonRunnable;
     private String threadName;
     private boolean isRunning = false;
+    private ObjectName mbeanName;
+    /**
+     * 是否为无守护线程模式：到期元素由调用者线程在读写时分摊处理。
+     */
+    private final boolean threadless;
+    /** 同一时刻只有一个调用者线程进行维护。 */
+    private final AtomicBoolean maintaining = new AtomicBoolean();
+    /** 读操作计数，不要求精确。 */
+    private int readCount;
+    /**
+     * 合并单键加载的批量加载器，为 {@code null} 时每次未命中都直接调用 {@code valueLoader}。
+     */
+    private LoadBatcher<K, V> loadBatcher;
+    /**
+     * 同时进行的加载数量的许可，为 {@code null} 时不限制。
+     */
+    private Semaphore loadPermits;
+    /**
+     * 加载的超时时间（纳秒），小于等于 {@code 0} 时不限制。
+     */
+    private long loadTimeoutNanos = -1L;
+    /**
+     * 过期的条目在过期后继续保留的时间（纳秒），期间重新加载失败或超时时返回过期的值；小于等于 {@code 0} 时不保留。
+     */
+    private long staleIfErrorNanos = -1L;
+    /**
+     * 存活时间的抖动比例，写入时存活时间随机缩短最多该比例；{@code 0} 表示不抖动。
+     */
+    private double expirationJitter;
+    /**
+     * 提前刷新（XFetch）的系数，越大越早刷新；{@code 0} 表示不提前刷新。
+     */
+    private double earlyRefreshBeta;
+    /**
+     * 最近加载单个键的耗时（纳秒）的指数移动平均，作为提前刷新的时间尺度。
+     */
+    private volatile long recentLoadNanos;
+    /** 执行有超时时间的加载的线程池。 */
+    private ExecutorService loadExecutor;
+    /** 没有加载线程池时执行提前刷新的线程池。 */
+    private ExecutorService refreshExecutor;
+    /** 在缓存锁外进行中的加载，同一个键同时只有一个加载。 */
+    private final ConcurrentMap<K, SettableFuture<V>> loading = new ConcurrentHashMap<K, SettableFuture<V>>();
+
+    // 运行时统计，由 DefaultCacheMXBean 读取
+    final StripedCounter hitCount = new StripedCounter();
+    final StripedCounter missCount = new StripedCounter();
+    final StripedCounter negativeHitCount = new StripedCounter();
+    final AtomicLong negativeLoadCount = new AtomicLong();
+    final AtomicInteger absentCount = new AtomicInteger();
+    final AtomicLong writeFailureCount = new AtomicLong();
+    final AtomicLong totalWeight = new AtomicLong();
+    /** 未命中的键在 {@link GhostKeys} 中的次数。 */
+    final StripedCounter ghostHitCount = new StripedCounter();
+    /** 从磁盘溢出层命中并提升回内存的次数，同时计入 {@link #hitCount}。 */
+    final StripedCounter diskHitCount = new StripedCounter();
+    final AtomicLong loadSuccessCount = new AtomicLong();
+    final AtomicLong loadFailureCount = new AtomicLong();
+    final AtomicLong totalLoadTime = new AtomicLong();
+    final AtomicLong loadRejectedCount = new AtomicLong();
+    final AtomicLong loadTimeoutCount = new AtomicLong();
+    /** 加载失败、超时或被拒绝时返回过期的值的次数。 */
+    final AtomicLong staleServedCount = new AtomicLong();
+    /** 命中的条目在过期前被提前刷新的次数。 */
+    final AtomicLong earlyRefreshCount = new AtomicLong();
+    final AtomicLongArray removalCounts = new AtomicLongArray(RemovalCause.values().length);
 
     public DefaultCache(String cacheName) {
         this.cacheName = cacheName;
+        this.threadless = false;
     }
 
     public DefaultCache(CacheBuilder<K, V> builder) {
@@ -101,33 +362,128 @@ public class DefaultCache<K, V> implements Cache<K, V> {
         if (CacheBuilder.NOSET_VAL != builder.getMaximumSize()) {
             maximumSize = builder.getMaximumSize();
         }
-        expireAfterAccessNanos = builder.getExpireAfterAccessNanos();
-        expireAfterWriteNanos = builder.getExpireAfterWriteNanos();
+        maximumWeight = builder.getMaximumWeight();
+        weigher = builder.getWeigher();
+        valueCodec = builder.getValueCodec();
+        compressionThreshold = builder.getCompressionThreshold();
+        overflowDirectory = builder.getOverflowDirectory();
+        overflowMaximumBytes = builder.getOverflowMaximumBytes();
+        overflowCodec = builder.getOverflowCodec();
+        if (valueCodec != null) {
+            decompressedCache = new AtomicReferenceArray<DecompressedValue>(
+                    ceilingPowerOfTwo(builder.getDecompressedCacheSize()));
+        }
+        if (CacheBuilder.NOSET_VAL != builder.expireAfterWriteNanos) {
+            expireAfterWriteNanos = builder.getExpireAfterWriteNanos();
+        }
+        if (CacheBuilder.NOSET_VAL != builder.expireAfterAccessNanos) {
+            expireAfterAccessNanos = builder.getExpireAfterAccessNanos();
+        }
+        expiry = builder.getExpiry();
+        readyFraction = builder.getReadyFraction();
+        expireAbsentAfterNanos = builder.getExpireAbsentAfterNanos();
+        maximumAbsentFraction = builder.getMaximumAbsentFraction();
+        hotKeyCount = builder.getHotKeyCount();
+        recordHitRatioCurve = builder.isRecordHitRatioCurve();
+        writer = builder.getWriter();
+        writeBehindNanos = builder.getWriteBehindNanos();
+        writeBehindBatchSize = builder.getWriteBehindBatchSize();
+        tracer = builder.getTracer();
+        threadless = builder.isThreadless();
+        if (builder.getMaximumConcurrentLoads() > 0) {
+            loadPermits = new Semaphore(builder.getMaximumConcurrentLoads());
+        }
+        loadTimeoutNanos = builder.getLoadTimeoutNanos();
+        staleIfErrorNanos = builder.getStaleIfErrorNanos();
+        expirationJitter = builder.getExpirationJitter();
+        earlyRefreshBeta = builder.getEarlyRefreshBeta();
+        if (builder.getEventJournalCapacity() > 0) {
+            eventJournal = new CacheEventJournal<K, V>(cacheName, builder.getEventJournalCapacity());
+        }
+        if (builder.getBatchLoader() != null) {
+            loadBatcher = new LoadBatcher<K, V>(this, builder.<K, V>getBatchLoader(),
+                    builder.getBatchLoadWindowNanos(), builder.getMaximumLoadBatchSize());
+        }
 
         if (builder.getRemovalListeners() != null) {
             for (RemovalListener<K, V> listener : builder.getRemovalListeners()) {
                 removalListeners.add(listener);
             }
         }
+        if (threadless) {
+            initialize();
+        }
     }
 
     /**
-     * 启动本地缓存。
+     * 启动本地缓存。无守护线程模式的缓存在构造后即已启动，调用该方法没有任何效果。
      */
     public void start() {
         if (isRunning) {
             return;
         }
 
+        initialize();
+        if (!threadless) {
+            daemonRunnable = new DaemonRunnable();
+            Thread cacheThread = new Thread(daemonRunnable);
+            cacheThread.setName(threadName);
+            cacheThread.setDaemon(true);
+            cacheThread.start();
+            if (diskStore != null) {
+                diskCompactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat(threadName + "_DiskCompactor").setDaemon(true).build());
+                diskCompactor.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        compactDisk();
+                    }
+                }, DISK_COMPACTION_INTERVAL, DISK_COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+        registerMBean();
+        LOGGER.info(String.format("%s started.", threadName));
+    }
+
+    private void initialize() {
         isRunning = true;
-        cacheMap = new ConcurrentHashMap<K, V>(initialCapacity);
-        daemonRunnable = new DaemonRunnable();
-        Thread cacheThread = new Thread(daemonRunnable);
+        cacheMap = new ConcurrentHashMap<K, DelayElement<LocalCacheEntry<K, V>>>(initialCapacity);
+        hotKeyTracker = hotKeyCount > 0 ? new HotKeyTracker<K>(hotKeyCount, maximumSize) : null;
+        hitRatioEstimator = recordHitRatioCurve ? new HitRatioEstimator(maximumSize) : null;
         threadName = cacheName == null ? "LocalCache" : String.format("%s_LocalCache", cacheName);
-        cacheThread.setName(threadName);
-        cacheThread.setDaemon(true);
-        cacheThread.start();
-        LOGGER.info(String.format("%s started.", threadName));
+        if (writer != null && writeBehindNanos > 0) {
+            writeBehindQueue = new WriteBehindQueue<K, V>(threadName, writer, writeBehindNanos,
+                    writeBehindBatchSize, writeFailureCount);
+            writeBehindQueue.start();
+        }
+        if (loadTimeoutNanos > 0L) {
+            loadExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat(threadName + "_Loader-%d").setDaemon(true).build());
+        } else if (earlyRefreshBeta > 0.0 && !threadless) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS,
+                    60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(REFRESH_QUEUE_CAPACITY),
+                    new ThreadFactoryBuilder().setNameFormat(threadName + "_Refresher-%d").setDaemon(true).build());
+            executor.allowCoreThreadTimeOut(true);
+            refreshExecutor = executor;
+        }
+        if (overflowDirectory != null) {
+            try {
+                diskStore = new DiskStore<K, V>(overflowDirectory, cacheName == null ? "cache" : cacheName,
+                        overflowMaximumBytes, overflowCodec);
+            } catch (IOException ex) {
+                throw new IllegalStateException(String.format("%s failed to open the disk store: %s",
+                        threadName, overflowDirectory), ex);
+            }
+        }
+    }
+
+    /**
+     * 返回是否为无守护线程模式。
+     *
+     * @see CacheBuilder#threadless()
+     */
+    public boolean isThreadless() {
+        return threadless;
     }
 
     /**
@@ -139,315 +495,2059 @@ public class DefaultCache<K, V> implements Cache<K, V> {
         }
         queue.clear();
         cacheMap.clear();
+        tagIndex.clear();
+        pendingSpills.clear();
+        spilling.clear();
+        totalWeight.set(0L);
+        absentCount.set(0);
         isRunning = false;
+        if (writeBehindQueue != null) {
+            writeBehindQueue.stop();
+            writeBehindQueue = null;
+        }
+        if (loadExecutor != null) {
+            loadExecutor.shutdown();
+            loadExecutor = null;
+        }
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdown();
+            refreshExecutor = null;
+        }
+        if (diskCompactor != null) {
+            diskCompactor.shutdownNow();
+            diskCompactor = null;
+        }
+        if (diskStore != null) {
+            diskStore.close();
+            diskStore = null;
+        }
+        if (eventJournal != null) {
+            eventJournal.stop();
+        }
+        unregisterMBean();
         LOGGER.info(String.format("%s stopped.", threadName));
     }
 
-    protected void checkRunning() {
-        if (!isRunning) {
-            throw new IllegalStateException(String.format("LocalCache not start yet."));
-        }
+    /**
+     * 以 {@code com.king4j.cache:type=DefaultCache,name=<cacheName>} 注册本地缓存的 {@link CacheMXBean}。
+     */
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            String name = cacheName == null ?
+                    String.format("%s@%s", threadName, System.identityHashCode(this)) : cacheName;
+            ObjectName objectName = new ObjectName(String.format(
+                    "com.king4j.cache:type=DefaultCache,name=%s", ObjectName.quote(name)));
+            server.registerMBean(new DefaultCacheMXBean(this), objectName);
+            mbeanName = objectName;
+        } catch (JMException ex) {
+            LOGGER.warn(String.format("%s MBean registration failed: %s", threadName, ex.getMessage()));
+        }
+    }
+
+    private void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (JMException ex) {
+            LOGGER.warn(String.format("%s MBean unregistration failed: %s", threadName, ex.getMessage()));
+        }
+        mbeanName = null;
+    }
+
+    /**
+     * 获取缓存内部锁。发生竞争时，等待的时间将报告给 {@link CacheTracer#onLockWait(String, long)}。
+     */
+    private void enterMonitor() {
+        if (cacheMonitor.tryEnter()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        cacheMonitor.enter();
+        tracer.onLockWait(cacheName, System.nanoTime() - startTime);
+    }
+
+    /**
+     * 释放缓存内部锁。锁被完全释放后，在锁外将等待中的淘汰条目写入磁盘溢出层。
+     */
+    private void leaveMonitor() {
+        cacheMonitor.leave();
+        if (!pendingSpills.isEmpty() && !cacheMonitor.isOccupiedByCurrentThread()) {
+            spillPending();
+        }
+    }
+
+    protected void checkRunning() {
+        if (!isRunning) {
+            throw new IllegalStateException(String.format("LocalCache not start yet."));
+        }
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#getIfPresent(java.lang.Object)
+     */
+    @Override
+    public V getIfPresent(K key) {
+        checkRunning();
+        maintainOnRead();
+        recordAccess(key);
+        DelayElement<LocalCacheEntry<K, V>> de = cacheMap.get(key);
+        long now = DelayElement.now();
+        if (de == null || de.getElement().isExpired(now)) {
+            V value = diskStore == null ? null : promote(key);
+            if (value != null) {
+                return value;
+            }
+            recordMiss(key);
+            return null;
+        }
+        if (de.getElement().isAbsent()) {
+            negativeHitCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return read(de, now);
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#get(java.lang.Object, java.util.concurrent.Callable)
+     */
+    @Override
+    public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+        return getOrLoad(key, POLICY_DURATION, valueLoader);
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#get(java.lang.Object, int,
+     *      java.util.concurrent.Callable)
+     */
+    @Override
+    public V get(K key, int seconds, Callable<? extends V> valueLoader) throws ExecutionException {
+        return getOrLoad(key, seconds <= 0 ? POLICY_DURATION : TimeUnit.SECONDS.toNanos(seconds),
+                valueLoader);
+    }
+
+    private V getOrLoad(K key, long durationNanos, Callable<? extends V> valueLoader)
+            throws ExecutionException {
+        checkRunning();
+        maintainOnRead();
+        recordAccess(key);
+        boolean missRecorded = false;
+        LoadBatcher<K, V> batcher = loadBatcher;
+        if (batcher != null && key != null && durationNanos == POLICY_DURATION) {
+            // 合并加载不能持有缓存锁等待，先在锁外检查缓存
+            DelayElement<LocalCacheEntry<K, V>> de = cacheMap.get(key);
+            if (de == null || de.getElement().isExpired(DelayElement.now())) {
+                V value = diskStore == null ? null : promote(key);
+                if (value != null) {
+                    return value;
+                }
+                recordMiss(key);
+                missRecorded = true;
+                value = batcher.load(key);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        if (loadPermits != null || loadTimeoutNanos > 0L) {
+            return loadGuarded(key, durationNanos, valueLoader, missRecorded);
+        }
+        enterMonitor();
+        V value = null;
+        boolean refresh = false;
+        try {
+            DelayElement<LocalCacheEntry<K, V>> de = cacheMap.get(key);
+            long now = DelayElement.now();
+            if (de != null && !de.getElement().isExpired(now)) {
+                if (de.getElement().isAbsent()) {
+                    negativeHitCount.increment();
+                    return null;
+                }
+                hitCount.increment();
+                value = read(de, now);
+                refresh = refreshEarly(de.getElement(), now);
+            } else {
+                if (!missRecorded && diskStore != null && (value = promote(key)) != null) {
+                    return value;
+                }
+                if (!missRecorded) {
+                    recordMiss(key);
+                }
+                value = callLoader(key, valueLoader);
+                storeLoaded(key, value, durationNanos);
+            }
+        } catch (Exception ex) {
+            V stale = staleValue(key);
+            if (stale != null) {
+                return stale;
+            }
+            throw new ExecutionException(ex);
+        } finally {
+            leaveMonitor();
+        }
+        if (refresh) {
+            // 在缓存锁外提交，调用者返回原来的值
+            refresh(key, durationNanos, valueLoader);
+        }
+        return value;
+    }
+
+    /**
+     * 在缓存锁外加载缓存值，用于限制了同时加载的数量或者加载超时时间的缓存。同一个键同时只有一个加载，
+     * 其他调用者等待该加载的结果；等待超时、加载失败或者没有可用的加载许可时，如果条目仍在
+     * {@link CacheBuilder#staleIfError(long, TimeUnit) 过期保留期} 内，返回过期的值。
+     * <p />
+     * 超时的加载不会被取消，仍然占用加载许可，完成后照常写入缓存。
+     */
+    private V loadGuarded(K key, long durationNanos, Callable<? extends V> valueLoader, boolean missRecorded)
+            throws ExecutionException {
+        long startTime = System.nanoTime();
+        DelayElement<LocalCacheEntry<K, V>> de = cacheMap.get(key);
+        long now = DelayElement.now();
+        if (de != null && !de.getElement().isExpired(now)) {
+            if (de.getElement().isAbsent()) {
+                negativeHitCount.increment();
+                return null;
+            }
+            hitCount.increment();
+            if (refreshEarly(de.getElement(), now)) {
+                refresh(key, durationNanos, valueLoader);
+            }
+            return read(de, now);
+        }
+        if (!missRecorded) {
+            V value = diskStore == null ? null : promote(key);
+            if (value != null) {
+                return value;
+            }
+            recordMiss(key);
+        }
+        SettableFuture<V> future = loading.get(key);
+        if (future == null) {
+            SettableFuture<V> created = SettableFuture.create();
+            future = loading.putIfAbsent(key, created);
+            if (future == null) {
+                future = created;
+                startLoad(new LoadTask(key, durationNanos, valueLoader, created), loadTimeoutNanos,
+                        loadExecutor);
+            }
+        }
+        try {
+            if (loadTimeoutNanos <= 0L) {
+                return Uninterruptibles.getUninterruptibly(future);
+            }
+            long remaining = loadTimeoutNanos - (System.nanoTime() - startTime);
+            return Uninterruptibles.getUninterruptibly(future, Math.max(0L, remaining), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException ex) {
+            V stale = staleValue(key);
+            if (stale != null) {
+                return stale;
+            }
+            throw ex;
+        } catch (TimeoutException ex) {
+            loadTimeoutCount.incrementAndGet();
+            V stale = staleValue(key);
+            if (stale != null) {
+                return stale;
+            }
+            throw new ExecutionException(String.format("Loading %s timed out after %s ms.", key,
+                    TimeUnit.NANOSECONDS.toMillis(loadTimeoutNanos)), ex);
+        }
+    }
+
+    /**
+     * 刷新提前到期的条目，必须在缓存锁外调用。刷新在后台执行，调用者不等待刷新的结果；
+     * 无守护线程模式下没有刷新线程，刷新在调用者线程上执行。刷新不等待加载许可，同一个键同时只有一个加载；
+     * 没有可用的许可或者刷新线程都在忙时放弃这次刷新，条目到期之前的命中还会再次尝试。
+     */
+    private void refresh(K key, long durationNanos, Callable<? extends V> valueLoader) {
+        ExecutorService executor = loadExecutor != null ? loadExecutor : refreshExecutor;
+        if ((executor == null && !threadless) || loading.containsKey(key)) {
+            return;
+        }
+        SettableFuture<V> created = SettableFuture.create();
+        if (loading.putIfAbsent(key, created) == null) {
+            startLoad(new LoadTask(key, durationNanos, valueLoader, created), 0L, executor);
+        }
+    }
+
+    /**
+     * 获取加载许可并执行加载：指定了线程池时在线程池中执行，否则在调用者线程上执行。
+     * 在 {@code permitWaitNanos} 内没有可用的许可时，加载被拒绝。
+     */
+    private void startLoad(LoadTask task, long permitWaitNanos, ExecutorService executor) {
+        Semaphore permits = loadPermits;
+        if (permits != null) {
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(Math.max(0L, permitWaitNanos), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired) {
+                loadRejectedCount.incrementAndGet();
+                loading.remove(task.key, task.future);
+                task.future.setException(new RejectedExecutionException(String.format(
+                        "%s has reached the maximum number of concurrent loads.", threadName)));
+                return;
+            }
+        }
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // 缓存已经停止，或者刷新线程的队列已满
+            task.release();
+            task.future.setException(ex);
+        }
+    }
+
+    /**
+     * 按 XFetch 算法决定是否提前刷新命中的条目：当 {@code now - delta * beta * ln(random)} 超过到期时刻时刷新，
+     * 其中 {@code delta} 为最近的加载耗时。越接近到期、加载越慢，提前刷新的概率越大，
+     * 同时到期的一批条目因此被分散在到期前的一段时间内逐个刷新。
+     */
+    private boolean refreshEarly(LocalCacheEntry<K, V> entry, long now) {
+        long delta = recentLoadNanos;
+        if (earlyRefreshBeta <= 0.0 || delta <= 0L) {
+            return false;
+        }
+        double gap = -delta * earlyRefreshBeta * Math.log(1.0 - RANDOM.get().nextDouble());
+        if (gap < entry.expirationTime - now) {
+            return false;
+        }
+        earlyRefreshCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 记录一次加载单个键的耗时。
+     */
+    private void recordLoadTime(long loadNanos) {
+        long recent = recentLoadNanos;
+        recentLoadNanos = recent == 0L ? loadNanos : recent + (loadNanos - recent) / 8;
+    }
+
+    /**
+     * 调用 {@code valueLoader} 加载缓存值，并记录加载统计。
+     */
+    private V callLoader(K key, Callable<? extends V> valueLoader) throws Exception {
+        long startTime = System.nanoTime();
+        boolean success = false;
+        V value = null;
+        try {
+            value = valueLoader.call();
+            success = value != null || isCachingAbsent();
+        } finally {
+            long loadTime = System.nanoTime() - startTime;
+            totalLoadTime.addAndGet(loadTime);
+            (success ? loadSuccessCount : loadFailureCount).incrementAndGet();
+            tracer.onLoad(cacheName, key == null ? 0 : key.hashCode(), loadTime, success);
+            recordLoadTime(loadTime);
+        }
+        return value;
+    }
+
+    /**
+     * 写入加载的缓存值，{@code null} 值按不存在的键缓存。
+     *
+     * @throws IllegalArgumentException 如果 {@code value == null} 并且没有开启不存在的键的缓存。
+     */
+    private void storeLoaded(K key, V value, long durationNanos) {
+        if (value == null && !isCachingAbsent()) {
+            throw new IllegalArgumentException("The valueLoader returned value must not be null.");
+        }
+        Object stored = value == null ? null : compress(value);
+        enterMonitor();
+        try {
+            if (value == null) {
+                negativeLoadCount.incrementAndGet();
+                putAbsent(key);
+                return;
+            }
+            removeCacheIfMaxsize();
+            putInnerNanos(key, value, stored, durationNanos, null);
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    /**
+     * 返回指定键在过期保留期内的值，没有时返回 {@code null}。
+     */
+    private V staleValue(K key) {
+        if (staleIfErrorNanos <= 0L || key == null) {
+            return null;
+        }
+        DelayElement<LocalCacheEntry<K, V>> de = cacheMap.get(key);
+        if (de == null || de.getElement().isAbsent()
+                || DelayElement.now() - de.getElement().expirationTime >= staleIfErrorNanos) {
+            return null;
+        }
+        staleServedCount.incrementAndGet();
+        return valueOf(de.getElement());
+    }
+
+    /**
+     * 在缓存锁外执行的加载任务，完成后释放加载许可。
+     */
+    private class LoadTask implements Runnable {
+
+        final K key;
+        final long durationNanos;
+        final Callable<? extends V> valueLoader;
+        final SettableFuture<V> future;
+
+        LoadTask(K key, long durationNanos, Callable<? extends V> valueLoader, SettableFuture<V> future) {
+            this.key = key;
+            this.durationNanos = durationNanos;
+            this.valueLoader = valueLoader;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            try {
+                V value = callLoader(key, valueLoader);
+                storeLoaded(key, value, durationNanos);
+                future.set(value);
+            } catch (Throwable ex) {
+                future.setException(ex);
+            } finally {
+                release();
+            }
+        }
+
+        void release() {
+            loading.remove(key, future);
+            if (loadPermits != null) {
+                loadPermits.release();
+            }
+        }
+    }
+
+    /**
+     * 从磁盘溢出层读取指定的键，命中时以剩余的存活时间提升回内存。磁盘的读取和解码不加锁。
+     *
+     * @return 命中的值，未命中时返回 {@code null}。
+     */
+    private V promote(K key) {
+        DiskStore.Hit<V> hit = diskStore.get(key);
+        if (hit == null) {
+            return null;
+        }
+        Object stored = compress(hit.value);
+        enterMonitor();
+        try {
+            DelayElement<LocalCacheEntry<K, V>> de = cacheMap.get(key);
+            long now = DelayElement.now();
+            if (de != null && !de.getElement().isExpired(now)) {
+                // 读取磁盘期间该键被重新写入
+                return null;
+            }
+            long remaining = hit.getExpirationTime() - now;
+            if (remaining <= 0L || !diskStore.remove(key, hit)) {
+                return null;
+            }
+            removeCacheIfMaxsize();
+            putInnerNanos(key, hit.value, stored, remaining, null);
+        } finally {
+            leaveMonitor();
+        }
+        hitCount.increment();
+        diskHitCount.increment();
+        return hit.value;
+    }
+
+    private void compactDisk() {
+        DiskStore<K, V> store = diskStore;
+        if (store == null) {
+            return;
+        }
+        try {
+            store.compact();
+        } catch (IOException ex) {
+            LOGGER.warn(String.format("%s failed to compact the disk store: ", threadName), ex);
+        } catch (RuntimeException ex) {
+            LOGGER.error(String.format("%s failed to compact the disk store: ", threadName), ex);
+        }
+    }
+
+    private void recordMiss(K key) {
+        missCount.increment();
+        GhostKeys ghost = ghostKeys;
+        if (ghost != null && key != null && ghost.contains(key.hashCode())) {
+            ghostHitCount.increment();
+        }
+    }
+
+    private void recordAccess(K key) {
+        HotKeyTracker<K> tracker = hotKeyTracker;
+        if (tracker != null) {
+            tracker.record(key);
+        }
+        HitRatioEstimator estimator = hitRatioEstimator;
+        if (estimator != null && key != null) {
+            estimator.record(key.hashCode());
+        }
+    }
+
+    /**
+     * 估计缓存的最大数量为当前的 {@code factor} 倍时的命中率，例如 {@code 0.5}、{@code 2}、{@code 4}。
+     * 估计值基于最近访问的重用距离，假设缓存按 LRU 的顺序淘汰条目，不包括不存在的键的命中。
+     * 未开启命中率曲线估计时返回 {@link Double#NaN}。
+     *
+     * @param factor 最大数量的倍数，范围为 {@code (0, 4]}。
+     * @throws IllegalArgumentException 如果 {@code factor} 超出范围。
+     * @see #setRecordHitRatioCurve(boolean)
+     */
+    public double getEstimatedHitRatio(double factor) {
+        checkArgument(factor > 0.0 && factor <= HitRatioEstimator.MAX_FACTOR,
+                "The factor must be in (0, %s]: %s", HitRatioEstimator.MAX_FACTOR, factor);
+        HitRatioEstimator estimator = hitRatioEstimator;
+        return estimator == null ? Double.NaN : estimator.estimate(factor);
+    }
+
+    /**
+     * 返回最近访问最频繁的键及其估计的访问频率，按频率从高到低排序。未开启热点键跟踪时返回空的映射。
+     * <p />
+     * 频率由 Count-Min Sketch 估计，只会高估；所有频率会周期性地减半，因此反映的是最近的访问。
+     *
+     * @see #setHotKeyCount(int)
+     */
+    public Map<K, Integer> getHotKeys() {
+        HotKeyTracker<K> tracker = hotKeyTracker;
+        return tracker == null ? Collections.<K, Integer>emptyMap() : tracker.hotKeys();
+    }
+
+    /**
+     * 在不存在的条目没有超过其容量比例时，缓存指定的键不存在。
+     */
+    @SuppressWarnings("unchecked")
+    private void putAbsent(K key) {
+        if (absentCount.get() >= getMaximumSize() * maximumAbsentFraction) {
+            return;
+        }
+        removeCacheIfMaxsize();
+        putInnerNanos(key, (V) ABSENT, ABSENT, expireAbsentAfterNanos, null);
+        absentCount.incrementAndGet();
+    }
+
+    /**
+     * 返回命中的缓存值，并按过期策略更新条目的过期时间。延长的过期时间只写入条目本身，
+     * 延迟队列中的元素到期后由守护线程重新排队，因此读操作不加锁，也不分配对象。
+     */
+    private V read(DelayElement<LocalCacheEntry<K, V>> de, long now) {
+        LocalCacheEntry<K, V> entry = de.getElement();
+        long currentDuration = entry.expirationTime - now;
+        V value = valueOf(entry);
+        long duration = expireAfterRead(entry.key, value, now, currentDuration);
+        if (duration != currentDuration) {
+            long expirationTime = expirationTime(now, duration);
+            entry.expirationTime = expirationTime;
+            if (expirationTime < de.getTime()) {
+                reschedule(de);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 返回条目的值，压缩的值被解压缩并解码。
+     */
+    @SuppressWarnings("unchecked")
+    private V valueOf(Entry<K, V> entry) {
+        Object value = entry.getValue();
+        return value instanceof CompressedValue ? decompress((CompressedValue) value) : (V) value;
+    }
+
+    /**
+     * 编码并压缩缓存值。没有开启压缩、编码后小于阈值或者压缩后不会更小时，返回值本身。
+     * 编码和压缩耗费 CPU，必须在缓存锁外调用。
+     */
+    private Object compress(V value) {
+        if (valueCodec == null || value == ABSENT) {
+            return value;
+        }
+        byte[] raw = valueCodec.encode(value);
+        if (raw.length < compressionThreshold) {
+            return value;
+        }
+        byte[] packed = Lzf.compress(raw);
+        return packed == null ? value : new CompressedValue(packed, raw.length);
+    }
+
+    private V decompress(CompressedValue compressed) {
+        AtomicReferenceArray<DecompressedValue> cache = decompressedCache;
+        int index = System.identityHashCode(compressed) & (cache.length() - 1);
+        DecompressedValue slot = cache.get(index);
+        if (slot != null && slot.source == compressed) {
+            return (V) slot.value;
+        }
+        V value = valueCodec.decode(Lzf.decompress(compressed.data, compressed.length));
+        cache.lazySet(index, new DecompressedValue(compressed, value));
+        return value;
+    }
+
+    private static int ceilingPowerOfTwo(int n) {
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * 条目的过期时间被提前到延迟队列中的到期时刻之前，立即调整其在队列中的位置。
+     */
+    private void reschedule(DelayElement<LocalCacheEntry<K, V>> de) {
+        enterMonitor();
+        try {
+            LocalCacheEntry<K, V> entry = de.getElement();
+            if (cacheMap.get(entry.key) == de && queue.remove(de)) {
+                de.setTime(entry.expirationTime);
+                queue.put(de);
+            }
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#put(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public void put(K key, V value) {
+        putWithDuration(key, value, POLICY_DURATION);
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#put(java.lang.Object, java.lang.Object, int)
+     */
+    @Override
+    public void put(K key, V value, int seconds) {
+        putWithDuration(key, value, TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    /**
+     * 添加缓存条目，并以指定的时间单位指定其存活时间，忽略过期策略。
+     *
+     * @param key 缓存的键。
+     * @param value 缓存的值。
+     * @param duration 存活时间，{@code duration <= 0} 表示立即过期。
+     * @param unit 存活时间的单位。
+     */
+    public void put(K key, V value, long duration, TimeUnit unit) {
+        checkNotNull(unit, "The TimeUnit must not be null.");
+        putWithDuration(key, value, Math.max(0L, unit.toNanos(duration)));
+    }
+
+    /**
+     * 添加带有标签的缓存条目。同一标签的所有条目可以通过 {@link #invalidateTag(String)} 一次移除；
+     * 条目被替换时，其标签也被新条目的标签替换。
+     *
+     * @param key 缓存的键。
+     * @param value 缓存的值。
+     * @param tags 条目的标签。
+     */
+    public void put(K key, V value, String... tags) {
+        checkNotNull(tags, "The tags must not be null.");
+        putWithDuration(key, value, POLICY_DURATION, tags.length == 0 ? null : tags.clone());
+    }
+
+    private void putWithDuration(K key, V value, long durationNanos) {
+        putWithDuration(key, value, durationNanos, null);
+    }
+
+    private void putWithDuration(K key, V value, long durationNanos, String[] tags) {
+        checkRunning();
+        maintainOnWrite();
+        if (!isWriteThrough()) {
+            putAndWriteBehind(key, value, durationNanos, tags);
+            return;
+        }
+        Lock lock = writeLocks.get(key);
+        lock.lock();
+        try {
+            writeThrough(key, value);
+            putAndWriteBehind(key, value, durationNanos, tags);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void putAndWriteBehind(K key, V value, long durationNanos, String[] tags) {
+        Object stored = compress(value);
+        enterMonitor();
+        try {
+            removeCacheIfMaxsize();
+            putInnerNanos(key, value, stored, durationNanos, tags);
+            if (writeBehindQueue != null) {
+                writeBehindQueue.write(key, value);
+            }
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    /**
+     * 返回是否为直写模式：设置了写入器，但没有开启延迟写。
+     */
+    private boolean isWriteThrough() {
+        return writer != null && writeBehindNanos <= 0;
+    }
+
+    private void writeThrough(K key, V value) {
+        try {
+            writer.write(key, value);
+        } catch (Exception ex) {
+            writeFailureCount.incrementAndGet();
+            throw new UncheckedExecutionException(ex);
+        }
+    }
+
+    private void deleteThrough(Collection<K> keys) {
+        try {
+            if (keys.size() == 1) {
+                writer.delete(keys.iterator().next());
+            } else {
+                writer.deleteAll(keys);
+            }
+        } catch (Exception ex) {
+            writeFailureCount.incrementAndGet();
+            throw new UncheckedExecutionException(ex);
+        }
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#putIfAbsent(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public V putIfAbsent(K key, V value) {
+        checkRunning();
+        maintainOnWrite();
+        if (!isWriteThrough()) {
+            return putIfAbsentInner(key, value);
+        }
+        Lock lock = writeLocks.get(key);
+        lock.lock();
+        try {
+            V oldValue = getPresent(key);
+            if (oldValue != null) {
+                return oldValue;
+            }
+            writeThrough(key, value);
+            return putIfAbsentInner(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private V putIfAbsentInner(K key, V value) {
+        Object stored = compress(value);
+        enterMonitor();
+        try {
+            V oldValue = getPresent(key);
+            if (oldValue != null) {
+                return oldValue;
+            }
+            removeCacheIfMaxsize();
+            putInnerNanos(key, value, stored, POLICY_DURATION, null);
+            if (writeBehindQueue != null) {
+                writeBehindQueue.write(key, value);
+            }
+        } finally {
+            leaveMonitor();
+        }
+        return null;
+    }
+
+    /**
+     * 返回指定键未过期的缓存值，不记录统计，也不更新过期时间。
+     */
+    private V getPresent(K key) {
+        DelayElement<LocalCacheEntry<K, V>> de = cacheMap.get(key);
+        if (de == null || de.getElement().isExpired(DelayElement.now()) || de.getElement().isAbsent()) {
+            return null;
+        }
+        return valueOf(de.getElement());
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#asMap()
+     */
+    @Override
+    public ConcurrentMap<K, V> asMap() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#remove(java.lang.Object)
+     */
+    @Override
+    public void remove(K key) {
+        checkRunning();
+        maintainOnWrite();
+        if (!isWriteThrough()) {
+            removeAndWriteBehind(Collections.singletonList(key));
+            return;
+        }
+        Lock lock = writeLocks.get(key);
+        lock.lock();
+        try {
+            deleteThrough(Collections.singletonList(key));
+            removeAndWriteBehind(Collections.singletonList(key));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#removeAll(K[])
+     */
+    @Override
+    public void removeAll(K... keys) {
+        if (keys == null || keys.length == 0) {
+            return;
+        }
+        checkRunning();
+        maintainOnWrite();
+        List<K> keyList = Arrays.asList(keys);
+        if (!isWriteThrough()) {
+            removeAndWriteBehind(keyList);
+            return;
+        }
+        Iterable<Lock> locks = writeLocks.bulkGet(keyList);
+        for (Lock lock : locks) {
+            lock.lock();
+        }
+        try {
+            deleteThrough(keyList);
+            removeAndWriteBehind(keyList);
+        } finally {
+            for (Lock lock : locks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void removeAndWriteBehind(List<K> keys) {
+        enterMonitor();
+        try {
+            for (K key : keys) {
+                removeEntry(key, RemovalCause.EXPLICIT);
+                if (writeBehindQueue != null) {
+                    writeBehindQueue.delete(key);
+                }
+            }
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#clear()
+     */
+    @Override
+    public void clear() {
+        checkRunning();
+        enterMonitor();
+        try {
+            if (eventJournal != null) {
+                for (DelayElement<LocalCacheEntry<K, V>> de : cacheMap.values()) {
+                    journalRemoval(de.getElement(), CacheEventType.REMOVED);
+                }
+            }
+            cacheMap.clear();
+            queue.clear();
+            tagIndex.clear();
+            spilling.clear();
+            if (diskStore != null) {
+                diskStore.clear();
+            }
+            absentCount.set(0);
+            totalWeight.set(0L);
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    /**
+     * 返回缓存中未过期条目的弱一致迭代器。迭代器不获取缓存锁，也不会抛出
+     * {@link java.util.ConcurrentModificationException}：遍历期间的写入可能被看到，也可能看不到，
+     * 但每个条目最多出现一次。迭代器不支持 {@code remove()}，返回的条目不可修改。
+     * <p />
+     * 条目是否过期以创建迭代器的时刻为准；遍历不会被记为访问，也不会延长条目的过期时间。
+     */
+    public Iterator<Entry<K, V>> entryIterator() {
+        checkRunning();
+        final Iterator<DelayElement<LocalCacheEntry<K, V>>> it = cacheMap.values().iterator();
+        final long now = DelayElement.now();
+        return new AbstractIterator<Entry<K, V>>() {
+            @Override
+            protected Entry<K, V> computeNext() {
+                while (it.hasNext()) {
+                    LocalCacheEntry<K, V> entry = it.next().getElement();
+                    if (!entry.isExpired(now) && !entry.isAbsent()) {
+                        return entry.value instanceof CompressedValue ?
+                                Maps.immutableEntry(entry.key, valueOf(entry)) : entry;
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    /**
+     * 使用最多 {@code parallelism} 个线程并行遍历缓存中未过期的条目，返回访问的条目数量。
+     * <p />
+     * 遍历与 {@link #entryIterator()} 一样是弱一致的，不获取缓存锁，不阻塞并发的读写。各个线程每次从共享的迭代器
+     * 领取一小块条目，在锁外调用 {@code visitor}，处理快的线程自然领取更多的块。调用线程也参与遍历。
+     * 任何一次访问抛出异常时，其余的线程尽快停止，异常被包装为 {@link ExecutionException} 抛出。
+     *
+     * @param visitor 条目的访问者，会被多个线程同时调用。
+     * @param parallelism 遍历的并行度。
+     * @return 访问的条目数量。
+     * @throws IllegalArgumentException 如果 {@code parallelism <= 0}。
+     * @throws ExecutionException 如果 {@code visitor} 抛出异常。
+     * @throws InterruptedException 如果等待遍历结束时被中断。
+     */
+    public long forEachEntry(EntryVisitor<? super K, ? super V> visitor, int parallelism)
+            throws ExecutionException, InterruptedException {
+        checkNotNull(visitor, "The EntryVisitor instance must not be null.");
+        checkArgument(parallelism > 0, "The parallelism must be positive: %s", parallelism);
+        VisitTask<K, V> task = new VisitTask<K, V>(entryIterator(), visitor);
+        if (parallelism == 1) {
+            try {
+                return task.call();
+            } catch (RuntimeException ex) {
+                throw new ExecutionException(ex);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism - 1,
+                new ThreadFactoryBuilder().setNameFormat(threadName + "_Iteration-%d").setDaemon(true).build());
+        try {
+            List<Future<Long>> futures = Lists.newArrayListWithCapacity(parallelism - 1);
+            for (int i = 1; i < parallelism; i++) {
+                futures.add(executor.submit(task));
+            }
+            long count = 0L;
+            ExecutionException failure = null;
+            try {
+                count += task.call();
+            } catch (RuntimeException ex) {
+                failure = new ExecutionException(ex);
+            }
+            for (Future<Long> future : futures) {
+                try {
+                    count += future.get();
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return count;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 使用指定的加载器在后台并行预热缓存。键被划分为多个批次，由最多 {@code parallelism} 个线程调用
+     * {@link CacheLoader#loadAll(Iterable)} 加载，每个批次的结果只获取一次缓存锁写入，已经存在的条目不会被覆盖。
+     * <p />
+     * 预热开始后 {@link #isReady()} 返回 {@code false}，直到加载的键达到 {@link #setReadyFraction(double)
+     * 就绪比例}，或者预热结束。加载失败的批次只记录日志，不影响其他批次。
+     *
+     * @param keys 需要预热的键。
+     * @param loader 缓存加载器。
+     * @param parallelism 加载的并行度。
+     * @return 预热结束时返回已加载的条目数量的 {@code Future}。
+     * @throws IllegalArgumentException 如果 {@code parallelism <= 0}。
+     */
+    public Future<Integer> warmUp(Iterable<? extends K> keys, final CacheLoader<K, V> loader,
+                                  int parallelism) {
+        checkNotNull(keys, "The keys to warm up must not be null.");
+        checkNotNull(loader, "The CacheLoader instance must not be null.");
+        checkArgument(parallelism > 0, "The parallelism must be positive: %s", parallelism);
+        checkRunning();
+        final SettableFuture<Integer> result = SettableFuture.create();
+        List<K> keyList = Lists.newArrayList(keys);
+        if (keyList.isEmpty()) {
+            result.set(0);
+            return result;
+        }
+        final int total = keyList.size();
+        final int readyCount = (int) Math.ceil(total * readyFraction);
+        final CountDownLatch latch = new CountDownLatch(1);
+        readyLatch = latch;
+
+        List<List<K>> batches = Lists.partition(keyList, WARM_UP_BATCH_SIZE);
+        final AtomicInteger loaded = new AtomicInteger();
+        final AtomicInteger remaining = new AtomicInteger(batches.size());
+        final long startTime = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, batches.size()),
+                new ThreadFactoryBuilder().setNameFormat(threadName + "_WarmUp-%d").setDaemon(true).build());
+        for (final List<K> batch : batches) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (loaded.addAndGet(loadBatch(batch, loader)) >= readyCount) {
+                            latch.countDown();
+                        }
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            latch.countDown();
+                            LOGGER.info(String.format("%s warmed up %s of %s keys in %s ms.", threadName,
+                                    loaded.get(), total,
+                                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+                            result.set(loaded.get());
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        return result;
+    }
+
+    /**
+     * 加载一批键并写入缓存，返回加载到的条目数量。
+     */
+    private int loadBatch(List<K> keys, CacheLoader<K, V> loader) {
+        try {
+            return loadAll(keys, loader).size();
+        } catch (Exception ex) {
+            LOGGER.warn(String.format("%s failed to warm up %s keys: ", threadName, keys.size()), ex);
+            return 0;
+        }
+    }
+
+    /**
+     * 使用 {@link CacheLoader#loadAll(Iterable)} 加载一批键，记录加载统计，并写入所有不存在的条目。
+     *
+     * @return 加载到的条目，加载器返回 {@code null} 时为空映射。
+     */
+    Map<K, V> loadAll(List<K> keys, CacheLoader<K, V> loader) throws Exception {
+        Map<K, V> values = null;
+        boolean loaded = false;
+        long startTime = System.nanoTime();
+        try {
+            values = loader.loadAll(keys);
+            loaded = true;
+        } finally {
+            long loadTime = System.nanoTime() - startTime;
+            totalLoadTime.addAndGet(loadTime);
+            (loaded ? loadSuccessCount : loadFailureCount).incrementAndGet();
+            tracer.onLoad(cacheName, keys.hashCode(), loadTime, loaded);
+            if (!keys.isEmpty()) {
+                recordLoadTime(loadTime / keys.size());
+            }
+        }
+        if (values == null) {
+            // 加载器没有遵守约定，按所有键都不存在处理
+            return Collections.emptyMap();
+        }
+        if (!values.isEmpty()) {
+            putAllIfAbsent(values);
+        }
+        return values;
+    }
+
+    /**
+     * 只获取一次缓存锁，写入所有不存在（或已过期）的条目。
+     */
+    private void putAllIfAbsent(Map<K, V> values) {
+        List<Entry<K, V>> entries = Lists.newArrayListWithCapacity(values.size());
+        List<Object> stored = Lists.newArrayListWithCapacity(values.size());
+        for (Entry<K, V> entry : values.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                entries.add(entry);
+                stored.add(compress(entry.getValue()));
+            }
+        }
+        enterMonitor();
+        try {
+            long now = DelayElement.now();
+            for (int i = 0; i < entries.size(); i++) {
+                K key = entries.get(i).getKey();
+                DelayElement<LocalCacheEntry<K, V>> de = cacheMap.get(key);
+                if (de != null && !de.getElement().isExpired(now) && !de.getElement().isAbsent()) {
+                    continue;
+                }
+                removeCacheIfMaxsize();
+                putInnerNanos(key, entries.get(i).getValue(), stored.get(i), POLICY_DURATION, null);
+            }
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    /**
+     * 返回缓存是否就绪：没有进行中的预热，或者预热加载的键已经达到就绪比例。
+     */
+    public boolean isReady() {
+        return readyLatch.getCount() == 0L;
+    }
+
+    /**
+     * 等待缓存就绪。
+     *
+     * @param timeout 最长等待时间。
+     * @param unit 等待时间的单位。
+     * @return 缓存是否已经就绪。
+     * @throws InterruptedException 如果等待时线程被中断。
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return readyLatch.await(timeout, unit);
+    }
+
+    /**
+     * 返回预热时缓存被视为就绪所需加载的键的比例。
+     */
+    public double getReadyFraction() {
+        return readyFraction;
+    }
+
+    /**
+     * 设置预热时缓存被视为就绪所需加载的键的比例。
+     *
+     * @throws IllegalArgumentException 如果 {@code readyFraction} 不在 {@code (0, 1]} 之间。
+     */
+    public void setReadyFraction(double readyFraction) {
+        checkArgument(readyFraction > 0.0 && readyFraction <= 1.0,
+                "The readyFraction must be in (0, 1]: %s", readyFraction);
+        this.readyFraction = readyFraction;
+    }
+
+    /**
+     * 返回本地缓存的名称。
+     */
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#size()
+     */
+    @Override
+    public int size() {
+        return cacheMap == null ? 0 : cacheMap.size();
+    }
+
+    /**
+     * 调整本地缓存可容纳对象的最大数量，超出新容量的缓存对象将被立即移除（{@link RemovalCause#SIZE}）。
+     *
+     * @param maximumSize 新的最大数量。
+     * @throws IllegalArgumentException 如果 {@code maximumSize <= 0}。
+     */
+    public void resize(int maximumSize) {
+        checkArgument(maximumSize > 0, "The maximumSize must be positive: %s", maximumSize);
+        if (!isRunning) {
+            setMaximumSize(maximumSize);
+            return;
+        }
+        enterMonitor();
+        try {
+            setMaximumSize(maximumSize);
+            if (hitRatioEstimator != null) {
+                hitRatioEstimator = new HitRatioEstimator(maximumSize);
+            }
+            long startTime = System.nanoTime();
+            int count = 0;
+            while (cacheMap.size() > maximumSize && evictHead()) {
+                count++;
+            }
+            if (count > 0) {
+                tracer.onEviction(cacheName, count, System.nanoTime() - startTime);
+            }
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    /**
+     * 调整本地缓存中条目权重总和的上限，超出新上限的缓存对象将被立即移除（{@link RemovalCause#SIZE}）。
+     *
+     * @param maximumWeight 新的权重上限，负数表示不限制。
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        if (!isRunning) {
+            this.maximumWeight = maximumWeight;
+            return;
+        }
+        enterMonitor();
+        try {
+            this.maximumWeight = maximumWeight;
+            evictOverweight();
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    /**
+     * 返回本地缓存中条目权重总和的上限，负数表示不限制。
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * 返回本地缓存中所有条目的权重总和。没有设置 {@link Weigher} 时每个条目的权重为 {@code 1}。
+     */
+    public long getTotalWeight() {
+        return totalWeight.get();
+    }
+
+    public Weigher<? super K, ? super V> getWeigher() {
+        return weigher;
+    }
+
+    /**
+     * 设置计算条目权重的 {@link Weigher}。必须在 {@link #start()} 之前设置。
+     */
+    public void setWeigher(Weigher<? super K, ? super V> weigher) {
+        this.weigher = weigher;
+    }
+
+    /**
+     * 开始记录最近因容量被淘汰的 {@code capacity} 个键，用于估计增加容量的边际收益。
+     */
+    void trackEvictedKeys(int capacity) {
+        ghostKeys = capacity > 0 ? new GhostKeys(capacity) : null;
+    }
+
+    /**
+     * 返回影子记录覆盖的权重，即缓存再增加多少权重可以容纳影子记录中的所有键；没有影子记录时返回 {@code 0}。
+     */
+    double getGhostWeight() {
+        GhostKeys ghost = ghostKeys;
+        if (ghost == null) {
+            return 0.0;
+        }
+        int size = size();
+        double averageWeight = size == 0 ? 1.0 : Math.max(1.0, (double) totalWeight.get() / size);
+        return ghost.capacity() * averageWeight;
+    }
+
+    /**
+     * 返回过期处理的积压时间（纳秒），即队列中最早过期的缓存对象已经过期了多久，没有积压时返回 {@code 0}。
+     */
+    long getExpiryBacklogNanos() {
+        DelayElement<LocalCacheEntry<K, V>> head = queue.peek();
+        if (head == null) {
+            return 0L;
+        }
+        return Math.max(0L, -head.getDelay(TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * @see com.king4j.cache.Cache#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        stop();
+    }
+
+    /**
+     * 从缓存中移除指定键的条目，并发出移除事件。
+     *
+     * @deprecated 延迟队列元素即是缓存条目，使用 {@link #removeEntry(Object, RemovalCause)}。
+     */
+    @Deprecated
+    protected void removeQueueElement(final K key, final RemovalCause cause) {
+        enterMonitor();
+        try {
+            removeEntry(key, cause);
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    /**
+     * 从缓存中移除指定的多个键的条目，并发出移除事件。
+     *
+     * @deprecated 延迟队列元素即是缓存条目，使用 {@link #removeEntry(Object, RemovalCause)}。
+     */
+    @Deprecated
+    protected void removeQueueElements(final K[] keys, final RemovalCause cause) {
+        enterMonitor();
+        try {
+            for (K key : keys) {
+                removeEntry(key, cause);
+            }
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    /**
+     * 从缓存中移除指定键的条目，并发出移除事件，必须在缓存锁内调用。
+     */
+    protected void removeEntry(K key, RemovalCause cause) {
+        DelayElement<LocalCacheEntry<K, V>> de = cacheMap.remove(key);
+        if (diskStore != null) {
+            spilling.remove(key);
+            diskStore.remove(key);
+        }
+        if (de != null) {
+            queue.remove(de);
+            unindex(de.getElement());
+            journalRemoval(de.getElement(), cause == RemovalCause.EXPIRED ?
+                    CacheEventType.EXPIRED : CacheEventType.REMOVED);
+            fireRemovalEvent(de.getElement(), cause);
+        }
+    }
+
+    /**
+     * 由于缓存达到最大上限而自动移除即将过期的缓存元素（默认移除5个）。
+     */
+    protected void removeCacheIfMaxsize() {
+        if (cacheMap.size() < getMaximumSize()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        int factor = 5;
+        int count = 0;
+        while (count < factor && evictHead()) {
+            count++;
+        }
+        if (count > 0) {
+            tracer.onEviction(cacheName, count, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * 条目权重总和超出上限时，移除即将过期的缓存元素，直到不再超出。
+     */
+    private void evictOverweight() {
+        if (maximumWeight < 0L || totalWeight.get() <= maximumWeight) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        int count = 0;
+        while (totalWeight.get() > maximumWeight && evictHead()) {
+            count++;
+        }
+        if (count > 0) {
+            tracer.onEviction(cacheName, count, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * 由于容量限制移除延迟队列中最早到期的缓存元素。
+     *
+     * @return 队列为空时返回 {@code false}。
+     */
+    private boolean evictHead() {
+        DelayElement<LocalCacheEntry<K, V>> de = queue.peek();
+        if (de == null || !queue.remove(de)) {
+            return false;
+        }
+        LocalCacheEntry<K, V> entry = de.getElement();
+        if (cacheMap.remove(entry.key, de)) {
+            unindex(entry);
+            GhostKeys ghost = ghostKeys;
+            if (ghost != null && !entry.isAbsent()) {
+                ghost.add(entry.key.hashCode());
+            }
+            spill(entry);
+            journalRemoval(entry, CacheEventType.REMOVED);
+            fireRemovalEvent(entry, RemovalCause.SIZE);
+        }
+        return true;
+    }
+
+    /**
+     * 将因容量被淘汰的条目加入等待写入磁盘溢出层的队列，必须在缓存锁内调用。编码和文件写入在释放缓存锁后进行，
+     * 在此之前读取该键不命中。不存在的条目和带有标签的条目不会被写入，
+     * 后者是为了让 {@link #invalidateTag(String)} 不必查找磁盘。
+     */
+    private void spill(LocalCacheEntry<K, V> entry) {
+        if (diskStore == null || entry.isAbsent() || entry.tags() != null) {
+            return;
+        }
+        spilling.put(entry.key, entry);
+        pendingSpills.add(entry);
+    }
+
+    /**
+     * 在缓存锁外编码并写入等待中的淘汰条目，然后只获取一次缓存锁发布写入的条目。
+     * 写入期间键被重新写入或移除的条目被丢弃。
+     */
+    private void spillPending() {
+        DiskStore<K, V> store = diskStore;
+        List<LocalCacheEntry<K, V>> entries = Lists.newArrayList();
+        List<DiskStore.Location> locations = Lists.newArrayList();
+        LocalCacheEntry<K, V> entry;
+        while ((entry = pendingSpills.poll()) != null) {
+            if (store == null || spilling.get(entry.key) != entry) {
+                continue;
+            }
+            try {
+                DiskStore.Location location = store.write(entry.key, valueOf(entry), entry.expirationTime);
+                if (location != null) {
+                    entries.add(entry);
+                    locations.add(location);
+                } else {
+                    spilling.remove(entry.key, entry);
+                }
+            } catch (IOException ex) {
+                spilling.remove(entry.key, entry);
+                LOGGER.warn(String.format("%s failed to spill an entry to the disk store: ", threadName), ex);
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        enterMonitor();
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                if (spilling.remove(entries.get(i).key, entries.get(i))) {
+                    store.publish(entries.get(i).key, locations.get(i));
+                } else {
+                    store.discard(locations.get(i));
+                }
+            }
+        } finally {
+            cacheMonitor.leave();
+        }
+    }
+
+    /**
+     * 写入存活 {@code seconds} 秒的缓存条目，必须在缓存锁内调用。
+     *
+     * @deprecated 使用以纳秒为单位的 {@link #putInnerNanos(Object, Object, long)}。
+     */
+    @Deprecated
+    protected void putInner(K key, V value, int seconds) {
+        putInnerNanos(key, value, TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    /**
+     * 写入缓存条目，必须在缓存锁内调用。{@code durationNanos} 为 {@link #POLICY_DURATION} 时，
+     * 由过期策略计算条目的存活时间。开启了值压缩时，该方法在缓存锁内压缩，缓存自身的写入都在锁外压缩。
+     */
+    protected void putInnerNanos(K key, V value, long durationNanos) {
+        putInnerNanos(key, value, compress(value), durationNanos, null);
+    }
+
+    /**
+     * 写入缓存条目，必须在缓存锁内调用。{@code stored} 为在缓存锁外由 {@link #compress(Object)}
+     * 准备好的存储形式。
+     */
+    private void putInnerNanos(K key, V value, Object stored, long durationNanos, String[] tags) {
+        assert isRunning == true;
+        long now = DelayElement.now();
+        DelayElement<LocalCacheEntry<K, V>> old = cacheMap.get(key);
+        boolean oldExpired = old != null && old.getElement().isExpired(now);
+        long duration = durationNanos;
+        if (duration == POLICY_DURATION) {
+            duration = old == null || oldExpired || old.getElement().isAbsent() ?
+                    expireAfterCreate(key, value, now) :
+                    expireAfterUpdate(key, value, now, old.getElement().expirationTime - now);
+        }
+        if (expirationJitter > 0.0 && value != ABSENT && duration > 0L && duration < MAXIMUM_DURATION) {
+            // 随机缩短存活时间，同时写入的条目不会在同一时刻过期
+            duration -= (long) (duration * expirationJitter * RANDOM.get().nextDouble());
+        }
+        long expirationTime = expirationTime(now, duration);
+        int weight = weigh(key, value);
+        if (stored instanceof CompressedValue) {
+            // 压缩的条目按压缩率折算权重
+            CompressedValue compressed = (CompressedValue) stored;
+            weight = (int) Math.max(weight == 0 ? 0 : 1, (long) weight * compressed.data.length / compressed.length);
+        }
+        LocalCacheEntry<K, V> entry = LocalCacheEntry.create(key, (V) stored, expirationTime, weight, tags);
+        DelayElement<LocalCacheEntry<K, V>> de = entry;
+        cacheMap.put(key, de);
+        totalWeight.addAndGet(weight);
+        if (diskStore != null) {
+            spilling.remove(key);
+            diskStore.remove(key);
+        }
+        if (old != null) {
+            queue.remove(old);
+            unindex(old.getElement());
+            fireRemovalEvent(old.getElement(), oldExpired ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+        }
+        if (eventJournal != null) {
+            journalPut(key, value, old == null ? null : old.getElement(), oldExpired);
+        }
+        index(entry);
+        queue.put(de);
+        evictOverweight();
+    }
+
+    /**
+     * 记录写入的事件：替换未过期的值为 {@link CacheEventType#UPDATED}，否则为 {@link CacheEventType#CREATED}；
+     * 过期的旧值先记录为 {@link CacheEventType#EXPIRED}。写入不存在的标记不是可见的写入，
+     * 只在替换了未过期的值时记录为 {@link CacheEventType#REMOVED}。必须在缓存锁内调用。
+     */
+    private void journalPut(K key, V value, LocalCacheEntry<K, V> old, boolean oldExpired) {
+        if (old != null && oldExpired) {
+            journalRemoval(old, CacheEventType.EXPIRED);
+        }
+        boolean replaced = old != null && !oldExpired && !old.isAbsent();
+        if (value != ABSENT) {
+            eventJournal.append(replaced ? CacheEventType.UPDATED : CacheEventType.CREATED, key, value,
+                    replaced ? valueOf(old) : null);
+        } else if (replaced) {
+            journalRemoval(old, CacheEventType.REMOVED);
+        }
+    }
+
+    /**
+     * 记录条目被移除的事件，不存在的条目不记录。必须在缓存锁内调用。
+     */
+    private void journalRemoval(LocalCacheEntry<K, V> entry, CacheEventType type) {
+        CacheEventJournal<K, V> journal = eventJournal;
+        if (journal != null && !entry.isAbsent()) {
+            journal.append(type, entry.key, valueOf(entry), null);
+        }
+    }
+
+    private int weigh(K key, V value) {
+        Weigher<? super K, ? super V> w = weigher;
+        if (w == null || value == ABSENT) {
+            return 1;
+        }
+        int weight = w.weigh(key, value);
+        checkState(weight >= 0, "The weight of %s must not be negative: %s", key, weight);
+        return weight;
+    }
+
+    /**
+     * 将条目加入标签索引，必须在缓存锁内调用。
+     */
+    private void index(LocalCacheEntry<K, V> entry) {
+        if (entry.tags() == null) {
+            return;
+        }
+        for (String tag : entry.tags()) {
+            Set<K> keys = tagIndex.get(tag);
+            if (keys == null) {
+                keys = Sets.newHashSet();
+                tagIndex.put(tag, keys);
+            }
+            keys.add(entry.key);
+        }
+    }
+
+    /**
+     * 将条目从标签索引中移除，必须在缓存锁内调用。
+     */
+    private void unindex(LocalCacheEntry<K, V> entry) {
+        if (entry.tags() == null) {
+            return;
+        }
+        for (String tag : entry.tags()) {
+            Set<K> keys = tagIndex.get(tag);
+            if (keys != null && keys.remove(entry.key) && keys.isEmpty()) {
+                tagIndex.remove(tag);
+            }
+        }
+    }
+
+    /**
+     * 移除带有指定标签的所有条目，时间复杂度与该标签的条目数量成正比。被移除的条目在锁外以
+     * {@link RemovalCause#EXPLICIT} 批量通知。与 {@link #remove(Object)} 不同，该操作只影响缓存，
+     * 不会调用 {@link CacheWriter#delete(Object)}。
+     *
+     * @param tag 条目的标签。
+     * @return 被移除的条目数量。
+     */
+    public int invalidateTag(String tag) {
+        checkNotNull(tag, "The tag must not be null.");
+        checkRunning();
+        List<LocalCacheEntry<K, V>> removed = Lists.newArrayList();
+        enterMonitor();
+        try {
+            removeTagged(tag, removed);
+        } finally {
+            leaveMonitor();
+        }
+        fireRemovalEvents(removed, RemovalCause.EXPLICIT);
+        return removed.size();
+    }
+
+    /**
+     * 移除带有以 {@code prefix} 开头的标签的所有条目，例如 {@code "tenant:42:"}。
+     *
+     * @param prefix 标签的前缀。
+     * @return 被移除的条目数量。
+     * @see #invalidateTag(String)
+     */
+    public int invalidateTagPrefix(String prefix) {
+        checkNotNull(prefix, "The tag prefix must not be null.");
+        checkRunning();
+        List<LocalCacheEntry<K, V>> removed = Lists.newArrayList();
+        enterMonitor();
+        try {
+            List<String> tags = Lists.newArrayList(
+                    tagIndex.subMap(prefix, true, prefix + Character.MAX_VALUE, true).keySet());
+            for (String tag : tags) {
+                removeTagged(tag, removed);
+            }
+        } finally {
+            leaveMonitor();
+        }
+        fireRemovalEvents(removed, RemovalCause.EXPLICIT);
+        return removed.size();
+    }
+
+    /**
+     * 返回带有指定标签的条目数量。
+     */
+    public int getTagSize(String tag) {
+        enterMonitor();
+        try {
+            Set<K> keys = tagIndex.get(tag);
+            return keys == null ? 0 : keys.size();
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    private void removeTagged(String tag, List<LocalCacheEntry<K, V>> removed) {
+        Set<K> keys = tagIndex.get(tag);
+        if (keys == null) {
+            return;
+        }
+        for (K key : Lists.newArrayList(keys)) {
+            DelayElement<LocalCacheEntry<K, V>> de = cacheMap.remove(key);
+            if (de != null) {
+                queue.remove(de);
+                unindex(de.getElement());
+                journalRemoval(de.getElement(), CacheEventType.REMOVED);
+                removed.add(de.getElement());
+            }
+        }
+    }
+
+    private void maintainOnRead() {
+        if (threadless && (++readCount & READ_MAINTENANCE_MASK) == 0) {
+            maintain();
+        }
+    }
+
+    private void maintainOnWrite() {
+        if (threadless) {
+            maintain();
+            if (diskStore != null && (++writeCount & DISK_COMPACTION_MASK) == 0) {
+                compactDisk();
+            }
+        }
+    }
+
+    /**
+     * 无守护线程模式下，在调用者线程上处理最多 {@link #MAINTENANCE_BATCH_SIZE} 个到期的元素。
+     * 已经有其他线程在维护，或者没有到期的元素时立即返回。
+     */
+    private void maintain() {
+        DelayElement<LocalCacheEntry<K, V>> head = queue.peek();
+        if (head == null || head.getDelay(TimeUnit.NANOSECONDS) > 0L
+                || !maintaining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<DelayElement<LocalCacheEntry<K, V>>> batch =
+                    Lists.newArrayListWithCapacity(MAINTENANCE_BATCH_SIZE);
+            queue.drainTo(batch, MAINTENANCE_BATCH_SIZE);
+            if (!batch.isEmpty()) {
+                drain(batch, Lists.<LocalCacheEntry<K, V>>newArrayListWithCapacity(batch.size()));
+            }
+        } finally {
+            maintaining.set(false);
+        }
+    }
+
+    /**
+     * 处理一批从延迟队列中取出的到期元素，并在锁外通知过期的条目。
+     */
+    private void drain(List<DelayElement<LocalCacheEntry<K, V>>> batch,
+                       List<LocalCacheEntry<K, V>> expired) {
+        long startTime = System.nanoTime();
+        long backlog = Math.max(0L, -batch.get(0).getDelay(TimeUnit.NANOSECONDS));
+        expire(batch, expired);
+        for (LocalCacheEntry<K, V> entry : expired) {
+            fireRemovalEvent(entry, RemovalCause.EXPIRED);
+        }
+        if (!expired.isEmpty()) {
+            tracer.onExpiryDrain(cacheName, expired.size(), backlog, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * 处理延迟队列中到期的元素：条目已被替换或移除的直接丢弃，过期时间被读操作延长的重新排队，
+     * 其余的从缓存中移除并加入 {@code expired}。
+     */
+    private void expire(List<DelayElement<LocalCacheEntry<K, V>>> batch,
+                        List<LocalCacheEntry<K, V>> expired) {
+        enterMonitor();
+        try {
+            long now = DelayElement.now();
+            for (DelayElement<LocalCacheEntry<K, V>> de : batch) {
+                LocalCacheEntry<K, V> entry = de.getElement();
+                if (cacheMap.get(entry.key) != de) {
+                    continue;
+                }
+                if (!entry.isExpired(now)) {
+                    de.setTime(entry.expirationTime);
+                    queue.put(de);
+                    continue;
+                }
+                if (staleIfErrorNanos > 0L && !entry.isAbsent()
+                        && now - entry.expirationTime < staleIfErrorNanos) {
+                    // 过期的值在保留期内留在缓存中，只在重新加载失败时返回
+                    de.setTime(entry.expirationTime + staleIfErrorNanos);
+                    queue.put(de);
+                    continue;
+                }
+                cacheMap.remove(entry.key);
+                unindex(entry);
+                journalRemoval(entry, CacheEventType.EXPIRED);
+                expired.add(entry);
+            }
+        } finally {
+            leaveMonitor();
+        }
+    }
+
+    private long expireAfterCreate(K key, V value, long now) {
+        Expiry<? super K, ? super V> e = expiry;
+        return e == null ? expireAfterWriteNanos : e.expireAfterCreate(key, value, now);
+    }
+
+    private long expireAfterUpdate(K key, V value, long now, long currentDuration) {
+        Expiry<? super K, ? super V> e = expiry;
+        return e == null ? expireAfterWriteNanos : e.expireAfterUpdate(key, value, now, currentDuration);
+    }
+
+    private long expireAfterRead(K key, V value, long now, long currentDuration) {
+        Expiry<? super K, ? super V> e = expiry;
+        if (e == null) {
+            return expireAfterAccessNanos > 0 ? expireAfterAccessNanos : currentDuration;
+        }
+        return e.expireAfterRead(key, value, now, currentDuration);
+    }
+
+    /**
+     * 返回自 {@code now} 起存活 {@code duration} 纳秒的到期时刻，存活时间不超过 {@link #MAXIMUM_DURATION}。
+     */
+    private static long expirationTime(long now, long duration) {
+        if (duration <= 0L) {
+            return now;
+        }
+        return now + Math.min(duration, MAXIMUM_DURATION);
+    }
+
+    /**
+     * 通知一批被移除的条目，监听器列表只复制一次。
+     */
+    private void fireRemovalEvents(List<? extends Entry<K, V>> entries, RemovalCause cause) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<RemovalListener<K, V>> listeners;
+        synchronized (removalListeners) {
+            listeners = removalListeners.isEmpty() ? Collections.<RemovalListener<K, V>>emptyList() :
+                    Lists.newArrayList(removalListeners);
+        }
+        for (Entry<K, V> entry : entries) {
+            if (entry instanceof LocalCacheEntry) {
+                totalWeight.addAndGet(-((LocalCacheEntry<K, V>) entry).weight());
+            }
+            if (entry.getValue() == ABSENT) {
+                absentCount.decrementAndGet();
+                continue;
+            }
+            removalCounts.incrementAndGet(cause.ordinal());
+            if (listeners.isEmpty()) {
+                continue;
+            }
+            RemovalNotification<K, V> notification = new RemovalNotification<K, V>(entry.getKey(),
+                    valueOf(entry), cause);
+            for (RemovalListener<K, V> listener : listeners) {
+                listener.onRemoval(notification);
+            }
+        }
+    }
+
+    protected void fireRemovalEvent(final Entry<K, V> entry, final RemovalCause cause) {
+        if (entry == null || cause == null) {
+            return;
+        }
+        if (entry instanceof LocalCacheEntry) {
+            totalWeight.addAndGet(-((LocalCacheEntry<K, V>) entry).weight());
+        }
+        if (entry.getValue() == ABSENT) {
+            absentCount.decrementAndGet();
+            return;
+        }
+        removalCounts.incrementAndGet(cause.ordinal());
+        if (removalListeners.isEmpty()) {
+            return;
+        }
+        List<RemovalListener<K, V>> listeners = null;
+        synchronized (removalListeners) {
+            listeners = Lists.newArrayList(removalListeners);
+        }
+        RemovalNotification<K, V> notification = new RemovalNotification<K, V>(entry.getKey(),
+                valueOf(entry), cause);
+        for (RemovalListener<K, V> listener : listeners) {
+            listener.onRemoval(notification);
+        }
+    }
+
+    /**
+     * 返回本地缓存可容纳对象的最大数量。
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * 设置本地缓存可容纳对象的最大数量。
+     */
+    public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * 返回本地缓存自定入缓存后的过期时间（秒）。
+     */
+    public int getExpireAfterWrite() {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(expireAfterWriteNanos);
+    }
+
+    /**
+     * 设置本地缓存自定入缓存后的过期时间（秒）。
+     */
+    public void setExpireAfterWrite(int expireAfterWrite) {
+        setExpireAfterWrite(expireAfterWrite, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 以指定的时间单位设置本地缓存自定入缓存后的过期时间。
+     */
+    public void setExpireAfterWrite(long duration, TimeUnit unit) {
+        this.expireAfterWriteNanos = unit.toNanos(duration);
     }
 
     /**
-     * @see com.king4j.cache.Cache#getIfPresent(java.lang.Object)
+     * 返回本地缓存自定入缓存后的过期时间（纳秒）。
      */
-    @Override
-    public V getIfPresent(K key) {
-        checkRunning();
-        V value = cacheMap.get(key);
-        if (value != null && getExpireAfterAccess() > 0) {
-            putInner(key, value, getExpireAfterAccess());
-        }
-        return value;
+    public long getExpireAfterWriteNanos() {
+        return expireAfterWriteNanos;
     }
 
     /**
-     * @see com.king4j.cache.Cache#get(java.lang.Object, java.util.concurrent.Callable)
+     * 返回本地缓存自访问后的过期时间（秒），{@code -1} 表示不启用。
      */
-    @Override
-    public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
-        return get(key, getExpireAfterWrite(), valueLoader);
+    public int getExpireAfterAccess() {
+        return expireAfterAccessNanos > 0 ? (int) TimeUnit.NANOSECONDS.toSeconds(expireAfterAccessNanos) :
+                DEFAULT_EXPIRE_AFTER_ACCESS;
     }
 
     /**
-     * @see com.king4j.cache.Cache#get(java.lang.Object, int,
-     *      java.util.concurrent.Callable)
+     * 设置本地缓存自访问后的过期时间（秒），非正数表示不启用。
      */
-    @Override
-    public V get(K key, int seconds, Callable<? extends V> valueLoader) throws ExecutionException {
-        checkRunning();
-        if (seconds <= 0) {
-            seconds = getExpireAfterWrite();
-        }
-        cacheMonitor.enter();
-        V value = null;
-        try {
-            value = cacheMap.get(key);
-            if (value != null) {
-                if (getExpireAfterAccess() > 0) {
-                    putInner(key, value, getExpireAfterAccess());
-                }
-                return value;
-            }
-            if ((value = valueLoader.call()) == null) {
-                throw new IllegalArgumentException("The valueLoader returned value must not be null.");
-            }
-            removeCacheIfMaxsize();
-            putInner(key, value, seconds);
-        } catch (Exception ex) {
-            throw new ExecutionException(ex);
-        } finally {
-            cacheMonitor.leave();
-        }
-        return value;
+    public void setExpireAfterAccess(int expireAfterAccess) {
+        setExpireAfterAccess(expireAfterAccess, TimeUnit.SECONDS);
     }
 
     /**
-     * @see com.king4j.cache.Cache#put(java.lang.Object, java.lang.Object)
+     * 以指定的时间单位设置本地缓存自访问后的过期时间，非正数表示不启用。
      */
-    @Override
-    public void put(K key, V value) {
-        put(key, value, getExpireAfterWrite());
+    public void setExpireAfterAccess(long duration, TimeUnit unit) {
+        this.expireAfterAccessNanos = duration > 0 ? unit.toNanos(duration) : DEFAULT_EXPIRE_AFTER_ACCESS;
     }
 
     /**
-     * @see com.king4j.cache.Cache#put(java.lang.Object, java.lang.Object, int)
+     * 返回本地缓存自访问后的过期时间（纳秒），{@code -1} 表示不启用。
      */
-    @Override
-    public void put(K key, V value, int seconds) {
-        checkRunning();
-        cacheMonitor.enter();
-        try {
-            removeCacheIfMaxsize();
-            putInner(key, value, seconds);
-        } finally {
-            cacheMonitor.leave();
-        }
+    public long getExpireAfterAccessNanos() {
+        return expireAfterAccessNanos;
     }
 
     /**
-     * @see com.king4j.cache.Cache#putIfAbsent(java.lang.Object, java.lang.Object)
+     * 返回本地缓存的过期策略，未设置时返回 {@code null}。
      */
-    @Override
-    public V putIfAbsent(K key, V value) {
-        checkRunning();
-        cacheMonitor.enter();
-        try {
-            V oldVal = cacheMap.get(key);
-            if (oldVal != null) {
-                return oldVal;
-            }
-            removeCacheIfMaxsize();
-            putInner(key, value, getExpireAfterWrite());
-        } finally {
-            cacheMonitor.leave();
-        }
-        return null;
+    public Expiry<? super K, ? super V> getExpiry() {
+        return expiry;
     }
 
     /**
-     * @see com.king4j.cache.Cache#asMap()
+     * 设置本地缓存的过期策略。设置后，{@code expireAfterWrite} 和 {@code expireAfterAccess} 不再生效，
+     * 但显式指定了存活时间的 {@code put} 和 {@code get} 方法仍以指定的时间为准。
      */
-    @Override
-    public ConcurrentMap<K, V> asMap() {
-        throw new UnsupportedOperationException();
+    public void setExpiry(Expiry<? super K, ? super V> expiry) {
+        this.expiry = expiry;
     }
 
     /**
-     * @see com.king4j.cache.Cache#remove(java.lang.Object)
+     * 返回是否缓存不存在的键。
      */
-    @Override
-    public void remove(K key) {
-        checkRunning();
-        cacheMonitor.enter();
-        try {
-            V oldValue = cacheMap.remove(key);
-            if (oldValue != null) {
-                removeQueueElement(key, RemovalCause.EXPLICIT);
-            }
-        } finally {
-            cacheMonitor.leave();
-        }
+    public boolean isCachingAbsent() {
+        return expireAbsentAfterNanos > 0;
     }
 
     /**
-     * @see com.king4j.cache.Cache#removeAll(K[])
+     * 设置不存在的键的缓存时间。设置为正数后，{@code valueLoader} 返回 {@code null} 时不再抛出异常，
+     * 而是缓存该键不存在，在此期间对该键的 {@code get} 和 {@code getIfPresent} 直接返回 {@code null}，
+     * 不再调用 {@code valueLoader}。非正数表示不缓存不存在的键。
      */
-    @Override
-    public void removeAll(K... keys) {
-        if (keys == null || keys.length == 0) {
-            return;
-        }
-        cacheMonitor.enter();
-        try {
-            removeQueueElements(keys, RemovalCause.EXPLICIT);
-
-            for (K key : keys) {
-                cacheMap.remove(key);
-            }
-        } finally {
-            cacheMonitor.leave();
-        }
+    public void setExpireAbsentAfter(long duration, TimeUnit unit) {
+        this.expireAbsentAfterNanos = duration > 0 ? unit.toNanos(duration) : -1L;
     }
 
     /**
-     * @see com.king4j.cache.Cache#clear()
+     * 返回不存在的键的缓存时间（纳秒），{@code -1} 表示不缓存不存在的键。
      */
-    @Override
-    public void clear() {
-        checkRunning();
-        cacheMonitor.enter();
-        try {
-            cacheMap.clear();
-            queue.clear();
-        } finally {
-            cacheMonitor.leave();
-        }
+    public long getExpireAbsentAfterNanos() {
+        return expireAbsentAfterNanos;
     }
 
     /**
-     * 返回本地缓存的名称。
+     * 返回不存在的条目最多占用的最大数量的比例。
      */
-    public String getCacheName() {
-        return cacheName;
+    public double getMaximumAbsentFraction() {
+        return maximumAbsentFraction;
     }
 
     /**
-     * @see com.king4j.cache.Cache#size()
+     * 设置不存在的条目最多占用的最大数量的比例，达到该比例后新的不存在的键不再被缓存。
+     *
+     * @throws IllegalArgumentException 如果 {@code maximumAbsentFraction} 不在 {@code (0, 1]} 之间。
      */
-    @Override
-    public int size() {
-        return queue.size();
+    public void setMaximumAbsentFraction(double maximumAbsentFraction) {
+        checkArgument(maximumAbsentFraction > 0.0 && maximumAbsentFraction <= 1.0,
+                "The maximumAbsentFraction must be in (0, 1]: %s", maximumAbsentFraction);
+        this.maximumAbsentFraction = maximumAbsentFraction;
     }
 
     /**
-     * @see com.king4j.cache.Cache#shutdown()
+     * 返回缓存的写入器，未设置时返回 {@code null}。
      */
-    @Override
-    public void shutdown() {
-        stop();
+    public CacheWriter<K, V> getWriter() {
+        return writer;
     }
 
-    protected void removeQueueElement(final K key, final RemovalCause cause) {
-        for (DelayElement<Entry<K, V>> de : queue) {
-            if (Objects.equal(de.getElement().getKey(), key)) {
-                if (queue.remove(de)) {
-                    fireRemovalEvent(de.getElement(), cause);
-                }
-                break;
-            }
-        }
+    /**
+     * 设置缓存的写入器。{@code put} 和 {@code remove} 操作会同步写入存储（直写），
+     * 或者在 {@link #setWriteBehind(long, TimeUnit) 开启延迟写} 后由后台线程合并后批量写入。
+     * 直写失败时抛出 {@link UncheckedExecutionException}，缓存不会被修改。必须在 {@link #start()} 之前设置。
+     */
+    public void setWriter(CacheWriter<K, V> writer) {
+        this.writer = writer;
     }
 
-    protected void removeQueueElements(final K[] keys, final RemovalCause cause) {
-        List<DelayElement<Entry<K, V>>> deList = Lists.newArrayListWithCapacity(keys.length);
-        for (DelayElement<Entry<K, V>> de : queue) {
-            for (K key : keys) {
-                if (Objects.equal(de.getElement().getKey(), key)) {
-                    deList.add(de);
-                    break;
-                }
-            }
-        }
-        if (queue.removeAll(deList)) {
-            for (DelayElement<Entry<K, V>> de : deList) {
-                fireRemovalEvent(de.getElement(), cause);
-            }
-        }
+    /**
+     * 开启延迟写：写操作在延迟时间内被合并，到期后批量提交给写入器。非正数表示直写。
+     * 必须在 {@link #start()} 之前设置。
+     */
+    public void setWriteBehind(long delay, TimeUnit unit) {
+        this.writeBehindNanos = delay > 0 ? unit.toNanos(delay) : -1L;
     }
 
     /**
-     * 由于缓存达到最大上限而自动移除即将过期的缓存元素（默认移除5个）。
+     * 设置延迟写每批提交的最大操作数量。必须在 {@link #start()} 之前设置。
+     *
+     * @throws IllegalArgumentException 如果 {@code batchSize <= 0}。
      */
-    protected void removeCacheIfMaxsize() {
-        if (queue.size() < getMaximumSize()) {
-            return;
-        }
-        int factor = 5;
-        List<Entry<K, V>> removedEntries = Lists.newArrayList();
-        for (int i = 0; i < factor; i++) {
-            DelayElement<Entry<K, V>> de = queue.peek();
-            if (de != null) {
-                removedEntries.add(de.getElement());
-                queue.remove(de);
-            }
-        }
-        if (removedEntries.size() > 0) {
-            for (Entry<K, V> entry : removedEntries) {
-                cacheMap.remove(entry.getKey());
-                fireRemovalEvent(entry, RemovalCause.SIZE);
-            }
-        }
+    public void setWriteBehindBatchSize(int batchSize) {
+        checkArgument(batchSize > 0, "The batchSize must be positive: %s", batchSize);
+        this.writeBehindBatchSize = batchSize;
     }
 
-    protected void putInner(K key, V value, int seconds) {
-        assert isRunning == true;
-        V oldVal = cacheMap.put(key, value);
-        if (oldVal != null) {
-            removeQueueElement(key, RemovalCause.REPLACED);
-        }
+    /**
+     * 返回正在进行的缓存锁外的加载数量。
+     */
+    public int getActiveLoadCount() {
+        return loading.size();
+    }
 
-        long nanoTime = TimeUnit.NANOSECONDS.convert(seconds, TimeUnit.SECONDS);
-        Entry<K, V> entry = new LocalCacheEntry<K, V>(key, value);
-        queue.put(DelayElement.create(entry, nanoTime));
+    /**
+     * 返回合并加载执行的批量加载次数，未开启合并加载时返回 {@code 0}。
+     */
+    public long getLoadBatchCount() {
+        LoadBatcher<K, V> batcher = loadBatcher;
+        return batcher == null ? 0L : batcher.getBatchCount();
     }
 
-    protected void fireRemovalEvent(final Entry<K, V> entry, final RemovalCause cause) {
-        if (entry == null || cause == null || removalListeners.isEmpty()) {
-            return;
-        }
-        List<RemovalListener<K, V>> listeners = null;
-        synchronized (removalListeners) {
-            listeners = Lists.newArrayList(removalListeners);
-        }
-        RemovalNotification<K, V> notification = new RemovalNotification<K, V>(entry.getKey(),
-                entry.getValue(), cause);
-        for (RemovalListener<K, V> listener : listeners) {
-            listener.onRemoval(notification);
-        }
+    /**
+     * 返回通过合并加载加载的键的数量。
+     */
+    public long getCoalescedLoadCount() {
+        LoadBatcher<K, V> batcher = loadBatcher;
+        return batcher == null ? 0L : batcher.getKeyCount();
     }
 
     /**
-     * 返回本地缓存可容纳对象的最大数量。
+     * 返回磁盘溢出层中的条目数量，未开启磁盘溢出层时返回 {@code 0}。
      */
-    public int getMaximumSize() {
-        return maximumSize;
+    public int getDiskEntryCount() {
+        DiskStore<K, V> store = diskStore;
+        return store == null ? 0 : store.size();
     }
 
     /**
-     * 设置本地缓存可容纳对象的最大数量。
+     * 返回磁盘溢出层的段文件占用的空间（字节）。
      */
-    public void setMaximumSize(int maximumSize) {
-        this.maximumSize = maximumSize;
+    public long getDiskSize() {
+        DiskStore<K, V> store = diskStore;
+        return store == null ? 0L : store.getDiskSize();
     }
 
     /**
-     * 返回本地缓存自定入缓存后的过期时间（秒）。
+     * 返回等待延迟写的键的数量。
      */
-    public int getExpireAfterWrite() {
-        return expireAfterWrite;
+    public int getWriteBehindBacklog() {
+        WriteBehindQueue<K, V> q = writeBehindQueue;
+        return q == null ? 0 : q.getBacklog();
     }
 
     /**
-     * 设置本地缓存自定入缓存后的过期时间（秒）。
+     * 返回跟踪的热点键的数量，{@code 0} 表示不跟踪。
      */
-    public void setExpireAfterWrite(int expireAfterWrite) {
-        this.expireAfterWrite = expireAfterWrite;
+    public int getHotKeyCount() {
+        return hotKeyCount;
     }
 
     /**
-     * 返回本地缓存自访问后的过期时间（秒）。
+     * 设置跟踪的热点键的数量，{@code 0} 表示不跟踪。必须在 {@link #start()} 之前设置。
+     *
+     * @throws IllegalArgumentException 如果 {@code hotKeyCount < 0}。
      */
-    public int getExpireAfterAccess() {
-        return expireAfterAccess;
+    public void setHotKeyCount(int hotKeyCount) {
+        checkArgument(hotKeyCount >= 0, "The hotKeyCount must not be negative: %s", hotKeyCount);
+        this.hotKeyCount = hotKeyCount;
+    }
+
+    public boolean isRecordHitRatioCurve() {
+        return recordHitRatioCurve;
     }
 
     /**
-     * 设置本地缓存自访问后的过期时间（秒）。
+     * 设置是否估计缓存在不同容量下的命中率。必须在 {@link #start()} 之前设置。
+     *
+     * @see #getEstimatedHitRatio(double)
      */
-    public void setExpireAfterAccess(int expireAfterAccess) {
-        this.expireAfterAccess = expireAfterAccess;
+    public void setRecordHitRatioCurve(boolean recordHitRatioCurve) {
+        this.recordHitRatioCurve = recordHitRatioCurve;
     }
 
     /**
@@ -464,6 +2564,15 @@ public class DefaultCache<K, V> implements Cache<K, V> {
         this.initialCapacity = initialCapacity;
     }
 
+    /**
+     * 返回缓存的事件日志，没有开启事件日志时返回 {@code null}。
+     *
+     * @see CacheBuilder#eventJournal(int)
+     */
+    public CacheEventJournal<K, V> getEventJournal() {
+        return eventJournal;
+    }
+
     /**
      * 添加本地缓存移除事件监听。
      */
@@ -482,16 +2591,130 @@ public class DefaultCache<K, V> implements Cache<K, V> {
         }
     }
 
-    private static class LocalCacheEntry<K, V> implements Entry<K, V>, Serializable {
+    /**
+     * 并行遍历的任务，所有线程共享同一个迭代器，每次领取 {@link #ITERATION_CHUNK_SIZE} 个条目。
+     */
+    private static class VisitTask<K, V> implements Callable<Long> {
+
+        private final Iterator<Entry<K, V>> iterator;
+        private final EntryVisitor<? super K, ? super V> visitor;
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        VisitTask(Iterator<Entry<K, V>> iterator, EntryVisitor<? super K, ? super V> visitor) {
+            this.iterator = iterator;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public Long call() {
+            List<Entry<K, V>> chunk = Lists.newArrayListWithCapacity(ITERATION_CHUNK_SIZE);
+            long count = 0L;
+            while (!failed.get()) {
+                synchronized (iterator) {
+                    while (chunk.size() < ITERATION_CHUNK_SIZE && iterator.hasNext()) {
+                        chunk.add(iterator.next());
+                    }
+                }
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                try {
+                    for (Entry<K, V> entry : chunk) {
+                        visitor.visit(entry.getKey(), entry.getValue());
+                    }
+                } catch (RuntimeException ex) {
+                    failed.set(true);
+                    throw ex;
+                }
+                count += chunk.size();
+                chunk.clear();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 压缩后的缓存值，保存在条目中代替原始的值。
+     */
+    private static final class CompressedValue {
+
+        final byte[] data;
+        /** 压缩前的长度。 */
+        final int length;
+
+        CompressedValue(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private static final class DecompressedValue {
+
+        final CompressedValue source;
+        final Object value;
+
+        DecompressedValue(CompressedValue source, Object value) {
+            this.source = source;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 缓存条目，同时是映射表的值和过期队列的元素。基本的条目只有键、值和到期时刻，
+     * 权重不为 {@code 1} 的条目和带有标签的条目使用携带相应字段的子类，由 {@link #create} 选择。
+     */
+    private static class LocalCacheEntry<K, V> extends DelayElement<LocalCacheEntry<K, V>>
+            implements Entry<K, V>, Serializable {
 
         private static final long serialVersionUID = 1L;
 
         final K key;
         final V value;
+        /**
+         * 条目的到期时刻（以 {@link DelayElement#now()} 为基准），可能被读操作延长或提前；
+         * 过期队列中的到期时刻只在守护线程重新排队时更新。
+         */
+        volatile long expirationTime;
 
-        LocalCacheEntry(K key, V value) {
+        LocalCacheEntry(K key, V value, long expirationTime) {
+            super(expirationTime);
             this.key = key;
             this.value = value;
+            this.expirationTime = expirationTime;
+        }
+
+        static <K, V> LocalCacheEntry<K, V> create(K key, V value, long expirationTime, int weight,
+                                                   String[] tags) {
+            if (tags != null) {
+                return new TaggedEntry<K, V>(key, value, expirationTime, weight, tags);
+            }
+            if (weight != 1) {
+                return new WeightedEntry<K, V>(key, value, expirationTime, weight);
+            }
+            return new LocalCacheEntry<K, V>(key, value, expirationTime);
+        }
+
+        @Override
+        public LocalCacheEntry<K, V> getElement() {
+            return this;
+        }
+
+        /** 返回条目的权重。 */
+        int weight() {
+            return 1;
+        }
+
+        /** 返回条目的标签，没有标签时为 {@code null}。 */
+        String[] tags() {
+            return null;
+        }
+
+        boolean isExpired(long now) {
+            return now - expirationTime >= 0L;
+        }
+
+        boolean isAbsent() {
+            return value == ABSENT;
         }
 
         @Override
@@ -532,18 +2755,65 @@ public class DefaultCache<K, V> implements Cache<K, V> {
         }
     }
 
+    /**
+     * 权重不为 {@code 1} 的条目。
+     */
+    private static class WeightedEntry<K, V> extends LocalCacheEntry<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        final int weight;
+
+        WeightedEntry(K key, V value, long expirationTime, int weight) {
+            super(key, value, expirationTime);
+            this.weight = weight;
+        }
+
+        @Override
+        int weight() {
+            return weight;
+        }
+    }
+
+    /**
+     * 带有标签的条目。
+     */
+    private static final class TaggedEntry<K, V> extends WeightedEntry<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        final String[] tags;
+
+        TaggedEntry(K key, V value, long expirationTime, int weight, String[] tags) {
+            super(key, value, expirationTime, weight);
+            this.tags = tags;
+        }
+
+        @Override
+        String[] tags() {
+            return tags;
+        }
+    }
+
     private class DaemonRunnable implements Runnable {
 
+        /**
+         * 每批处理的过期元素的最大数量。
+         */
+        static final int DRAIN_BATCH_SIZE = 64;
+
         @Override
         public void run() {
+            List<DelayElement<LocalCacheEntry<K, V>>> batch =
+                    Lists.newArrayListWithCapacity(DRAIN_BATCH_SIZE);
+            List<LocalCacheEntry<K, V>> expired = Lists.newArrayListWithCapacity(DRAIN_BATCH_SIZE);
             while (isRunning) {
                 try {
-                    DelayElement<Entry<K, V>> element = queue.take();
-                    if (element != null) {
-                        Entry<K, V> entry = element.getElement();
-                        cacheMap.remove(entry.getKey(), entry.getValue());
-                        fireRemovalEvent(entry, RemovalCause.EXPIRED);
-                    }
+                    batch.add(queue.take());
+                    queue.drainTo(batch, DRAIN_BATCH_SIZE - 1);
+                    drain(batch, expired);
+                    batch.clear();
+                    expired.clear();
                 } catch (InterruptedException ex) {
                     LOGGER.error("本地缓存守护线程被中断：", ex);
                 }
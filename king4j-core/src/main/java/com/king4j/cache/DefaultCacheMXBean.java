@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.king4j.cache;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CacheMXBean} 的默认实现，直接读取 {@link DefaultCache} 内部的计数器。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+class DefaultCacheMXBean implements CacheMXBean {
+
+    /** {@link #getEstimatedHitRatios()} 报告的容量倍数。 */
+    private static final double[] ESTIMATED_FACTORS = { 0.5, 1.0, 2.0, 4.0 };
+
+    private final DefaultCache<?, ?> cache;
+
+    DefaultCacheMXBean(DefaultCache<?, ?> cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public String getCacheName() {
+        return cache.getCacheName();
+    }
+
+    @Override
+    public int getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public int getMaximumSize() {
+        return cache.getMaximumSize();
+    }
+
+    @Override
+    public long getMaximumWeight() {
+        return cache.getMaximumWeight();
+    }
+
+    @Override
+    public long getTotalWeight() {
+        return cache.getTotalWeight();
+    }
+
+    @Override
+    public int getDiskEntryCount() {
+        return cache.getDiskEntryCount();
+    }
+
+    @Override
+    public long getDiskSize() {
+        return cache.getDiskSize();
+    }
+
+    @Override
+    public long getDiskHitCount() {
+        return cache.diskHitCount.sum();
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.missCount.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = getHitCount();
+        long requests = hits + getMissCount();
+        return requests == 0L ? 1.0 : (double) hits / requests;
+    }
+
+    @Override
+    public Map<String, Long> getRemovalCounts() {
+        Map<String, Long> counts = Maps.newLinkedHashMap();
+        for (RemovalCause cause : RemovalCause.values()) {
+            counts.put(cause.name(), cache.removalCounts.get(cause.ordinal()));
+        }
+        return counts;
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return cache.removalCounts.get(RemovalCause.EXPIRED.ordinal());
+    }
+
+    @Override
+    public long getSizeEvictedCount() {
+        return cache.removalCounts.get(RemovalCause.SIZE.ordinal());
+    }
+
+    @Override
+    public long getExpiryBacklogMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(cache.getExpiryBacklogNanos());
+    }
+
+    @Override
+    public long getNegativeHitCount() {
+        return cache.negativeHitCount.sum();
+    }
+
+    @Override
+    public int getNegativeEntryCount() {
+        return cache.absentCount.get();
+    }
+
+    @Override
+    public long getNegativeLoadCount() {
+        return cache.negativeLoadCount.get();
+    }
+
+    @Override
+    public Map<String, Integer> getHotKeys() {
+        Map<String, Integer> hotKeys = Maps.newLinkedHashMap();
+        for (Map.Entry<?, Integer> entry : cache.getHotKeys().entrySet()) {
+            hotKeys.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return hotKeys;
+    }
+
+    @Override
+    public Map<String, Double> getEstimatedHitRatios() {
+        Map<String, Double> ratios = Maps.newLinkedHashMap();
+        if (cache.isRecordHitRatioCurve()) {
+            for (double factor : ESTIMATED_FACTORS) {
+                ratios.put(String.format("%sx", factor == (int) factor ? (int) factor : factor),
+                        cache.getEstimatedHitRatio(factor));
+            }
+        }
+        return ratios;
+    }
+
+    @Override
+    public int getWriteBehindBacklog() {
+        return cache.getWriteBehindBacklog();
+    }
+
+    @Override
+    public long getWriteFailureCount() {
+        return cache.writeFailureCount.get();
+    }
+
+    @Override
+    public long getLoadSuccessCount() {
+        return cache.loadSuccessCount.get();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return cache.loadFailureCount.get();
+    }
+
+    @Override
+    public long getTotalLoadTimeNanos() {
+        return cache.totalLoadTime.get();
+    }
+
+    @Override
+    public double getAverageLoadPenaltyMillis() {
+        long loads = getLoadSuccessCount() + getLoadFailureCount();
+        return loads == 0L ? 0.0 : (double) getTotalLoadTimeNanos() / loads / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public long getLoadRejectedCount() {
+        return cache.loadRejectedCount.get();
+    }
+
+    @Override
+    public long getLoadTimeoutCount() {
+        return cache.loadTimeoutCount.get();
+    }
+
+    @Override
+    public long getStaleServedCount() {
+        return cache.staleServedCount.get();
+    }
+
+    @Override
+    public long getEarlyRefreshCount() {
+        return cache.earlyRefreshCount.get();
+    }
+
+    @Override
+    public long getLoadBatchCount() {
+        return cache.getLoadBatchCount();
+    }
+
+    @Override
+    public long getCoalescedLoadCount() {
+        return cache.getCoalescedLoadCount();
+    }
+
+    @Override
+    public boolean isReady() {
+        return cache.isReady();
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public void resize(int maximumSize) {
+        cache.resize(maximumSize);
+    }
+}
@@ -18,13 +18,17 @@ package com.king4j.cache;
 
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * {@link ExpirationQueue} 中的元素：一个到期时刻和在堆中的位置。缓存条目直接继承该类，
+ * 每个条目只占用一个对象，{@link #getElement()} 返回条目本身。
+ * <p/>
+ * 到期时刻相同的元素之间没有先后顺序。
+ *
  * @author Fuchun
  * @since 1.0
  */
-class DelayElement<T> implements Delayed {
+abstract class DelayElement<T> implements Delayed {
 
     private static final long NANO_ORIGIN = System.nanoTime();
 
@@ -32,45 +36,38 @@ class DelayElement<T> implements Delayed {
         return System.nanoTime() - NANO_ORIGIN;
     }
 
-    private static final AtomicLong SEQUENCE = new AtomicLong(0);
+    private long time;
+    /** 元素在 {@link ExpirationQueue} 中的位置，不在队列中时为 {@code -1}，由队列的锁保护。 */
+    int heapIndex = -1;
 
     /**
-     * 构建一个指定元素和过期时间的 {@code DelayElement} 对象。
-     *
-     * @param <T>
-     * @param element 元素。
-     * @param timeout 过期时间，单位：纳秒。
-     * @return 新创建的延迟元素对象。
+     * 反序列化子类时使用。
      */
-    public static <T> DelayElement<T> create(T element, long timeout) {
-        return new DelayElement<T>(element, timeout);
+    DelayElement() {
     }
 
-    private final long id;
-    private final long time;
-    private final T element;
-
-    DelayElement(T element, long timeout) {
-        this.element = element;
-        this.time = now() + timeout;
-        id = SEQUENCE.getAndIncrement();
+    /**
+     * @param time 到期时刻，以 {@link #now()} 为基准，单位：纳秒。
+     */
+    DelayElement(long time) {
+        this.time = time;
     }
 
     /**
      * 返回缓存的元素对象。
      */
-    public T getElement() {
-        return element;
-    }
+    public abstract T getElement();
 
     /** 返回元素对象保存的时间。 */
     public long getTime() {
         return time;
     }
 
-    /** 返回延迟对象的序列号（唯一Id）。 */
-    public long getId() {
-        return id;
+    /**
+     * 修改到期时刻。只能在元素不在延迟队列中时调用，否则会破坏队列的顺序。
+     */
+    void setTime(long time) {
+        this.time = time;
     }
 
     @Override
@@ -83,20 +80,8 @@ class DelayElement<T> implements Delayed {
         if (o == this) {
             return  0;
         }
-        if (o instanceof DelayElement) {
-            DelayElement<?> that = (DelayElement<?>) o;
-            long diff = time - that.getTime();
-            if (diff < 0) {
-                return  -1;
-            } else if (diff > 0) {
-                return  1;
-            } else if (id < that.getId()) {
-                return -1;
-            } else {
-                return 1;
-            }
-        }
-        long d = getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+        long d = o instanceof DelayElement ? time - ((DelayElement<?>) o).getTime() :
+                getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
         return (d == 0) ? 0 : (d < 0 ? -1 : 1);
     }
 }
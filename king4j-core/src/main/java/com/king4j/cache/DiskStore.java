@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import com.google.common.collect.Lists;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * 本地缓存的磁盘溢出层，保存因容量被淘汰的条目。
+ * <p />
+ * 条目的值编码后追加写入当前的段文件，段文件是固定大小、以内存映射方式打开的文件，写满后封存并创建新的段。
+ * 键和每个条目的位置、到期时刻保存在内存中的哈希索引里，磁盘上只有值的字节。读取不加锁，
+ * 直接从映射的缓冲区复制数据，因此一次命中只需要一次内存复制和解码。
+ * <p />
+ * 被替换、删除或过期的条目只从索引中移除，所在的段记录剩余的有效字节数；{@link #compact()} 把有效字节不足一半的
+ * 封存段中的有效条目复制到当前段后删除该段。段的总大小超过上限时，最早的段连同其中的条目被整体丢弃。
+ * <p />
+ * 磁盘溢出层只在进程内有效，关闭时删除所有的段文件，不支持重启后恢复。写操作由调用者串行化。
+ * <p />
+ * 条目的写入可以分为两步：{@link #write(Object, Object, long)} 完成编码和文件写入，
+ * {@link #publish(Object, Location)} 只把写入的位置加入索引。调用者可以在自己的锁外完成前者，
+ * 在锁内决定是否发布。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class DiskStore<K, V> {
+
+    /** 有效字节低于该比例的封存段会被压缩。 */
+    static final double COMPACTION_THRESHOLD = 0.5;
+
+    private static final int MIN_SEGMENT_SIZE = 64 << 10;
+    private static final int MAX_SEGMENT_SIZE = 64 << 20;
+
+    private final File directory;
+    private final String prefix;
+    private final int segmentSize;
+    private final long maximumBytes;
+    private final ValueCodec<V> codec;
+    private final ConcurrentMap<K, Location> index = new ConcurrentHashMap<K, Location>();
+    /** 按创建顺序排列的段，最后一个为当前段。由 {@code this} 保护。 */
+    private final List<Segment<K>> segments = Lists.newArrayList();
+    private Segment<K> current;
+    private int nextSegmentId;
+    private volatile boolean closed;
+
+    /**
+     * @param directory 段文件所在的目录，不存在时自动创建。
+     * @param prefix 段文件名的前缀。
+     * @param maximumBytes 所有段文件的总大小上限。
+     * @param codec 缓存值的编解码器。
+     */
+    DiskStore(File directory, String prefix, long maximumBytes, ValueCodec<V> codec) throws IOException {
+        checkArgument(maximumBytes >= 2L * MIN_SEGMENT_SIZE, "The maximum bytes is too small: %s", maximumBytes);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the disk store directory: " + directory);
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = (int) Math.min(MAX_SEGMENT_SIZE, Math.max(MIN_SEGMENT_SIZE, maximumBytes / 8));
+        this.maximumBytes = maximumBytes;
+        this.codec = codec;
+    }
+
+    /**
+     * 写入一个条目，替换该键原有的条目。
+     *
+     * @return 如果条目被写入，返回 {@code true}；已经过期或者编码后大于段的条目不会被写入。
+     */
+    synchronized boolean put(K key, V value, long expirationTime) throws IOException {
+        Location location = write(key, value, expirationTime);
+        if (location == null) {
+            return false;
+        }
+        publish(key, location);
+        return true;
+    }
+
+    /**
+     * 编码并写入一个条目，但不加入索引。返回的位置必须由 {@link #publish(Object, Location)} 加入索引，
+     * 或者由 {@link #discard(Location)} 丢弃。
+     *
+     * @return 写入的位置；已经过期或者编码后大于段的条目不会被写入，返回 {@code null}。
+     */
+    synchronized Location write(K key, V value, long expirationTime) throws IOException {
+        if (closed || expirationTime - DelayElement.now() <= 0L) {
+            return null;
+        }
+        byte[] data = codec.encode(value);
+        if (data.length > segmentSize) {
+            return null;
+        }
+        return append(key, data, 0, data.length, expirationTime);
+    }
+
+    /**
+     * 将 {@link #write(Object, Object, long)} 写入的条目加入索引，替换该键原有的条目。
+     * 所在的段在写入之后已被丢弃或压缩时，条目不会留在索引中。
+     */
+    void publish(K key, Location location) {
+        release(index.put(key, location));
+        if (location.segment.dropped) {
+            remove(key, location);
+        }
+    }
+
+    /**
+     * 丢弃 {@link #write(Object, Object, long)} 写入、但不再需要发布的条目。
+     */
+    void discard(Location location) {
+        release(location);
+    }
+
+    /**
+     * 读取指定键未过期的条目，不存在时返回 {@code null}。读取到的过期条目被移除。
+     */
+    Hit<V> get(K key) {
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        if (location.expirationTime - DelayElement.now() <= 0L) {
+            remove(key, location);
+            return null;
+        }
+        ByteBuffer buffer = location.segment.buffer.duplicate();
+        buffer.position(location.offset);
+        byte[] data = new byte[location.length];
+        buffer.get(data);
+        return new Hit<V>(codec.decode(data), location);
+    }
+
+    /**
+     * 判断是否包含指定的键，不检查是否过期。
+     */
+    boolean contains(K key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * 移除指定键的条目。
+     */
+    boolean remove(K key) {
+        Location location = index.remove(key);
+        release(location);
+        return location != null;
+    }
+
+    /**
+     * 只有指定键的条目仍是 {@code hit} 读取到的条目时才将其移除。
+     */
+    boolean remove(K key, Hit<V> hit) {
+        return remove(key, hit.location);
+    }
+
+    private boolean remove(K key, Location location) {
+        if (index.remove(key, location)) {
+            release(location);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 压缩一个有效字节最少、且低于 {@link #COMPACTION_THRESHOLD} 的封存段。
+     *
+     * @return 如果压缩了一个段，返回 {@code true}。
+     */
+    synchronized boolean compact() throws IOException {
+        Segment<K> victim = null;
+        for (Segment<K> segment : segments) {
+            if (segment != current && segment.liveBytes.get() < segmentSize * COMPACTION_THRESHOLD
+                    && (victim == null || segment.liveBytes.get() < victim.liveBytes.get())) {
+                victim = segment;
+            }
+        }
+        if (victim == null) {
+            return false;
+        }
+        // 先标记，压缩期间发布到该段的条目由发布者自己移除
+        victim.dropped = true;
+        long now = DelayElement.now();
+        ByteBuffer source = victim.buffer.duplicate();
+        for (K key : victim.keys) {
+            Location location = index.get(key);
+            if (location == null || location.segment != victim) {
+                continue;
+            }
+            if (location.expirationTime - now <= 0L) {
+                remove(key, location);
+                continue;
+            }
+            byte[] data = new byte[location.length];
+            source.position(location.offset);
+            source.get(data);
+            Location moved = append(key, data, 0, data.length, location.expirationTime);
+            if (index.replace(key, location, moved)) {
+                release(location);
+            } else {
+                release(moved);
+            }
+        }
+        drop(victim);
+        return true;
+    }
+
+    /**
+     * 移除所有的条目并删除所有的段文件。
+     */
+    synchronized void clear() {
+        index.clear();
+        for (Segment<K> segment : Lists.newArrayList(segments)) {
+            drop(segment);
+        }
+        current = null;
+    }
+
+    /**
+     * 关闭磁盘溢出层并删除所有的段文件。
+     */
+    synchronized void close() {
+        closed = true;
+        clear();
+    }
+
+    /** 返回条目的数量，包括尚未被发现的过期条目。 */
+    int size() {
+        return index.size();
+    }
+
+    /** 返回所有段文件的总大小。 */
+    synchronized long getDiskSize() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    private Location append(K key, byte[] data, int offset, int length, long expirationTime)
+            throws IOException {
+        if (current == null || current.position + length > segmentSize) {
+            roll();
+        }
+        Segment<K> segment = current;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(segment.position);
+        buffer.put(data, offset, length);
+        Location location = new Location(segment, segment.position, length, expirationTime);
+        segment.position += length;
+        segment.liveBytes.addAndGet(length);
+        segment.keys.add(key);
+        return location;
+    }
+
+    /**
+     * 封存当前段并创建新的段，段的总大小将超过上限时先丢弃最早的段。
+     */
+    private void roll() throws IOException {
+        while (!segments.isEmpty() && (long) (segments.size() + 1) * segmentSize > maximumBytes) {
+            Segment<K> oldest = segments.get(0);
+            oldest.dropped = true;
+            for (K key : oldest.keys) {
+                Location location = index.get(key);
+                if (location != null && location.segment == oldest) {
+                    remove(key, location);
+                }
+            }
+            drop(oldest);
+        }
+        File file = new File(directory, String.format("%s-%s.seg", prefix, nextSegmentId++));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(segmentSize);
+            // 映射在通道关闭后仍然有效
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, segmentSize);
+            current = new Segment<K>(file, buffer);
+            segments.add(current);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void drop(Segment<K> segment) {
+        segment.dropped = true;
+        segments.remove(segment);
+        if (segment == current) {
+            current = null;
+        }
+        // 正在读取该段的线程仍持有映射的缓冲区，映射在缓冲区被回收时才解除
+        if (!segment.file.delete()) {
+            segment.file.deleteOnExit();
+        }
+    }
+
+    private static void release(Location location) {
+        if (location != null) {
+            location.segment.liveBytes.addAndGet(-location.length);
+        }
+    }
+
+    /**
+     * 从磁盘读取到的条目。
+     */
+    static final class Hit<V> {
+
+        final V value;
+        private final Location location;
+
+        Hit(V value, Location location) {
+            this.value = value;
+            this.location = location;
+        }
+
+        /** 返回条目的到期时刻，以 {@link DelayElement#now()} 为基准。 */
+        long getExpirationTime() {
+            return location.expirationTime;
+        }
+    }
+
+    /**
+     * 条目在段中的位置。
+     */
+    static final class Location {
+
+        final Segment<?> segment;
+        final int offset;
+        final int length;
+        final long expirationTime;
+
+        Location(Segment<?> segment, int offset, int length, long expirationTime) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.expirationTime = expirationTime;
+        }
+    }
+
+    private static final class Segment<K> {
+
+        final File file;
+        final MappedByteBuffer buffer;
+        /** 写入的位置，由所属的 {@link DiskStore} 保护。 */
+        int position;
+        final AtomicInteger liveBytes = new AtomicInteger();
+        /** 写入过该段的键，可能包含已被替换的键。由所属的 {@link DiskStore} 保护。 */
+        final List<K> keys = Lists.newArrayList();
+        /** 段已被丢弃，或者正在被压缩。 */
+        volatile boolean dropped;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+/**
+ * 遍历缓存条目的访问者。并行遍历时会被多个线程同时调用，实现必须是线程安全的。
+ *
+ * @param <K> 缓存的键类型。
+ * @param <V> 缓存的值类型。
+ * @author Fuchun
+ * @since 1.0
+ * @see DefaultCache#forEachEntry(EntryVisitor, int)
+ */
+public interface EntryVisitor<K, V> {
+
+    /**
+     * 访问一个缓存条目。
+     *
+     * @param key 缓存的键。
+     * @param value 缓存的值。
+     */
+    void visit(K key, V value);
+}
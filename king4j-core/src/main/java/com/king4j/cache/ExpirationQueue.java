@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按到期时刻排序的延迟队列，语义与 {@link java.util.concurrent.DelayQueue} 相同，只有到期的元素才能被取出。
+ * <p />
+ * 队列使用二叉堆实现，每个元素记住自己在堆中的位置，因此 {@link #remove(DelayElement)} 的时间复杂度为
+ * {@code O(log n)}，而不是 {@code DelayQueue} 的线性扫描。一个元素同一时刻只能在一个队列中。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class ExpirationQueue<T> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** 队首元素变化，或者有新的元素入队时发出信号。 */
+    private final Condition available = lock.newCondition();
+    private DelayElement<T>[] heap = newArray(INITIAL_CAPACITY);
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    private static <T> DelayElement<T>[] newArray(int length) {
+        return new DelayElement[length];
+    }
+
+    /**
+     * 将元素加入队列。
+     */
+    void put(DelayElement<T> e) {
+        lock.lock();
+        try {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size << 1);
+            }
+            siftUp(size++, e);
+            if (heap[0] == e) {
+                available.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 从队列中移除指定的元素。
+     *
+     * @return 如果元素在队列中并被移除，返回 {@code true}。
+     */
+    boolean remove(DelayElement<T> e) {
+        lock.lock();
+        try {
+            int i = e.heapIndex;
+            if (i < 0 || i >= size || heap[i] != e) {
+                return false;
+            }
+            removeAt(i);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 返回队首（最早到期）的元素，不论是否到期；队列为空时返回 {@code null}。
+     */
+    DelayElement<T> peek() {
+        lock.lock();
+        try {
+            return size == 0 ? null : heap[0];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出队首的元素，必要时等待直到有元素到期。
+     */
+    DelayElement<T> take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (size == 0) {
+                    available.await();
+                    continue;
+                }
+                long delay = heap[0].getDelay(TimeUnit.NANOSECONDS);
+                if (delay <= 0L) {
+                    DelayElement<T> first = heap[0];
+                    removeAt(0);
+                    return first;
+                }
+                available.awaitNanos(delay);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出最多 {@code maxElements} 个已经到期的元素，加入 {@code c}。
+     *
+     * @return 取出的元素数量。
+     */
+    int drainTo(Collection<? super DelayElement<T>> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            long now = DelayElement.now();
+            while (n < maxElements && size > 0 && heap[0].getTime() - now <= 0L) {
+                c.add(heap[0]);
+                removeAt(0);
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                heap[i].heapIndex = -1;
+                heap[i] = null;
+            }
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeAt(int i) {
+        DelayElement<T> removed = heap[i];
+        removed.heapIndex = -1;
+        int last = --size;
+        DelayElement<T> moved = heap[last];
+        heap[last] = null;
+        if (i != last) {
+            siftDown(i, moved);
+            if (heap[i] == moved) {
+                siftUp(i, moved);
+            }
+        }
+    }
+
+    private void siftUp(int k, DelayElement<T> e) {
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            DelayElement<T> p = heap[parent];
+            if (e.getTime() - p.getTime() >= 0L) {
+                break;
+            }
+            heap[k] = p;
+            p.heapIndex = k;
+            k = parent;
+        }
+        heap[k] = e;
+        e.heapIndex = k;
+    }
+
+    private void siftDown(int k, DelayElement<T> e) {
+        int half = size >>> 1;
+        while (k < half) {
+            int child = (k << 1) + 1;
+            DelayElement<T> c = heap[child];
+            int right = child + 1;
+            if (right < size && heap[right].getTime() - c.getTime() < 0L) {
+                c = heap[child = right];
+            }
+            if (e.getTime() - c.getTime() <= 0L) {
+                break;
+            }
+            heap[k] = c;
+            c.heapIndex = k;
+            k = child;
+        }
+        heap[k] = e;
+        e.heapIndex = k;
+    }
+}
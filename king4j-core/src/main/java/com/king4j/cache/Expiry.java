@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+/**
+ * 计算每个缓存条目过期时间的策略接口。与固定的 {@code expireAfterWrite} / {@code expireAfterAccess}
+ * 不同，{@code Expiry} 可以根据条目的键和值分别决定其存活时间，例如自带过期时间的令牌。
+ * <p />
+ * 所有的时间都以纳秒表示。{@code currentTime} 是缓存内部时钟的当前读数，只用于计算时间差，
+ * 与 {@link System#currentTimeMillis()} 没有关系。返回 {@code 0} 或负数表示条目立即过期，
+ * 返回 {@link Long#MAX_VALUE} 表示条目不会因时间而过期。
+ * <p />
+ * {@link #expireAfterRead(Object, Object, long, long)} 在缓存命中时同步调用，实现必须尽可能轻量，
+ * 不应分配对象或阻塞。
+ *
+ * @param <K> 缓存的键类型。
+ * @param <V> 缓存的值类型。
+ * @author Fuchun
+ * @since 1.0
+ * @see CacheBuilder#expireAfter(Expiry)
+ */
+public interface Expiry<K, V> {
+
+    /**
+     * 返回新创建的缓存条目的存活时间。
+     *
+     * @param key 缓存的键。
+     * @param value 缓存的值。
+     * @param currentTime 当前时间（纳秒）。
+     * @return 条目的存活时间（纳秒）。
+     */
+    long expireAfterCreate(K key, V value, long currentTime);
+
+    /**
+     * 返回缓存条目的值被替换后的存活时间。返回 {@code currentDuration} 表示不改变条目的过期时间。
+     *
+     * @param key 缓存的键。
+     * @param value 新的缓存值。
+     * @param currentTime 当前时间（纳秒）。
+     * @param currentDuration 条目当前的剩余存活时间（纳秒）。
+     * @return 条目的存活时间（纳秒）。
+     */
+    long expireAfterUpdate(K key, V value, long currentTime, long currentDuration);
+
+    /**
+     * 返回缓存条目被读取后的存活时间。返回 {@code currentDuration} 表示不改变条目的过期时间。
+     *
+     * @param key 缓存的键。
+     * @param value 缓存的值。
+     * @param currentTime 当前时间（纳秒）。
+     * @param currentDuration 条目当前的剩余存活时间（纳秒）。
+     * @return 条目的存活时间（纳秒）。
+     */
+    long expireAfterRead(K key, V value, long currentTime, long currentDuration);
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+/**
+ * 估计元素访问频率的 Count-Min Sketch。使用 {@code 4} 行计数器，每次累加时只增加各行中最小的计数器
+ * （保守更新），估计值为各行计数器的最小值，只会高估，不会低估。
+ * <p />
+ * 为了不在读操作上加锁，计数器的更新没有同步，并发累加时可能丢失少量计数，估计值只是一个近似值。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = { 0x97CB3127, 0xB11924E1, 0x243F6A88, 0x85EBCA6B };
+
+    private final int[] table;
+    private final int width;
+    private final int shift;
+
+    /**
+     * @param width 每行的计数器数量，向上取整为 {@code 2} 的幂。
+     */
+    FrequencySketch(int width) {
+        int n = 1;
+        int bits = 0;
+        while (n < width) {
+            n <<= 1;
+            bits++;
+        }
+        this.width = n;
+        this.shift = 32 - bits;
+        this.table = new int[DEPTH * n];
+    }
+
+    /**
+     * 累加指定哈希值的计数，返回累加后的估计频率。
+     */
+    int increment(int hash) {
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, table[indexOf(hash, i)]);
+        }
+        if (min == Integer.MAX_VALUE) {
+            return min;
+        }
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (table[index] == min) {
+                table[index] = min + 1;
+            }
+        }
+        return min + 1;
+    }
+
+    /**
+     * 所有计数器减半，使估计频率偏向最近的访问。
+     */
+    void halve() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>>= 1;
+        }
+    }
+
+    int width() {
+        return width;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return row * width + (shift == 32 ? 0 : h >>> shift);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+/**
+ * 最近因容量被淘汰的键的影子记录，只保存键的哈希值。最近的 {@code capacity} 个哈希值保存在环形数组中，
+ * 成员判断使用两个哈希函数的计数布隆过滤器，可能误判（约 5%），但不会漏判。
+ * <p />
+ * 缓存未命中的键如果在影子记录中，说明缓存再大 {@code capacity} 个条目就能命中，这类“影子命中”的速率
+ * 就是增加容量的边际收益。
+ * <p />
+ * {@link #add(int)} 必须在缓存的锁内调用；{@link #contains(int)} 不加锁，返回近似的结果。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class GhostKeys {
+
+    private final int[] ring;
+    private final byte[] counters;
+    private final int mask;
+    private int next;
+    private int size;
+
+    GhostKeys(int capacity) {
+        ring = new int[capacity];
+        int n = 1;
+        while (n < capacity * 8) {
+            n <<= 1;
+        }
+        counters = new byte[n];
+        mask = n - 1;
+    }
+
+    void add(int hash) {
+        if (size == ring.length) {
+            int oldest = ring[next];
+            decrement(index1(oldest));
+            decrement(index2(oldest));
+        } else {
+            size++;
+        }
+        ring[next] = hash;
+        increment(index1(hash));
+        increment(index2(hash));
+        if (++next == ring.length) {
+            next = 0;
+        }
+    }
+
+    boolean contains(int hash) {
+        return counters[index1(hash)] != 0 && counters[index2(hash)] != 0;
+    }
+
+    int capacity() {
+        return ring.length;
+    }
+
+    private void increment(int index) {
+        // 饱和的计数器不再改变，避免溢出后漏判
+        if (counters[index] != Byte.MAX_VALUE) {
+            counters[index]++;
+        }
+    }
+
+    private void decrement(int index) {
+        if (counters[index] != Byte.MAX_VALUE && counters[index] != 0) {
+            counters[index]--;
+        }
+    }
+
+    private int index1(int hash) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int index2(int hash) {
+        int h = hash * 0x85EBCA6B;
+        return (h ^ (h >>> 13)) & mask;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 使用空间哈希采样（SHARDS）估计缓存在不同容量下的命中率，即缓存的命中率曲线。
+ * <p />
+ * 只有哈希值落在采样区间内的键（比例为 {@code R}）被跟踪。被跟踪的键按最近访问的顺序组成一个 LRU 栈，
+ * 栈中只保存键的哈希值；栈的深度覆盖 {@code 4 × maximumSize × R} 个键，超出部分即已被淘汰的键的影子。
+ * 每次访问被跟踪的键时，计算它的重用距离（上次访问之后访问过的其他被跟踪的键的数量），距离除以 {@code R}
+ * 即完整访问流中的重用距离；距离小于 {@code c} 的访问在容量为 {@code c} 的 LRU 缓存中会命中。
+ * 重用距离用树状数组在 {@code O(log n)} 内求出。
+ * <p />
+ * 被跟踪的键数量有上限，与缓存大小无关；记录访问只在采样命中时使用 {@code tryLock}，发生竞争时直接跳过。
+ * 每 {@link #DECAY_PERIOD} 次采样，直方图减半，使估计值反映最近的访问。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class HitRatioEstimator {
+
+    /** 估计的最大容量倍数。 */
+    static final int MAX_FACTOR = 4;
+    /** 被跟踪的键的数量上限。 */
+    static final int MAX_SAMPLED_KEYS = 16384;
+    static final int DECAY_PERIOD = 1 << 16;
+
+    private static final int BUCKETS_PER_SIZE = 16;
+    private static final int SAMPLE_BITS = 24;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int threshold;
+    private final int maxKeys;
+    /** 每个直方图桶覆盖的采样重用距离。 */
+    private final double bucketWidth;
+    /** 重用距离的直方图，最后一个桶记录首次访问和超出最大倍数的访问。 */
+    private final long[] histogram = new long[MAX_FACTOR * BUCKETS_PER_SIZE + 1];
+    /** 被跟踪的键的哈希值到其最近访问时刻，按访问时刻升序排列。 */
+    private final LinkedHashMap<Integer, Integer> stack = Maps.newLinkedHashMap();
+    /** 以访问时刻为下标的树状数组，记录每个时刻是否为某个键的最近访问。 */
+    private final int[] tree;
+    private int clock;
+    private int samples;
+
+    /**
+     * @param cacheSize 缓存的最大数量。
+     */
+    HitRatioEstimator(int cacheSize) {
+        double rate = Math.min(1.0, (double) MAX_SAMPLED_KEYS / ((double) MAX_FACTOR * cacheSize));
+        threshold = (int) Math.ceil(rate * (1 << SAMPLE_BITS));
+        double sampledSize = cacheSize * rate;
+        maxKeys = (int) Math.ceil(MAX_FACTOR * sampledSize) + 1;
+        bucketWidth = sampledSize / BUCKETS_PER_SIZE;
+        tree = new int[2 * maxKeys + 1];
+    }
+
+    /**
+     * 记录一次对指定哈希值的键的访问。
+     */
+    void record(int hash) {
+        int h = hash * 0x9E3779B9;
+        h ^= h >>> 16;
+        if ((h & ((1 << SAMPLE_BITS) - 1)) >= threshold || !lock.tryLock()) {
+            return;
+        }
+        try {
+            Integer key = h;
+            Integer last = stack.remove(key);
+            int bucket = histogram.length - 1;
+            if (last != null) {
+                int distance = sum(clock) - sum(last + 1);
+                add(last + 1, -1);
+                bucket = (int) Math.min(bucket, distance / bucketWidth);
+            }
+            if (clock + 1 == tree.length) {
+                renumber();
+            }
+            stack.put(key, clock);
+            add(++clock, 1);
+            if (stack.size() > maxKeys) {
+                Iterator<Map.Entry<Integer, Integer>> it = stack.entrySet().iterator();
+                add(it.next().getValue() + 1, -1);
+                it.remove();
+            }
+            histogram[bucket]++;
+            if (++samples == DECAY_PERIOD) {
+                samples = 0;
+                for (int i = 0; i < histogram.length; i++) {
+                    histogram[i] >>= 1;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 估计缓存容量为当前的 {@code factor} 倍时的命中率，没有采样数据时返回 {@code 0.0}。
+     *
+     * @param factor 容量的倍数，范围为 {@code (0, 4]}。
+     */
+    double estimate(double factor) {
+        int limit = (int) Math.min(histogram.length - 1, Math.floor(factor * BUCKETS_PER_SIZE));
+        lock.lock();
+        try {
+            long hits = 0L;
+            long total = 0L;
+            for (int i = 0; i < histogram.length; i++) {
+                if (i < limit) {
+                    hits += histogram[i];
+                }
+                total += histogram[i];
+            }
+            return total == 0L ? 0.0 : (double) hits / total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 访问时刻用完时，按访问顺序重新编号所有被跟踪的键。
+     */
+    private void renumber() {
+        Arrays.fill(tree, 0);
+        clock = 0;
+        for (Map.Entry<Integer, Integer> entry : stack.entrySet()) {
+            entry.setValue(clock);
+            add(++clock, 1);
+        }
+    }
+
+    private void add(int index, int delta) {
+        for (int i = index; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /** 返回时刻 {@code [1, index]} 的和。 */
+    private int sum(int index) {
+        int sum = 0;
+        for (int i = index; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 跟踪缓存中访问最频繁的键（热点键）。每次访问在 {@link FrequencySketch} 中累加键的频率，
+ * 只有估计频率超过当前第 {@code K} 名的键才会进入候选集合，因此内存占用与键的总数无关。
+ * 每累加 {@code 10 × width} 次，所有频率减半，使排名反映最近的访问。
+ * <p />
+ * 已在候选集合中的键只更新其频率，不加锁；新键进入候选集合时使用 {@code tryLock}，发生竞争时直接跳过，
+ * 因此记录访问永远不会阻塞读线程。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class HotKeyTracker<K> {
+
+    private final int capacity;
+    private final FrequencySketch sketch;
+    private final int samplePeriod;
+    private final ConcurrentMap<K, Candidate<K>> candidates;
+    private final ReentrantLock lock = new ReentrantLock();
+    /** 进入候选集合所需的最小频率，候选集合未满时为 {@code 0}。 */
+    private volatile int threshold;
+    private int additions;
+
+    /**
+     * @param capacity 跟踪的热点键的数量。
+     * @param expectedSize 缓存预计的条目数量，用于确定频率估计器的大小。
+     */
+    HotKeyTracker(int capacity, int expectedSize) {
+        this.capacity = capacity;
+        this.sketch = new FrequencySketch(Math.max(256, Math.min(expectedSize, 1 << 20)));
+        this.samplePeriod = 10 * sketch.width();
+        this.candidates = new ConcurrentHashMap<K, Candidate<K>>(capacity * 2);
+    }
+
+    /**
+     * 记录一次对指定键的访问。
+     */
+    void record(K key) {
+        if (key == null) {
+            return;
+        }
+        int frequency = sketch.increment(key.hashCode());
+        if (++additions >= samplePeriod) {
+            age();
+        }
+        Candidate<K> candidate = candidates.get(key);
+        if (candidate != null) {
+            if (frequency > candidate.frequency) {
+                candidate.frequency = frequency;
+            }
+            return;
+        }
+        if (frequency <= threshold || !lock.tryLock()) {
+            return;
+        }
+        try {
+            if (candidates.containsKey(key)) {
+                return;
+            }
+            candidates.put(key, new Candidate<K>(key, frequency));
+            if (candidates.size() > capacity) {
+                candidates.remove(minimum().key);
+            }
+            if (candidates.size() >= capacity) {
+                threshold = minimum().frequency;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 返回热点键及其估计的访问频率，按频率从高到低排序。
+     */
+    Map<K, Integer> hotKeys() {
+        List<Candidate<K>> list = Lists.newArrayList(candidates.values());
+        Collections.sort(list, new Comparator<Candidate<K>>() {
+            @Override
+            public int compare(Candidate<K> c1, Candidate<K> c2) {
+                int f1 = c1.frequency;
+                int f2 = c2.frequency;
+                return f1 < f2 ? 1 : (f1 == f2 ? 0 : -1);
+            }
+        });
+        Map<K, Integer> result = Maps.newLinkedHashMap();
+        for (Candidate<K> candidate : list) {
+            result.put(candidate.key, candidate.frequency);
+        }
+        return result;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    private void age() {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (additions < samplePeriod) {
+                return;
+            }
+            additions = 0;
+            sketch.halve();
+            for (Candidate<K> candidate : candidates.values()) {
+                candidate.frequency >>>= 1;
+            }
+            threshold >>>= 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Candidate<K> minimum() {
+        Candidate<K> min = null;
+        for (Candidate<K> candidate : candidates.values()) {
+            if (min == null || candidate.frequency < min.frequency) {
+                min = candidate;
+            }
+        }
+        return min;
+    }
+
+    private static final class Candidate<K> {
+
+        final K key;
+        volatile int frequency;
+
+        Candidate(K key, int frequency) {
+            this.key = key;
+            this.frequency = frequency;
+        }
+    }
+}
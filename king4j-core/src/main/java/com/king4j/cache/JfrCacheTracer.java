@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.king4j.cache;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 将缓存事件写入 JDK Flight Recorder 的 {@link CacheTracer} 实现。
+ * <p />
+ * 每类事件在产生前先检查该事件类型是否在某个记录中被启用，没有开启记录时只有一次判断的开销。
+ * 该类只能由 {@link CacheTracers} 在确认当前 JVM 支持 JFR 后通过反射加载。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class JfrCacheTracer implements CacheTracer {
+
+    private final EventType loadType = EventType.getEventType(LoadEvent.class);
+    private final EventType evictionType = EventType.getEventType(EvictionEvent.class);
+    private final EventType expiryDrainType = EventType.getEventType(ExpiryDrainEvent.class);
+    private final EventType lockWaitType = EventType.getEventType(LockWaitEvent.class);
+
+    @Override
+    public void onLoad(String cacheName, int keyHash, long durationNanos, boolean success) {
+        if (loadType.isEnabled()) {
+            LoadEvent event = new LoadEvent();
+            event.cacheName = cacheName;
+            event.keyHash = keyHash;
+            event.loadTime = durationNanos;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void onEviction(String cacheName, int count, long durationNanos) {
+        if (evictionType.isEnabled()) {
+            EvictionEvent event = new EvictionEvent();
+            event.cacheName = cacheName;
+            event.count = count;
+            event.evictionTime = durationNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void onExpiryDrain(String cacheName, int count, long backlogNanos, long durationNanos) {
+        if (expiryDrainType.isEnabled()) {
+            ExpiryDrainEvent event = new ExpiryDrainEvent();
+            event.cacheName = cacheName;
+            event.count = count;
+            event.backlog = backlogNanos;
+            event.drainTime = durationNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void onLockWait(String cacheName, long waitNanos) {
+        if (lockWaitType.isEnabled()) {
+            LockWaitEvent event = new LockWaitEvent();
+            event.cacheName = cacheName;
+            event.waitTime = waitNanos;
+            event.commit();
+        }
+    }
+
+    @Name("com.king4j.cache.Load")
+    @Label("Cache Load")
+    @Category({"King4j", "Cache"})
+    static class LoadEvent extends Event {
+
+        @Label("Cache Name")
+        String cacheName;
+
+        @Label("Key Hash")
+        int keyHash;
+
+        @Label("Load Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long loadTime;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("com.king4j.cache.Eviction")
+    @Label("Cache Eviction")
+    @Category({"King4j", "Cache"})
+    @StackTrace(false)
+    static class EvictionEvent extends Event {
+
+        @Label("Cache Name")
+        String cacheName;
+
+        @Label("Evicted Entries")
+        int count;
+
+        @Label("Eviction Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long evictionTime;
+    }
+
+    @Name("com.king4j.cache.ExpiryDrain")
+    @Label("Cache Expiry Drain")
+    @Category({"King4j", "Cache"})
+    @StackTrace(false)
+    static class ExpiryDrainEvent extends Event {
+
+        @Label("Cache Name")
+        String cacheName;
+
+        @Label("Expired Entries")
+        int count;
+
+        @Label("Backlog")
+        @Timespan(Timespan.NANOSECONDS)
+        long backlog;
+
+        @Label("Drain Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long drainTime;
+    }
+
+    @Name("com.king4j.cache.LockWait")
+    @Label("Cache Lock Wait")
+    @Category({"King4j", "Cache"})
+    static class LockWaitEvent extends Event {
+
+        @Label("Cache Name")
+        String cacheName;
+
+        @Label("Wait Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long waitTime;
+    }
+}
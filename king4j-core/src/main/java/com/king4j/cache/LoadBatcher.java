@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并单键加载的批量加载器。一个时间窗口内（或者达到 {@code maxBatchSize} 之前）到达的未命中键被合并为一次
+ * {@link CacheLoader#loadAll(Iterable)} 调用，结果再分发给每个等待的调用者；正在加载的键不会被重复加载。
+ * <p />
+ * 加载器没有后台线程：每个批次的第一个调用者作为领导者等待时间窗口结束（或者批次已满），然后在自己的线程上
+ * 执行批量加载，其他调用者只等待结果。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class LoadBatcher<K, V> {
+
+    private final DefaultCache<K, V> cache;
+    private final CacheLoader<K, V> loader;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    /** 正在等待或正在加载的键。 */
+    private final ConcurrentMap<K, SettableFuture<V>> inFlight = new ConcurrentHashMap<K, SettableFuture<V>>();
+    private final Object lock = new Object();
+    /** 正在收集键的批次，由 {@link #lock} 保护。 */
+    private Batch<K, V> current;
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong keyCount = new AtomicLong();
+
+    LoadBatcher(DefaultCache<K, V> cache, CacheLoader<K, V> loader, long windowNanos, int maxBatchSize) {
+        this.cache = cache;
+        this.loader = loader;
+        this.windowNanos = windowNanos;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 加载指定的键，并等待其所在的批次加载完成。
+     *
+     * @return 加载的值，批量加载的结果中没有该键时返回 {@code null}。
+     * @throws ExecutionException 如果批量加载失败。
+     */
+    V load(K key) throws ExecutionException {
+        SettableFuture<V> future = SettableFuture.create();
+        SettableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return Uninterruptibles.getUninterruptibly(existing);
+        }
+        Batch<K, V> batch;
+        boolean leader = false;
+        synchronized (lock) {
+            if (current == null) {
+                current = new Batch<K, V>(maxBatchSize);
+                leader = true;
+            }
+            batch = current;
+            batch.keys.add(key);
+            batch.futures.add(future);
+            if (batch.keys.size() >= maxBatchSize) {
+                current = null;
+                lock.notifyAll();
+            }
+        }
+        if (leader) {
+            awaitBatch(batch);
+            execute(batch);
+        }
+        return Uninterruptibles.getUninterruptibly(future);
+    }
+
+    /**
+     * 等待时间窗口结束或者批次已满，然后关闭批次。
+     */
+    private void awaitBatch(Batch<K, V> batch) {
+        long deadline = System.nanoTime() + windowNanos;
+        boolean interrupted = false;
+        synchronized (lock) {
+            long remaining;
+            while (current == batch && (remaining = deadline - System.nanoTime()) > 0L) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (current == batch) {
+                current = null;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void execute(Batch<K, V> batch) {
+        batchCount.incrementAndGet();
+        keyCount.addAndGet(batch.keys.size());
+        try {
+            Map<K, V> values = cache.loadAll(batch.keys, loader);
+            for (int i = 0; i < batch.keys.size(); i++) {
+                batch.futures.get(i).set(values.get(batch.keys.get(i)));
+            }
+        } catch (Throwable ex) {
+            for (SettableFuture<V> future : batch.futures) {
+                future.setException(ex);
+            }
+        } finally {
+            for (int i = 0; i < batch.keys.size(); i++) {
+                inFlight.remove(batch.keys.get(i), batch.futures.get(i));
+            }
+        }
+    }
+
+    /**
+     * 返回已执行的批量加载次数。
+     */
+    long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * 返回通过批量加载的键的数量。
+     */
+    long getKeyCount() {
+        return keyCount.get();
+    }
+
+    private static final class Batch<K, V> {
+
+        final List<K> keys;
+        final List<SettableFuture<V>> futures;
+
+        Batch(int capacity) {
+            keys = Lists.newArrayListWithCapacity(capacity);
+            futures = Lists.newArrayListWithCapacity(capacity);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+/**
+ * 纯 Java 实现的 LZF 压缩算法，输出与 liblzf 的格式兼容。压缩速度快、不需要额外的缓冲区，
+ * 适合压缩缓存中的 HTML、JSON 等文本。
+ * <p />
+ * 压缩后的数据由若干指令组成：控制字节小于 {@code 32} 时，其后跟随 {@code ctrl + 1} 个字面字节；
+ * 否则为回溯引用，高 {@code 3} 位为长度（为 {@code 7} 时再读一个长度字节），低 {@code 5} 位与下一个字节组成偏移量。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class Lzf {
+
+    private static final int HASH_LOG = 14;
+    private static final int HASH_SIZE = 1 << HASH_LOG;
+    private static final int MAX_LITERAL = 1 << 5;
+    private static final int MAX_OFFSET = 1 << 13;
+    private static final int MAX_REFERENCE = (1 << 8) + (1 << 3);
+
+    /** 每个线程复用的哈希表，其中残留的旧位置只会降低压缩率，不会影响正确性。 */
+    private static final ThreadLocal<int[]> HASH_TABLE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[HASH_SIZE];
+        }
+    };
+
+    private Lzf() {
+    }
+
+    /**
+     * 压缩指定的数据。
+     *
+     * @param in 原始数据。
+     * @return 压缩后的数据；如果压缩后不会更小，返回 {@code null}。
+     */
+    static byte[] compress(byte[] in) {
+        int inLength = in.length;
+        if (inLength < 4) {
+            return null;
+        }
+        int[] table = HASH_TABLE.get();
+        byte[] out = new byte[inLength - 1];
+        int limit = out.length - 4;
+        int ip = 0;
+        int op = 1;
+        int literals = 0;
+        while (ip < inLength - 2) {
+            if (op >= limit) {
+                return null;
+            }
+            int h = hash(in, ip);
+            int ref = table[h];
+            table[h] = ip;
+            int off = ip - ref - 1;
+            if (ref < ip && off < MAX_OFFSET && in[ref] == in[ip]
+                    && in[ref + 1] == in[ip + 1] && in[ref + 2] == in[ip + 2]) {
+                int maxLength = Math.min(inLength - ip - 2, MAX_REFERENCE);
+                int length = 2;
+                do {
+                    length++;
+                } while (length < maxLength && in[ref + length] == in[ip + length]);
+                // 结束当前的字面序列，没有字面字节时收回预留的控制字节
+                out[op - literals - 1] = (byte) (literals - 1);
+                if (literals == 0) {
+                    op--;
+                }
+                length -= 2;
+                if (length < 7) {
+                    out[op++] = (byte) ((off >> 8) + (length << 5));
+                } else {
+                    out[op++] = (byte) ((off >> 8) + (7 << 5));
+                    out[op++] = (byte) (length - 7);
+                }
+                out[op++] = (byte) off;
+                literals = 0;
+                op++;
+                ip += length + 2;
+                if (ip < inLength - 2) {
+                    table[hash(in, ip - 1)] = ip - 1;
+                }
+            } else {
+                literals++;
+                out[op++] = in[ip++];
+                if (literals == MAX_LITERAL) {
+                    out[op - literals - 1] = (byte) (literals - 1);
+                    literals = 0;
+                    op++;
+                }
+            }
+        }
+        while (ip < inLength) {
+            if (op >= limit) {
+                return null;
+            }
+            literals++;
+            out[op++] = in[ip++];
+            if (literals == MAX_LITERAL) {
+                out[op - literals - 1] = (byte) (literals - 1);
+                literals = 0;
+                op++;
+            }
+        }
+        out[op - literals - 1] = (byte) (literals - 1);
+        if (literals == 0) {
+            op--;
+        }
+        byte[] result = new byte[op];
+        System.arraycopy(out, 0, result, 0, op);
+        return result;
+    }
+
+    /**
+     * 解压缩指定的数据。
+     *
+     * @param in 压缩后的数据。
+     * @param length 原始数据的长度。
+     * @return 原始数据。
+     * @throws IllegalArgumentException 如果数据已损坏。
+     */
+    static byte[] decompress(byte[] in, int length) {
+        byte[] out = new byte[length];
+        int ip = 0;
+        int op = 0;
+        try {
+            while (ip < in.length) {
+                int ctrl = in[ip++] & 0xff;
+                if (ctrl < MAX_LITERAL) {
+                    ctrl++;
+                    System.arraycopy(in, ip, out, op, ctrl);
+                    ip += ctrl;
+                    op += ctrl;
+                } else {
+                    int len = ctrl >> 5;
+                    int ref = op - ((ctrl & 0x1f) << 8) - 1;
+                    if (len == 7) {
+                        len += in[ip++] & 0xff;
+                    }
+                    ref -= in[ip++] & 0xff;
+                    len += 2;
+                    if (ref < 0) {
+                        throw new IllegalArgumentException("Corrupted LZF data: illegal back reference.");
+                    }
+                    // 引用的区域可能与输出重叠，必须逐字节复制
+                    for (int i = 0; i < len; i++) {
+                        out[op++] = out[ref++];
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Corrupted LZF data.", ex);
+        }
+        if (op != length) {
+            throw new IllegalArgumentException(String.format(
+                    "Corrupted LZF data: expected %s bytes, got %s.", length, op));
+        }
+        return out;
+    }
+
+    private static int hash(byte[] in, int i) {
+        int v = ((in[i] & 0xff) << 16) | ((in[i + 1] & 0xff) << 8) | (in[i + 2] & 0xff);
+        return ((v * 0x9E3779B1) >>> (32 - HASH_LOG));
+    }
+}
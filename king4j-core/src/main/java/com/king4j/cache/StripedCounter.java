@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.king4j.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 多线程高并发场景下的计数器。每个线程按其 {@code id} 分散到不同的、按缓存行对齐的计数单元上累加，
+ * 避免所有线程竞争同一个 {@code AtomicLong}；读取时对所有计数单元求和。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class StripedCounter {
+
+    /** 每个计数单元占用的 {@code long} 数（64 字节，一个缓存行）。 */
+    private static final int PADDING = 8;
+    private static final int STRIPES;
+
+    static {
+        int n = 1;
+        int cpus = Runtime.getRuntime().availableProcessors() * 2;
+        while (n < cpus) {
+            n <<= 1;
+        }
+        STRIPES = n;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * 计数加 {@code 1}。
+     */
+    void increment() {
+        add(1L);
+    }
+
+    /**
+     * 计数增加指定的值。
+     */
+    void add(long x) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.addAndGet(stripe * PADDING, x);
+    }
+
+    /**
+     * 返回当前的计数总和。并发更新时返回的是一个近似值。
+     */
+    long sum() {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+}
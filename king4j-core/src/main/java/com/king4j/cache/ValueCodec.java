@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+/**
+ * 缓存值与字节数组之间的编解码器。开启值压缩的缓存先用编解码器把值编码为字节数组，超过阈值的再进行压缩；
+ * 读取时解压缩并解码。编解码器必须是线程安全的，并且 {@code decode(encode(v))} 与 {@code v} 相等。
+ *
+ * @param <V> 缓存的值类型。
+ * @author Fuchun
+ * @since 1.0
+ * @see CacheBuilder#compressValues(ValueCodec, int)
+ * @see ValueCodecs
+ */
+public interface ValueCodec<V> {
+
+    /**
+     * 将缓存值编码为字节数组。
+     *
+     * @param value 缓存值。
+     * @return 编码后的字节数组。
+     */
+    byte[] encode(V value);
+
+    /**
+     * 将字节数组解码为缓存值。
+     *
+     * @param bytes {@link #encode(Object)} 返回的字节数组。
+     * @return 缓存值。
+     */
+    V decode(byte[] bytes);
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * 常用的 {@link ValueCodec} 实现。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public final class ValueCodecs {
+
+    private ValueCodecs() {
+    }
+
+    /**
+     * 返回字节数组的编解码器，值本身即编码结果。
+     */
+    public static ValueCodec<byte[]> bytes() {
+        return BytesCodec.INSTANCE;
+    }
+
+    /**
+     * 返回以 {@code UTF-8} 编码字符串的编解码器，适用于 HTML、JSON 等文本。
+     */
+    public static ValueCodec<String> utf8() {
+        return Utf8Codec.INSTANCE;
+    }
+
+    /**
+     * 返回使用 Java 序列化编码的编解码器。
+     */
+    @SuppressWarnings("unchecked")
+    public static <V extends Serializable> ValueCodec<V> serializable() {
+        return (ValueCodec<V>) SerializableCodec.INSTANCE;
+    }
+
+    enum BytesCodec implements ValueCodec<byte[]> {
+        INSTANCE;
+
+        @Override
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        @Override
+        public byte[] decode(byte[] bytes) {
+            return bytes;
+        }
+    }
+
+    enum Utf8Codec implements ValueCodec<String> {
+        INSTANCE;
+
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(Charsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes) {
+            return new String(bytes, Charsets.UTF_8);
+        }
+    }
+
+    enum SerializableCodec implements ValueCodec<Serializable> {
+        INSTANCE;
+
+        @Override
+        public byte[] encode(Serializable value) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                ObjectOutputStream out = new ObjectOutputStream(bytes);
+                out.writeObject(value);
+                out.close();
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("Failed to serialize the cache value.", ex);
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public Serializable decode(byte[] bytes) {
+            try {
+                ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return (Serializable) in.readObject();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("Failed to deserialize the cache value.", ex);
+            } catch (ClassNotFoundException ex) {
+                throw new IllegalArgumentException("Failed to deserialize the cache value.", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+/**
+ * 计算缓存条目权重的接口。设置了 {@code maximumWeight} 的缓存按条目权重的总和而不是条目的数量限制容量，
+ * 权重通常是条目占用内存的估计值。条目的权重在写入时计算一次，此后不再改变。
+ *
+ * @param <K> 缓存的键类型。
+ * @param <V> 缓存的值类型。
+ * @author Fuchun
+ * @since 1.0
+ * @see CacheBuilder#weigher(Weigher)
+ */
+public interface Weigher<K, V> {
+
+    /**
+     * 返回缓存条目的权重，不能为负数。
+     *
+     * @param key 缓存的键。
+     * @param value 缓存的值。
+     * @return 条目的权重。
+     */
+    int weigh(K key, V value);
+}
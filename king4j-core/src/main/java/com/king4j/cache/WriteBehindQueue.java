@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 延迟写队列。每个键最多只有一个待写入的操作，延迟期间对同一个键的多次写入和删除被合并为最后一次；
+ * 到期的操作由后台线程按写入顺序收集，每批最多 {@code batchSize} 个，通过
+ * {@link CacheWriter#writeAll(Map)} 和 {@link CacheWriter#deleteAll(java.util.Collection)} 批量提交。
+ * 提交失败时按递增的间隔重试 {@link #MAX_RETRIES} 次，仍然失败的操作被记录并丢弃。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class WriteBehindQueue<K, V> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    /** 批量提交失败后的最大重试次数。 */
+    static final int MAX_RETRIES = 3;
+
+    private static final long MIN_RETRY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String name;
+    private final CacheWriter<K, V> writer;
+    private final long delayNanos;
+    private final int batchSize;
+    private final AtomicLong failedCount;
+    private final ConcurrentMap<K, PendingWrite<V>> pending = new ConcurrentHashMap<K, PendingWrite<V>>();
+    /** 待写入的键，按第一次写入的顺序排列，每个待写入的操作对应一个元素。 */
+    private final Queue<K> order = new ConcurrentLinkedQueue<K>();
+    private final AtomicLong flushedCount = new AtomicLong();
+    private volatile boolean isRunning = false;
+    private Thread flushThread;
+
+    WriteBehindQueue(String name, CacheWriter<K, V> writer, long delayNanos, int batchSize,
+                     AtomicLong failedCount) {
+        this.name = name;
+        this.writer = writer;
+        this.delayNanos = delayNanos;
+        this.batchSize = batchSize;
+        this.failedCount = failedCount;
+    }
+
+    synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        flushThread = new Thread(new FlushRunnable());
+        flushThread.setName(String.format("%s_WriteBehind", name));
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    /**
+     * 停止后台线程，停止前提交所有待写入的操作。
+     */
+    synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        LockSupport.unpark(flushThread);
+        try {
+            flushThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void write(K key, V value) {
+        enqueue(key, new PendingWrite<V>(value, false));
+    }
+
+    void delete(K key) {
+        enqueue(key, new PendingWrite<V>(null, true));
+    }
+
+    /**
+     * 返回待写入的键的数量。
+     */
+    int getBacklog() {
+        return pending.size();
+    }
+
+    /**
+     * 返回已成功提交的操作的数量。
+     */
+    long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    private void enqueue(K key, PendingWrite<V> write) {
+        while (true) {
+            PendingWrite<V> previous = pending.get(key);
+            if (previous == null) {
+                write.time = System.nanoTime();
+                if (pending.putIfAbsent(key, write) == null) {
+                    order.offer(key);
+                    return;
+                }
+            } else {
+                // 合并时保留第一次写入的时间，持续的更新不会无限推迟提交
+                write.time = previous.time;
+                if (pending.replace(key, previous, write)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 收集并提交一批到期（{@code all} 为 {@code true} 时不论是否到期）的操作。
+     *
+     * @return 提交了操作时返回 {@code 0}，否则返回距离下一个操作到期的时间（纳秒）。
+     */
+    private long flush(boolean all) {
+        Map<K, V> writes = Maps.newLinkedHashMap();
+        Set<K> deletes = Sets.newLinkedHashSet();
+        long now = System.nanoTime();
+        K key;
+        while (writes.size() + deletes.size() < batchSize && (key = order.peek()) != null) {
+            PendingWrite<V> write = pending.get(key);
+            if (write != null && !all && now - write.time < delayNanos) {
+                break;
+            }
+            if (writes.containsKey(key) || deletes.contains(key)) {
+                // 同一批中不能包含同一个键的两次操作
+                break;
+            }
+            order.poll();
+            write = pending.remove(key);
+            if (write == null) {
+                continue;
+            }
+            if (write.delete) {
+                deletes.add(key);
+            } else {
+                writes.put(key, write.value);
+            }
+        }
+        if (writes.isEmpty() && deletes.isEmpty()) {
+            key = order.peek();
+            PendingWrite<V> head = key == null ? null : pending.get(key);
+            return head == null ? delayNanos : Math.max(1L, head.time + delayNanos - now);
+        }
+        if (!writes.isEmpty()) {
+            final Map<K, V> batch = writes;
+            submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    writer.writeAll(batch);
+                    return null;
+                }
+            }, writes.size(), "write");
+        }
+        if (!deletes.isEmpty()) {
+            final Set<K> batch = deletes;
+            submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    writer.deleteAll(batch);
+                    return null;
+                }
+            }, deletes.size(), "delete");
+        }
+        return 0L;
+    }
+
+    private void submit(Callable<Void> operation, int count, String type) {
+        long retryDelay = Math.max(delayNanos, MIN_RETRY_DELAY_NANOS);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                operation.call();
+                flushedCount.addAndGet(count);
+                return;
+            } catch (Exception ex) {
+                if (attempt >= MAX_RETRIES) {
+                    failedCount.addAndGet(count);
+                    LOGGER.error(String.format("%s failed to %s %s entries after %s retries: ",
+                            name, type, count, MAX_RETRIES), ex);
+                    return;
+                }
+                LOGGER.warn(String.format("%s failed to %s %s entries, retrying: %s",
+                        name, type, count, ex.getMessage()));
+                LockSupport.parkNanos(this, retryDelay * (attempt + 1));
+            }
+        }
+    }
+
+    private class FlushRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            while (isRunning) {
+                long waitNanos = flush(false);
+                if (waitNanos > 0L && isRunning) {
+                    LockSupport.parkNanos(this, waitNanos);
+                }
+            }
+            while (flush(true) == 0L) {
+                // 提交停止前所有待写入的操作
+            }
+        }
+    }
+
+    private static final class PendingWrite<V> {
+
+        final V value;
+        final boolean delete;
+        long time;
+
+        PendingWrite(V value, boolean delete) {
+            this.value = value;
+            this.delete = delete;
+        }
+    }
+}
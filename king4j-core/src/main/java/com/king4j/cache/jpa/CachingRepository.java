@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache.jpa;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.king4j.cache.Cache;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.core.EntityInformation;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * 以 {@link Cache} 缓存实体的 Spring Data 仓库装饰器。按 {@code ID} 查询的方法先读取缓存：
+ * {@link #findOne(Serializable)} 只在缓存未命中时查询仓库，{@link #findAll(Iterable)} 把所有未命中的
+ * {@code ID} 合并为一次 {@code findAll(ids)} 查询。{@code save} 用保存后的实体更新缓存，
+ * {@code delete} 使缓存中的实体失效。其他查询方法直接委托给被装饰的仓库。
+ * <p />
+ * 缓存只能通过该装饰器修改仓库，绕过装饰器的修改不会反映到缓存中；被装饰的缓存也不应再设置指向同一仓库的
+ * {@link com.king4j.cache.CacheWriter}。
+ *
+ * @param <T> 实体类型。
+ * @param <ID> 实体的主键类型。
+ * @author Fuchun
+ * @since 1.0
+ */
+public class CachingRepository<T, ID extends Serializable> implements CrudRepository<T, ID> {
+
+    private final CrudRepository<T, ID> repository;
+    private final EntityInformation<T, ID> entityInformation;
+    private final Cache<ID, T> cache;
+
+    /**
+     * @param repository 被装饰的仓库，通常是 {@code JpaRepository}。
+     * @param entityInformation 实体的元数据，用于获取实体的 {@code ID}，
+     *                          例如 {@code JpaEntityInformationSupport.getMetadata(domainClass, em)}。
+     * @param cache 缓存实体的缓存，键为实体的 {@code ID}。
+     */
+    public CachingRepository(CrudRepository<T, ID> repository, EntityInformation<T, ID> entityInformation,
+                             Cache<ID, T> cache) {
+        this.repository = checkNotNull(repository, "The repository must not be null.");
+        this.entityInformation = checkNotNull(entityInformation, "The entityInformation must not be null.");
+        this.cache = checkNotNull(cache, "The cache must not be null.");
+    }
+
+    @Override
+    public <S extends T> S save(S entity) {
+        S saved = repository.save(entity);
+        cache(saved);
+        return saved;
+    }
+
+    @Override
+    public <S extends T> Iterable<S> save(Iterable<S> entities) {
+        Iterable<S> saved = repository.save(entities);
+        for (S entity : saved) {
+            cache(entity);
+        }
+        return saved;
+    }
+
+    @Override
+    public T findOne(ID id) {
+        T entity = cache.getIfPresent(id);
+        if (entity == null) {
+            entity = repository.findOne(id);
+            if (entity != null) {
+                cache.put(id, entity);
+            }
+        }
+        return entity;
+    }
+
+    @Override
+    public boolean exists(ID id) {
+        return cache.getIfPresent(id) != null || repository.exists(id);
+    }
+
+    @Override
+    public Iterable<T> findAll() {
+        return repository.findAll();
+    }
+
+    /**
+     * 返回指定 {@code ID} 的实体，按 {@code ids} 的顺序排列，不存在的实体被忽略。
+     * 缓存未命中的 {@code ID} 以一次查询加载，并放入缓存。
+     */
+    @Override
+    public List<T> findAll(Iterable<ID> ids) {
+        Map<ID, T> found = Maps.newLinkedHashMap();
+        List<ID> misses = Lists.newArrayList();
+        for (ID id : ids) {
+            if (found.containsKey(id)) {
+                continue;
+            }
+            T entity = cache.getIfPresent(id);
+            found.put(id, entity);
+            if (entity == null) {
+                misses.add(id);
+            }
+        }
+        if (!misses.isEmpty()) {
+            for (T entity : repository.findAll(misses)) {
+                ID id = entityInformation.getId(entity);
+                found.put(id, entity);
+                cache.put(id, entity);
+            }
+        }
+        List<T> result = Lists.newArrayListWithCapacity(found.size());
+        for (T entity : found.values()) {
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long count() {
+        return repository.count();
+    }
+
+    @Override
+    public void delete(ID id) {
+        repository.delete(id);
+        cache.remove(id);
+    }
+
+    @Override
+    public void delete(T entity) {
+        repository.delete(entity);
+        evict(entity);
+    }
+
+    @Override
+    public void delete(Iterable<? extends T> entities) {
+        repository.delete(entities);
+        for (T entity : entities) {
+            evict(entity);
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        repository.deleteAll();
+        cache.clear();
+    }
+
+    public CrudRepository<T, ID> getRepository() {
+        return repository;
+    }
+
+    public Cache<ID, T> getCache() {
+        return cache;
+    }
+
+    private void cache(T entity) {
+        ID id = entityInformation.getId(entity);
+        if (id != null) {
+            cache.put(id, entity);
+        }
+    }
+
+    private void evict(T entity) {
+        ID id = entityInformation.getId(entity);
+        if (id != null) {
+            cache.remove(id);
+        }
+    }
+}
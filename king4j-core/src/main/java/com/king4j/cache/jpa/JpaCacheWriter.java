@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache.jpa;
+
+import com.king4j.cache.CacheWriter;
+import org.springframework.data.repository.CrudRepository;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * 把缓存的写操作同步到 Spring Data 仓库（通常是 {@code JpaRepository}）的 {@link CacheWriter}，
+ * 缓存的键是实体的 {@code ID}，值是实体本身。批量写入通过一次 {@code save(Iterable)} 调用提交，
+ * 在仓库的同一个事务中执行；配合延迟写模式，高频更新的实体只在每个批次中保存一次。
+ *
+ * @param <T> 实体类型。
+ * @param <ID> 实体的主键类型。
+ * @author Fuchun
+ * @since 1.0
+ */
+public class JpaCacheWriter<T, ID extends Serializable> extends CacheWriter<ID, T> {
+
+    private final CrudRepository<T, ID> repository;
+
+    public JpaCacheWriter(CrudRepository<T, ID> repository) {
+        this.repository = checkNotNull(repository, "The repository must not be null.");
+    }
+
+    @Override
+    public void write(ID key, T value) throws Exception {
+        repository.save(value);
+    }
+
+    @Override
+    public void delete(ID key) throws Exception {
+        deleteAll(Collections.singleton(key));
+    }
+
+    @Override
+    public void writeAll(Map<ID, T> entries) throws Exception {
+        repository.save(entries.values());
+    }
+
+    /**
+     * 先以一次查询加载存在的实体，再批量删除，不存在的 {@code ID} 被忽略。
+     */
+    @Override
+    public void deleteAll(Collection<ID> keys) throws Exception {
+        repository.delete(repository.findAll(keys));
+    }
+
+    public CrudRepository<T, ID> getRepository() {
+        return repository;
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache.memcached;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * memcached 二进制协议。每次调用 {@link #process(Connection, ByteBuffer)} 处理输入中的一个完整请求包；
+ * 客户端通常以一串静默的 {@code GETKQ} 加一个 {@code NOOP} 实现批量读取，未命中的键没有响应。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class BinaryProtocol {
+
+    static final byte MAGIC_REQUEST = (byte) 0x80;
+    static final byte MAGIC_RESPONSE = (byte) 0x81;
+    static final int HEADER_LENGTH = 24;
+
+    static final int GET = 0x00;
+    static final int SET = 0x01;
+    static final int ADD = 0x02;
+    static final int REPLACE = 0x03;
+    static final int DELETE = 0x04;
+    static final int INCREMENT = 0x05;
+    static final int DECREMENT = 0x06;
+    static final int QUIT = 0x07;
+    static final int FLUSH = 0x08;
+    static final int GETQ = 0x09;
+    static final int NOOP = 0x0a;
+    static final int VERSION = 0x0b;
+    static final int GETK = 0x0c;
+    static final int GETKQ = 0x0d;
+    static final int APPEND = 0x0e;
+    static final int PREPEND = 0x0f;
+    static final int STAT = 0x10;
+    static final int SETQ = 0x11;
+    static final int ADDQ = 0x12;
+    static final int REPLACEQ = 0x13;
+    static final int DELETEQ = 0x14;
+    static final int INCREMENTQ = 0x15;
+    static final int DECREMENTQ = 0x16;
+    static final int QUITQ = 0x17;
+    static final int FLUSHQ = 0x18;
+    static final int APPENDQ = 0x19;
+    static final int PREPENDQ = 0x1a;
+    static final int TOUCH = 0x1c;
+    static final int GAT = 0x1d;
+    static final int GATQ = 0x1e;
+
+    static final short STATUS_OK = 0x0000;
+    static final short STATUS_KEY_NOT_FOUND = 0x0001;
+    static final short STATUS_KEY_EXISTS = 0x0002;
+    static final short STATUS_VALUE_TOO_LARGE = 0x0003;
+    static final short STATUS_INVALID_ARGUMENTS = 0x0004;
+    static final short STATUS_ITEM_NOT_STORED = 0x0005;
+    static final short STATUS_NON_NUMERIC_VALUE = 0x0006;
+    static final short STATUS_UNKNOWN_COMMAND = 0x0081;
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] FLAGS = new byte[4];
+
+    private final MemcachedServer server;
+    private final CacheBackend backend;
+
+    BinaryProtocol(MemcachedServer server, CacheBackend backend) {
+        this.server = server;
+        this.backend = backend;
+    }
+
+    /**
+     * 处理输入中的一个请求包。
+     *
+     * @return 是否处理了一个请求包，输入不完整时返回 {@code false}，并且不移动输入的位置。
+     * @throws IOException 如果请求包的头部不合法，连接应被关闭。
+     */
+    boolean process(Connection c, ByteBuffer in) throws IOException {
+        int start = in.position();
+        if (in.remaining() < HEADER_LENGTH) {
+            c.needed = HEADER_LENGTH;
+            return false;
+        }
+        if (in.get(start) != MAGIC_REQUEST) {
+            throw new IOException("Illegal request magic: " + in.get(start));
+        }
+        int opcode = in.get(start + 1) & 0xFF;
+        int keyLength = in.getShort(start + 2) & 0xFFFF;
+        int extrasLength = in.get(start + 4) & 0xFF;
+        int bodyLength = in.getInt(start + 8);
+        int opaque = in.getInt(start + 12);
+        long cas = in.getLong(start + 16);
+        if (bodyLength < 0 || bodyLength < keyLength + extrasLength) {
+            throw new IOException("Illegal request body length: " + bodyLength);
+        }
+        if (bodyLength > server.getMaxItemSize() + keyLength + extrasLength) {
+            in.position(start + HEADER_LENGTH);
+            c.skip = bodyLength;
+            error(c, opcode, opaque, STATUS_VALUE_TOO_LARGE, "Too large");
+            return true;
+        }
+        if (in.remaining() < HEADER_LENGTH + bodyLength) {
+            c.needed = HEADER_LENGTH + bodyLength;
+            return false;
+        }
+        in.position(start + HEADER_LENGTH);
+        ByteBuffer extras = in.slice();
+        extras.limit(extrasLength);
+        in.position(in.position() + extrasLength);
+        byte[] keyBytes = new byte[keyLength];
+        in.get(keyBytes);
+        String key = new String(keyBytes, Charsets.UTF_8);
+        byte[] value = new byte[bodyLength - extrasLength - keyLength];
+        in.get(value);
+        dispatch(c, opcode, opaque, cas, extras, key, keyBytes, value);
+        return true;
+    }
+
+    private void dispatch(Connection c, int opcode, int opaque, long cas, ByteBuffer extras, String key,
+                          byte[] keyBytes, byte[] value) {
+        switch (opcode) {
+            case GET:
+            case GETQ:
+            case GETK:
+            case GETKQ:
+                get(c, opcode, opaque, key, keyBytes, opcode == GETK || opcode == GETKQ,
+                        opcode == GETQ || opcode == GETKQ);
+                break;
+            case GAT:
+            case GATQ:
+                if (extras.remaining() != 4) {
+                    error(c, opcode, opaque, STATUS_INVALID_ARGUMENTS, "Invalid arguments");
+                } else if (!backend.touch(key, extras.getInt(0))) {
+                    if (opcode == GAT) {
+                        error(c, opcode, opaque, STATUS_KEY_NOT_FOUND, "Not found");
+                    }
+                } else {
+                    get(c, opcode, opaque, key, keyBytes, false, opcode == GATQ);
+                }
+                break;
+            case SET:
+            case SETQ:
+            case ADD:
+            case ADDQ:
+            case REPLACE:
+            case REPLACEQ:
+                if (extras.remaining() != 8) {
+                    error(c, opcode, opaque, STATUS_INVALID_ARGUMENTS, "Invalid arguments");
+                    break;
+                }
+                store(c, opcode, opaque, cas, key, value, extras.getInt(4));
+                break;
+            case APPEND:
+            case APPENDQ:
+            case PREPEND:
+            case PREPENDQ:
+                store(c, opcode, opaque, 0L, key, value, 0);
+                break;
+            case DELETE:
+            case DELETEQ:
+                if (backend.delete(key)) {
+                    if (opcode == DELETE) {
+                        respond(c, opcode, opaque, STATUS_OK, 0L, EMPTY, EMPTY, EMPTY);
+                    }
+                } else {
+                    error(c, opcode, opaque, STATUS_KEY_NOT_FOUND, "Not found");
+                }
+                break;
+            case INCREMENT:
+            case INCREMENTQ:
+            case DECREMENT:
+            case DECREMENTQ:
+                incr(c, opcode, opaque, extras, key);
+                break;
+            case TOUCH:
+                if (extras.remaining() != 4) {
+                    error(c, opcode, opaque, STATUS_INVALID_ARGUMENTS, "Invalid arguments");
+                } else if (backend.touch(key, extras.getInt(0))) {
+                    respond(c, opcode, opaque, STATUS_OK, 0L, EMPTY, EMPTY, EMPTY);
+                } else {
+                    error(c, opcode, opaque, STATUS_KEY_NOT_FOUND, "Not found");
+                }
+                break;
+            case FLUSH:
+            case FLUSHQ:
+                backend.flush();
+                if (opcode == FLUSH) {
+                    respond(c, opcode, opaque, STATUS_OK, 0L, EMPTY, EMPTY, EMPTY);
+                }
+                break;
+            case NOOP:
+                respond(c, opcode, opaque, STATUS_OK, 0L, EMPTY, EMPTY, EMPTY);
+                break;
+            case VERSION:
+                respond(c, opcode, opaque, STATUS_OK, 0L, EMPTY, EMPTY,
+                        MemcachedServer.VERSION.getBytes(Charsets.US_ASCII));
+                break;
+            case STAT:
+                for (Map.Entry<String, String> stat : server.getStats().entrySet()) {
+                    respond(c, opcode, opaque, STATUS_OK, 0L, EMPTY, stat.getKey().getBytes(Charsets.US_ASCII),
+                            stat.getValue().getBytes(Charsets.US_ASCII));
+                }
+                respond(c, opcode, opaque, STATUS_OK, 0L, EMPTY, EMPTY, EMPTY);
+                break;
+            case QUIT:
+                respond(c, opcode, opaque, STATUS_OK, 0L, EMPTY, EMPTY, EMPTY);
+                c.closeAfterFlush = true;
+                break;
+            case QUITQ:
+                c.closeAfterFlush = true;
+                break;
+            default:
+                error(c, opcode, opaque, STATUS_UNKNOWN_COMMAND, "Unknown command");
+        }
+    }
+
+    private void get(Connection c, int opcode, int opaque, String key, byte[] keyBytes, boolean withKey,
+                     boolean quiet) {
+        byte[] value = backend.get(key);
+        if (value == null) {
+            if (!quiet) {
+                respond(c, opcode, opaque, STATUS_KEY_NOT_FOUND, 0L, EMPTY, withKey ? keyBytes : EMPTY,
+                        withKey ? EMPTY : "Not found".getBytes(Charsets.US_ASCII));
+            }
+            return;
+        }
+        respond(c, opcode, opaque, STATUS_OK, backend.casOf(key, value), FLAGS, withKey ? keyBytes : EMPTY, value);
+    }
+
+    private void store(Connection c, int opcode, int opaque, long cas, String key, byte[] value, int exptime) {
+        CacheBackend.StoreMode mode;
+        switch (opcode) {
+            case ADD:
+            case ADDQ:
+                mode = CacheBackend.StoreMode.ADD;
+                break;
+            case REPLACE:
+            case REPLACEQ:
+                mode = CacheBackend.StoreMode.REPLACE;
+                break;
+            case APPEND:
+            case APPENDQ:
+                mode = CacheBackend.StoreMode.APPEND;
+                break;
+            case PREPEND:
+            case PREPENDQ:
+                mode = CacheBackend.StoreMode.PREPEND;
+                break;
+            default:
+                mode = cas == 0L ? CacheBackend.StoreMode.SET : CacheBackend.StoreMode.CAS;
+        }
+        long[] stored = new long[1];
+        switch (backend.store(mode, key, value, exptime, cas, stored)) {
+            case STORED:
+                if (!isQuiet(opcode)) {
+                    respond(c, opcode, opaque, STATUS_OK, stored[0], EMPTY, EMPTY, EMPTY);
+                }
+                break;
+            case EXISTS:
+                error(c, opcode, opaque, STATUS_KEY_EXISTS, "Data exists for key");
+                break;
+            case NOT_FOUND:
+                error(c, opcode, opaque, STATUS_KEY_NOT_FOUND, "Not found");
+                break;
+            default:
+                if (mode == CacheBackend.StoreMode.ADD) {
+                    error(c, opcode, opaque, STATUS_KEY_EXISTS, "Data exists for key");
+                } else if (mode == CacheBackend.StoreMode.REPLACE) {
+                    error(c, opcode, opaque, STATUS_KEY_NOT_FOUND, "Not found");
+                } else {
+                    error(c, opcode, opaque, STATUS_ITEM_NOT_STORED, "Not stored");
+                }
+        }
+    }
+
+    private void incr(Connection c, int opcode, int opaque, ByteBuffer extras, String key) {
+        if (extras.remaining() != 20) {
+            error(c, opcode, opaque, STATUS_INVALID_ARGUMENTS, "Invalid arguments");
+            return;
+        }
+        long delta = extras.getLong(0);
+        long initial = extras.getLong(8);
+        int exptime = extras.getInt(16);
+        boolean increment = opcode == INCREMENT || opcode == INCREMENTQ;
+        Long value;
+        try {
+            // 过期时间为 0xffffffff 时键不存在不创建
+            value = backend.incr(key, delta, increment, initial, exptime, exptime != -1);
+        } catch (NumberFormatException ex) {
+            error(c, opcode, opaque, STATUS_NON_NUMERIC_VALUE, "Non-numeric server-side value for incr or decr");
+            return;
+        }
+        if (value == null) {
+            error(c, opcode, opaque, STATUS_KEY_NOT_FOUND, "Not found");
+        } else if (!isQuiet(opcode)) {
+            byte[] body = new byte[8];
+            ByteBuffer.wrap(body).putLong(value);
+            respond(c, opcode, opaque, STATUS_OK, 0L, EMPTY, EMPTY, body);
+        }
+    }
+
+    private static boolean isQuiet(int opcode) {
+        switch (opcode) {
+            case GETQ:
+            case GETKQ:
+            case SETQ:
+            case ADDQ:
+            case REPLACEQ:
+            case DELETEQ:
+            case INCREMENTQ:
+            case DECREMENTQ:
+            case QUITQ:
+            case FLUSHQ:
+            case APPENDQ:
+            case PREPENDQ:
+            case GATQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void error(Connection c, int opcode, int opaque, short status, String message) {
+        respond(c, opcode, opaque, status, 0L, EMPTY, EMPTY, message.getBytes(Charsets.US_ASCII));
+    }
+
+    /**
+     * 发送一个响应包。头部、附加数据和键写入同一个缓冲区，值直接包装而不复制。
+     */
+    private static void respond(Connection c, int opcode, int opaque, short status, long cas, byte[] extras,
+                                byte[] key, byte[] value) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + extras.length + key.length);
+        header.put(MAGIC_RESPONSE)
+                .put((byte) opcode)
+                .putShort((short) key.length)
+                .put((byte) extras.length)
+                .put((byte) 0)
+                .putShort(status)
+                .putInt(extras.length + key.length + value.length)
+                .putInt(opaque)
+                .putLong(cas)
+                .put(extras)
+                .put(key);
+        header.flip();
+        c.send(header);
+        if (value.length > 0) {
+            c.send(ByteBuffer.wrap(value));
+        }
+    }
+}
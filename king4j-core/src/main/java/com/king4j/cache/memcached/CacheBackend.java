@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache.memcached;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.UnsignedLongs;
+import com.google.common.util.concurrent.Striped;
+import com.king4j.cache.Cache;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * memcached 命令在缓存上的实现，文本协议和二进制协议共用。
+ * <p />
+ * 键按命名空间路由：形如 {@code <缓存名称><分隔符><键>} 并且缓存名称已注册的键访问该缓存，其余的键访问默认缓存；
+ * 没有对应缓存的键总是未命中，也不能写入。{@code add}、{@code cas}、{@code append}、{@code incr} 等
+ * 读-改-写命令在键的锁内执行，彼此之间是原子的，但与 Java 代码直接对缓存的写入之间不是。
+ * <p />
+ * 缓存只保存值的字节，客户端的 {@code flags} 不被保存，读取时总是返回 {@code 0}。
+ * <p />
+ * {@code cas} 唯一值是键的版本号，在键的锁内维护：每次通过 memcached 写入值都分配一个不会重复的新版本号，并记录值内容的
+ * 64 位指纹，因此与缓存是否每次读取返回新的数组（例如开启了值压缩）无关。读取时值的指纹与记录的不一致（值被 Java 代码
+ * 直接修改过）则分配新的版本号。记录版本的键超过 {@link #MAX_VERSIONS} 个时清空所有版本，之前返回的唯一值的
+ * {@code cas} 以 {@code EXISTS} 失败，客户端重新 {@code gets} 即可。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class CacheBackend {
+
+    /** 大于该值（30 天）的过期时间是 Unix 时间戳。 */
+    static final int MAX_RELATIVE_EXPTIME = 60 * 60 * 24 * 30;
+    /** 记录版本的键的最大数量。 */
+    static final int MAX_VERSIONS = 1 << 18;
+
+    enum StoreMode {
+        SET, ADD, REPLACE, APPEND, PREPEND, CAS
+    }
+
+    enum StoreResult {
+        STORED, NOT_STORED, EXISTS, NOT_FOUND
+    }
+
+    private final ConcurrentMap<String, Cache<String, byte[]>> caches = Maps.newConcurrentMap();
+    private final Striped<Lock> locks = Striped.lock(256);
+    /** 键（包括命名空间）的当前版本，只在键的锁内修改。 */
+    private final ConcurrentMap<String, Version> versions = Maps.newConcurrentMap();
+    private final AtomicLong versionSequence = new AtomicLong();
+    private volatile Cache<String, byte[]> defaultCache;
+    private volatile char separator = MemcachedServer.DEFAULT_SEPARATOR;
+
+    final AtomicLong getCount = new AtomicLong();
+    final AtomicLong getHits = new AtomicLong();
+    final AtomicLong setCount = new AtomicLong();
+    final AtomicLong touchCount = new AtomicLong();
+    final AtomicLong deleteHits = new AtomicLong();
+    final AtomicLong deleteMisses = new AtomicLong();
+
+    void addCache(String name, Cache<String, byte[]> cache) {
+        caches.put(name, cache);
+    }
+
+    Cache<String, byte[]> removeCache(String name) {
+        return caches.remove(name);
+    }
+
+    void setDefaultCache(Cache<String, byte[]> cache) {
+        this.defaultCache = cache;
+    }
+
+    void setSeparator(char separator) {
+        this.separator = separator;
+    }
+
+    /**
+     * 返回指定键的值，未命中时返回 {@code null}。
+     */
+    byte[] get(String key) {
+        getCount.incrementAndGet();
+        Route route = route(key);
+        byte[] value = route == null ? null : route.cache.getIfPresent(route.key);
+        if (value != null) {
+            getHits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * 按指定的模式写入值。{@code casUnique} 不为 {@code 0} 时，只有键的当前版本与之相同才写入。
+     *
+     * @param stored 写入成功时，{@code stored[0]} 被设为新值的 {@code cas} 唯一值；不需要时为 {@code null}。
+     */
+    StoreResult store(StoreMode mode, String key, byte[] value, int exptime, long casUnique, long[] stored) {
+        setCount.incrementAndGet();
+        Route route = route(key);
+        if (route == null) {
+            return StoreResult.NOT_STORED;
+        }
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            byte[] current = route.cache.getIfPresent(route.key);
+            boolean checkCas = false;
+            switch (mode) {
+                case ADD:
+                    if (current != null) {
+                        return StoreResult.NOT_STORED;
+                    }
+                    break;
+                case APPEND:
+                case PREPEND:
+                    if (current == null) {
+                        return StoreResult.NOT_STORED;
+                    }
+                    value = mode == StoreMode.APPEND ? concat(current, value) : concat(value, current);
+                    // 追加不改变原有的过期时间，这里按缓存的过期策略重新计算
+                    exptime = 0;
+                    break;
+                case REPLACE:
+                    if (current == null) {
+                        return StoreResult.NOT_STORED;
+                    }
+                    checkCas = casUnique != 0L;
+                    break;
+                default:
+                    checkCas = casUnique != 0L || mode == StoreMode.CAS;
+                    break;
+            }
+            if (checkCas) {
+                if (current == null) {
+                    return StoreResult.NOT_FOUND;
+                }
+                Version version = versions.get(key);
+                if (version == null || version.cas != casUnique
+                        || version.fingerprint != fingerprint(current)) {
+                    return StoreResult.EXISTS;
+                }
+            }
+            long cas = put(route, value, exptime) ? stamp(key, fingerprint(value)) : unstamp(key);
+            if (stored != null) {
+                stored[0] = cas;
+            }
+            return StoreResult.STORED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean delete(String key) {
+        Route route = route(key);
+        if (route == null || route.cache.getIfPresent(route.key) == null) {
+            deleteMisses.incrementAndGet();
+            return false;
+        }
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            route.cache.remove(route.key);
+            versions.remove(key);
+        } finally {
+            lock.unlock();
+        }
+        deleteHits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 将指定键的十进制值增加或减少 {@code delta}，值按 64 位无符号整数处理：增加时回绕，减少时不小于 {@code 0}。
+     *
+     * @param create 键不存在时是否以 {@code initial} 创建。
+     * @return 新的值，键不存在并且不创建时返回 {@code null}。
+     * @throws NumberFormatException 如果当前的值不是十进制无符号整数。
+     */
+    Long incr(String key, long delta, boolean increment, long initial, int exptime, boolean create) {
+        Route route = route(key);
+        if (route == null) {
+            return null;
+        }
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            byte[] current = route.cache.getIfPresent(route.key);
+            long value;
+            if (current == null) {
+                if (!create) {
+                    return null;
+                }
+                value = initial;
+            } else {
+                value = UnsignedLongs.parseUnsignedLong(new String(current, Charsets.US_ASCII).trim());
+                if (increment) {
+                    value += delta;
+                } else {
+                    value = UnsignedLongs.compare(value, delta) < 0 ? 0L : value - delta;
+                }
+                exptime = 0;
+            }
+            byte[] bytes = UnsignedLongs.toString(value).getBytes(Charsets.US_ASCII);
+            if (put(route, bytes, exptime)) {
+                stamp(key, fingerprint(bytes));
+            } else {
+                unstamp(key);
+            }
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean touch(String key, int exptime) {
+        touchCount.incrementAndGet();
+        Route route = route(key);
+        if (route == null) {
+            return false;
+        }
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            byte[] current = route.cache.getIfPresent(route.key);
+            if (current == null) {
+                return false;
+            }
+            // 值没有改变，版本保持不变
+            if (!put(route, current, exptime)) {
+                unstamp(key);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void flush() {
+        versions.clear();
+        Cache<String, byte[]> cache = defaultCache;
+        if (cache != null) {
+            cache.clear();
+        }
+        for (Cache<String, byte[]> named : caches.values()) {
+            named.clear();
+        }
+    }
+
+    /**
+     * 返回所有缓存的条目数量之和。
+     */
+    long itemCount() {
+        long count = 0L;
+        Cache<String, byte[]> cache = defaultCache;
+        if (cache != null) {
+            count += cache.size();
+        }
+        for (Cache<String, byte[]> named : caches.values()) {
+            if (named != cache) {
+                count += named.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 返回刚读取到的指定键的值的 {@code cas} 唯一值，总是非 {@code 0}。
+     */
+    long casOf(String key, byte[] value) {
+        long fingerprint = fingerprint(value);
+        Version version = versions.get(key);
+        if (version != null && version.fingerprint == fingerprint) {
+            return version.cas;
+        }
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            version = versions.get(key);
+            if (version != null && version.fingerprint == fingerprint) {
+                return version.cas;
+            }
+            // 值不是通过 memcached 写入的；如果读取之后值又被改写，指纹不一致，使用这个唯一值的 cas 会失败
+            return stamp(key, fingerprint);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 为指定键分配新的版本，必须在键的锁内调用。
+     */
+    private long stamp(String key, long fingerprint) {
+        if (versions.size() >= MAX_VERSIONS && !versions.containsKey(key)) {
+            // 过期或被淘汰的键的版本不会被及时移除，数量超过上限时全部清空
+            versions.clear();
+        }
+        long cas = versionSequence.incrementAndGet();
+        versions.put(key, new Version(cas, fingerprint));
+        return cas;
+    }
+
+    private long unstamp(String key) {
+        versions.remove(key);
+        return 0L;
+    }
+
+    private static long fingerprint(byte[] value) {
+        return Hashing.murmur3_128().hashBytes(value).asLong();
+    }
+
+    /**
+     * 返回指定键对应的缓存和缓存中的键，没有对应的缓存时返回 {@code null}。
+     */
+    private Route route(String key) {
+        int index = key.indexOf(separator);
+        if (index > 0) {
+            Cache<String, byte[]> cache = caches.get(key.substring(0, index));
+            if (cache != null) {
+                return new Route(cache, key.substring(index + 1));
+            }
+        }
+        Cache<String, byte[]> cache = defaultCache;
+        return cache == null ? null : new Route(cache, key);
+    }
+
+    /**
+     * 按 memcached 的过期时间写入：{@code 0} 使用缓存的过期策略，大于 30 天的是 Unix 时间戳，
+     * 已经过去的时间戳或负数立即过期。
+     *
+     * @return 值是否被写入，立即过期时返回 {@code false}。
+     */
+    private static boolean put(Route route, byte[] value, int exptime) {
+        if (exptime == 0) {
+            route.cache.put(route.key, value);
+            return true;
+        }
+        long seconds = exptime;
+        if (exptime > MAX_RELATIVE_EXPTIME) {
+            seconds = exptime - System.currentTimeMillis() / 1000L;
+        }
+        if (seconds <= 0L) {
+            route.cache.remove(route.key);
+            return false;
+        }
+        route.cache.put(route.key, value, (int) seconds);
+        return true;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static final class Version {
+
+        final long cas;
+        final long fingerprint;
+
+        Version(long cas, long fingerprint) {
+            this.cas = cas;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private static final class Route {
+
+        final Cache<String, byte[]> cache;
+        final String key;
+
+        Route(Cache<String, byte[]> cache, String key) {
+            this.cache = cache;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache.memcached;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 一个客户端连接的状态，只由服务器的 I/O 线程访问。
+ * <p />
+ * 响应以 {@link ByteBuffer} 为单位排队，缓存值直接包装为缓冲区而不复制，由 {@link #flush()} 聚集写出。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class Connection {
+
+    private static final int MAX_GATHER = 64;
+
+    final SocketChannel channel;
+    final SelectionKey key;
+    /** 读缓冲区，处于写模式。 */
+    ByteBuffer in;
+    /** 连接使用的协议，收到第一个字节前为 {@code null}。 */
+    Boolean binary;
+    /** 需要丢弃的输入字节数，用于跳过过大的值。 */
+    int skip;
+    /** 下一个命令完整时需要的字节数（从命令的开始算起），缓冲区容量不足时扩容。 */
+    int needed;
+    /** 写完已排队的响应后关闭连接。 */
+    boolean closeAfterFlush;
+    private final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private long pendingBytes;
+
+    Connection(SocketChannel channel, SelectionKey key, int bufferSize) {
+        this.channel = channel;
+        this.key = key;
+        this.in = ByteBuffer.allocate(bufferSize);
+    }
+
+    void send(ByteBuffer buffer) {
+        if (buffer.hasRemaining()) {
+            out.add(buffer);
+            pendingBytes += buffer.remaining();
+        }
+    }
+
+    void send(byte[] bytes) {
+        send(ByteBuffer.wrap(bytes));
+    }
+
+    void send(String line) {
+        send(line.getBytes(Charsets.UTF_8));
+    }
+
+    /**
+     * 返回已排队但还没有写出的字节数。
+     */
+    long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * 尽可能多地写出排队的响应。
+     *
+     * @return 是否已经全部写出。
+     */
+    boolean flush() throws IOException {
+        while (!out.isEmpty()) {
+            int n = 0;
+            long batchBytes = 0L;
+            Iterator<ByteBuffer> it = out.iterator();
+            while (n < MAX_GATHER && it.hasNext()) {
+                ByteBuffer buffer = it.next();
+                batchBytes += buffer.remaining();
+                gather[n++] = buffer;
+            }
+            long written = channel.write(gather, 0, n);
+            pendingBytes -= written;
+            for (int i = 0; i < n; i++) {
+                gather[i] = null;
+            }
+            while (!out.isEmpty() && !out.peek().hasRemaining()) {
+                out.poll();
+            }
+            if (written < batchBytes) {
+                // 发送缓冲区已满
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 确保读缓冲区能够容纳 {@link #needed} 字节。
+     */
+    void ensureCapacity() {
+        if (needed > in.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, in.capacity() << 1));
+            in.flip();
+            larger.put(in);
+            in = larger;
+        }
+    }
+
+    void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            // ignore
+        }
+    }
+}
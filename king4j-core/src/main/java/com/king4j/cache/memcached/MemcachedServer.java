@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache.memcached;
+
+import com.google.common.collect.Maps;
+import com.king4j.cache.Cache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * 以 memcached 协议对外提供缓存的嵌入式服务器，供同一主机上的其他进程（不一定是 Java 进程）共享 JVM 中的缓存。
+ * 同时支持文本协议和二进制协议，每个连接按收到的第一个字节自动识别。
+ * <p />
+ * 服务器使用一个非阻塞 I/O 线程处理所有连接：同一个连接上流水线发送的命令按顺序处理，响应一起聚集写出，
+ * 缓存值直接包装为缓冲区写出而不复制。某个连接积压的响应超过 {@link #setMaxPendingBytes(long) 上限} 时，
+ * 暂停读取该连接，直到响应被客户端读走。
+ * <p />
+ * 通过 {@link #addCache(String, Cache)} 注册的缓存以 {@code <缓存名称>:<键>} 形式的键访问，其他的键访问
+ * {@link #setDefaultCache(Cache) 默认缓存}。客户端的 {@code flags} 不被保存，读取时总是返回 {@code 0}。
+ * 服务器默认只监听本机回环地址，不提供任何认证，不应暴露在不受信任的网络上。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class MemcachedServer {
+
+    /**
+     * The logger.
+     */
+    protected final Logger LOGGER = LoggerFactory.getLogger(getClass());
+
+    /** {@code version} 命令返回的版本。 */
+    public static final String VERSION = "1.4.15-king4j";
+    /** 默认的端口。 */
+    public static final int DEFAULT_PORT = 11211;
+    /** 缓存名称和键之间默认的分隔符。 */
+    public static final char DEFAULT_SEPARATOR = ':';
+    /** 默认的值的最大长度（字节）。 */
+    public static final int DEFAULT_MAX_ITEM_SIZE = 1 << 20;
+    /** 默认的每个连接积压的响应字节数的上限。 */
+    public static final long DEFAULT_MAX_PENDING_BYTES = 4L << 20;
+
+    private static final int INITIAL_BUFFER_SIZE = 16384;
+
+    private final InetSocketAddress bindAddress;
+    private final CacheBackend backend = new CacheBackend();
+    private final TextProtocol textProtocol = new TextProtocol(this, backend);
+    private final BinaryProtocol binaryProtocol = new BinaryProtocol(this, backend);
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicLong totalConnections = new AtomicLong();
+    private volatile int maxItemSize = DEFAULT_MAX_ITEM_SIZE;
+    private volatile long maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+    private long startTime;
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private Thread ioThread;
+    private volatile boolean isRunning = false;
+
+    /**
+     * 创建监听本机回环地址默认端口的服务器。
+     */
+    public MemcachedServer() {
+        this(new InetSocketAddress("127.0.0.1", DEFAULT_PORT));
+    }
+
+    public MemcachedServer(InetSocketAddress bindAddress) {
+        this.bindAddress = checkNotNull(bindAddress, "The bind address must not be null.");
+    }
+
+    /**
+     * 注册一个以 {@code <name>:<键>} 形式的键访问的缓存。
+     */
+    public void addCache(String name, Cache<String, byte[]> cache) {
+        checkArgument(name != null && !name.isEmpty(), "The cache name must not be empty.");
+        checkNotNull(cache, "The cache must not be null.");
+        backend.addCache(name, cache);
+    }
+
+    /**
+     * 取消注册指定名称的缓存。
+     *
+     * @return 被取消注册的缓存，没有该名称的缓存时返回 {@code null}。
+     */
+    public Cache<String, byte[]> removeCache(String name) {
+        return backend.removeCache(name);
+    }
+
+    /**
+     * 设置不带缓存名称的键访问的缓存，为 {@code null} 时这些键总是未命中，也不能写入。
+     */
+    public void setDefaultCache(Cache<String, byte[]> cache) {
+        backend.setDefaultCache(cache);
+    }
+
+    /**
+     * 设置缓存名称和键之间的分隔符，默认为 {@link #DEFAULT_SEPARATOR}。
+     */
+    public void setSeparator(char separator) {
+        backend.setSeparator(separator);
+    }
+
+    public int getMaxItemSize() {
+        return maxItemSize;
+    }
+
+    /**
+     * 设置值的最大长度（字节），更长的值被拒绝，默认为 {@link #DEFAULT_MAX_ITEM_SIZE}。
+     */
+    public void setMaxItemSize(int maxItemSize) {
+        checkArgument(maxItemSize > 0, "The max item size must be positive: %s", maxItemSize);
+        this.maxItemSize = maxItemSize;
+    }
+
+    /**
+     * 设置每个连接积压的响应字节数的上限，超过时暂停读取该连接，默认为 {@link #DEFAULT_MAX_PENDING_BYTES}。
+     */
+    public void setMaxPendingBytes(long maxPendingBytes) {
+        checkArgument(maxPendingBytes > 0, "The max pending bytes must be positive: %s", maxPendingBytes);
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * 绑定监听端口并启动 I/O 线程。
+     */
+    public synchronized void start() throws IOException {
+        if (isRunning) {
+            return;
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(bindAddress);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        startTime = System.currentTimeMillis();
+        isRunning = true;
+        ioThread = new Thread(new IoRunnable());
+        ioThread.setName(String.format("MemcachedServer_%s", getLocalAddress().getPort()));
+        ioThread.setDaemon(true);
+        ioThread.start();
+        LOGGER.info(String.format("%s started.", ioThread.getName()));
+    }
+
+    /**
+     * 关闭监听端口和所有连接，缓存本身不受影响。
+     */
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        selector.wakeup();
+        try {
+            ioThread.join(1000L);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info(String.format("%s stopped.", ioThread.getName()));
+    }
+
+    /**
+     * 返回服务器监听的地址，绑定端口 {@code 0} 时用于获取实际的端口。
+     */
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * 返回当前的连接数量。
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * 返回 {@code stats} 命令输出的统计信息。
+     */
+    public Map<String, String> getStats() {
+        long now = System.currentTimeMillis();
+        Map<String, String> stats = Maps.newLinkedHashMap();
+        stats.put("uptime", String.valueOf((now - startTime) / 1000L));
+        stats.put("time", String.valueOf(now / 1000L));
+        stats.put("version", VERSION);
+        stats.put("curr_connections", String.valueOf(connectionCount.get()));
+        stats.put("total_connections", String.valueOf(totalConnections.get()));
+        stats.put("cmd_get", String.valueOf(backend.getCount.get()));
+        stats.put("cmd_set", String.valueOf(backend.setCount.get()));
+        stats.put("cmd_touch", String.valueOf(backend.touchCount.get()));
+        stats.put("get_hits", String.valueOf(backend.getHits.get()));
+        stats.put("get_misses", String.valueOf(backend.getCount.get() - backend.getHits.get()));
+        stats.put("delete_hits", String.valueOf(backend.deleteHits.get()));
+        stats.put("delete_misses", String.valueOf(backend.deleteMisses.get()));
+        stats.put("curr_items", String.valueOf(backend.itemCount()));
+        stats.put("item_size_max", String.valueOf(maxItemSize));
+        return stats;
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key, INITIAL_BUFFER_SIZE));
+        connectionCount.incrementAndGet();
+        totalConnections.incrementAndGet();
+    }
+
+    private void read(Connection c) throws IOException {
+        int n = c.channel.read(c.in);
+        if (n < 0) {
+            throw new IOException("Connection closed by the client.");
+        }
+        ByteBuffer in = c.in;
+        in.flip();
+        try {
+            while (in.hasRemaining() && !c.closeAfterFlush) {
+                if (c.skip > 0) {
+                    int skipped = Math.min(c.skip, in.remaining());
+                    in.position(in.position() + skipped);
+                    c.skip -= skipped;
+                    continue;
+                }
+                if (c.binary == null) {
+                    c.binary = in.get(in.position()) == BinaryProtocol.MAGIC_REQUEST;
+                }
+                c.needed = 0;
+                boolean processed = c.binary ? binaryProtocol.process(c, in) : textProtocol.process(c, in);
+                if (!processed) {
+                    break;
+                }
+            }
+        } finally {
+            in.compact();
+        }
+        c.ensureCapacity();
+    }
+
+    /**
+     * 写出连接积压的响应，并按积压的字节数调整关注的事件。
+     */
+    private void flush(Connection c) throws IOException {
+        boolean drained = c.flush();
+        if (drained && c.closeAfterFlush) {
+            close(c);
+            return;
+        }
+        int ops = drained ? 0 : SelectionKey.OP_WRITE;
+        if (!c.closeAfterFlush && c.getPendingBytes() < maxPendingBytes) {
+            ops |= SelectionKey.OP_READ;
+        }
+        c.key.interestOps(ops);
+    }
+
+    private void close(Connection c) {
+        if (c.key.isValid()) {
+            connectionCount.decrementAndGet();
+        }
+        c.close();
+    }
+
+    private class IoRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (isRunning) {
+                    selector.select();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                read(c);
+                            }
+                            flush(c);
+                        } catch (IOException ex) {
+                            LOGGER.debug("Closing a memcached connection: ", ex);
+                            close(c);
+                        } catch (RuntimeException ex) {
+                            LOGGER.error("Failed to serve a memcached connection: ", ex);
+                            close(c);
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                LOGGER.error("The memcached server failed: ", ex);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        close((Connection) key.attachment());
+                    } else {
+                        key.cancel();
+                    }
+                }
+                try {
+                    serverChannel.close();
+                    selector.close();
+                } catch (IOException ex) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
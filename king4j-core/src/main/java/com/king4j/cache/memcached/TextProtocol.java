@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache.memcached;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.google.common.primitives.UnsignedLongs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * memcached 文本协议。每次调用 {@link #process(Connection, ByteBuffer)} 处理输入中的一个完整命令，
+ * 流水线上的多个命令由调用者循环处理，响应按命令的顺序排队。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+final class TextProtocol {
+
+    /** 键的最大长度（字节）。 */
+    static final int MAX_KEY_LENGTH = 250;
+    /** 命令行的最大长度（字节）。 */
+    static final int MAX_LINE_LENGTH = 2048;
+
+    private static final Splitter SPACES = Splitter.on(' ').omitEmptyStrings();
+    private static final byte[] CRLF = bytes("\r\n");
+    private static final byte[] END = bytes("END\r\n");
+    private static final byte[] ERROR = bytes("ERROR\r\n");
+    private static final byte[] BAD_FORMAT = bytes("CLIENT_ERROR bad command line format\r\n");
+    private static final byte[] DELETED = bytes("DELETED\r\n");
+    private static final byte[] NOT_FOUND = bytes("NOT_FOUND\r\n");
+    private static final byte[] TOUCHED = bytes("TOUCHED\r\n");
+    private static final byte[] OK = bytes("OK\r\n");
+
+    private final MemcachedServer server;
+    private final CacheBackend backend;
+
+    TextProtocol(MemcachedServer server, CacheBackend backend) {
+        this.server = server;
+        this.backend = backend;
+    }
+
+    /**
+     * 处理输入中的一个命令。
+     *
+     * @return 是否处理了一个命令，输入不完整时返回 {@code false}，并且不移动输入的位置。
+     */
+    boolean process(Connection c, ByteBuffer in) throws IOException {
+        int start = in.position();
+        int limit = in.limit();
+        int lf = -1;
+        for (int i = start; i < limit; i++) {
+            if (in.get(i) == '\n') {
+                lf = i;
+                break;
+            }
+        }
+        if (lf < 0) {
+            if (limit - start > MAX_LINE_LENGTH) {
+                throw new IOException("The command line is too long.");
+            }
+            return false;
+        }
+        int end = lf > start && in.get(lf - 1) == '\r' ? lf - 1 : lf;
+        byte[] lineBytes = new byte[end - start];
+        in.get(lineBytes);
+        String[] tokens = Iterables.toArray(SPACES.split(new String(lineBytes, Charsets.UTF_8)), String.class);
+        if (tokens.length == 0) {
+            in.position(lf + 1);
+            c.send(ByteBuffer.wrap(ERROR));
+            return true;
+        }
+        String command = tokens[0];
+        if (command.equals("set") || command.equals("add") || command.equals("replace")
+                || command.equals("append") || command.equals("prepend") || command.equals("cas")) {
+            return processStorage(c, in, tokens, start, lf + 1);
+        }
+        in.position(lf + 1);
+        try {
+            if (command.equals("get") || command.equals("gets")) {
+                processGet(c, tokens, 1, command.equals("gets"), false, 0);
+            } else if (command.equals("gat") || command.equals("gats")) {
+                if (tokens.length < 3) {
+                    c.send(ByteBuffer.wrap(ERROR));
+                } else {
+                    processGet(c, tokens, 2, command.equals("gats"), true, Integer.parseInt(tokens[1]));
+                }
+            } else if (command.equals("delete")) {
+                processDelete(c, tokens);
+            } else if (command.equals("incr") || command.equals("decr")) {
+                processIncr(c, tokens, command.equals("incr"));
+            } else if (command.equals("touch")) {
+                if (tokens.length < 3 || tokens.length > 4 || !checkKey(c, tokens[1])) {
+                    c.send(ByteBuffer.wrap(ERROR));
+                    return true;
+                }
+                boolean touched = backend.touch(tokens[1], Integer.parseInt(tokens[2]));
+                reply(c, tokens, touched ? TOUCHED : NOT_FOUND);
+            } else if (command.equals("flush_all")) {
+                backend.flush();
+                reply(c, tokens, OK);
+            } else if (command.equals("version")) {
+                c.send("VERSION " + MemcachedServer.VERSION + "\r\n");
+            } else if (command.equals("stats")) {
+                if (tokens.length == 1) {
+                    for (Map.Entry<String, String> stat : server.getStats().entrySet()) {
+                        c.send("STAT " + stat.getKey() + " " + stat.getValue() + "\r\n");
+                    }
+                }
+                c.send(ByteBuffer.wrap(END));
+            } else if (command.equals("verbosity")) {
+                reply(c, tokens, OK);
+            } else if (command.equals("quit")) {
+                c.closeAfterFlush = true;
+            } else {
+                c.send(ByteBuffer.wrap(ERROR));
+            }
+        } catch (NumberFormatException ex) {
+            c.send(ByteBuffer.wrap(BAD_FORMAT));
+        }
+        return true;
+    }
+
+    private boolean processStorage(Connection c, ByteBuffer in, String[] tokens, int start, int dataStart) {
+        boolean cas = tokens[0].equals("cas");
+        int expected = cas ? 6 : 5;
+        int exptime;
+        int length;
+        long casUnique = 0L;
+        try {
+            if (tokens.length < expected || tokens.length > expected + 1) {
+                throw new NumberFormatException();
+            }
+            Long.parseLong(tokens[2]);
+            exptime = Integer.parseInt(tokens[3]);
+            length = Integer.parseInt(tokens[4]);
+            if (cas) {
+                casUnique = UnsignedLongs.parseUnsignedLong(tokens[5]);
+            }
+            if (length < 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException ex) {
+            in.position(dataStart);
+            c.send(ByteBuffer.wrap(BAD_FORMAT));
+            return true;
+        }
+        if (length > server.getMaxItemSize()) {
+            in.position(dataStart);
+            c.skip = length + 2;
+            c.send("SERVER_ERROR object too large for cache\r\n");
+            return true;
+        }
+        int needed = dataStart - start + length + 2;
+        if (in.limit() - start < needed) {
+            in.position(start);
+            c.needed = needed;
+            return false;
+        }
+        in.position(dataStart + length + 2);
+        if (in.get(dataStart + length) != '\r' || in.get(dataStart + length + 1) != '\n') {
+            c.send("CLIENT_ERROR bad data chunk\r\n");
+            return true;
+        }
+        if (!checkKey(c, tokens[1])) {
+            return true;
+        }
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = in.get(dataStart + i);
+        }
+        CacheBackend.StoreMode mode = CacheBackend.StoreMode.valueOf(tokens[0].toUpperCase());
+        CacheBackend.StoreResult result = backend.store(mode, tokens[1], value, exptime, casUnique, null);
+        if (!isNoreply(tokens, expected)) {
+            c.send(result.name() + "\r\n");
+        }
+        return true;
+    }
+
+    private void processGet(Connection c, String[] tokens, int first, boolean withCas, boolean touch,
+                            int exptime) {
+        for (int i = first; i < tokens.length; i++) {
+            if (!checkKey(c, tokens[i])) {
+                return;
+            }
+        }
+        for (int i = first; i < tokens.length; i++) {
+            String key = tokens[i];
+            if (touch && !backend.touch(key, exptime)) {
+                continue;
+            }
+            byte[] value = backend.get(key);
+            if (value == null) {
+                continue;
+            }
+            StringBuilder header = new StringBuilder(key.length() + 32).append("VALUE ").append(key)
+                    .append(" 0 ").append(value.length);
+            if (withCas) {
+                header.append(' ').append(backend.casOf(key, value));
+            }
+            c.send(header.append("\r\n").toString());
+            c.send(ByteBuffer.wrap(value));
+            c.send(ByteBuffer.wrap(CRLF));
+        }
+        c.send(ByteBuffer.wrap(END));
+    }
+
+    private void processDelete(Connection c, String[] tokens) {
+        // 兼容旧的客户端发送的 "delete <key> 0"
+        if (tokens.length < 2 || tokens.length > 4 || !checkKey(c, tokens[1])) {
+            c.send(ByteBuffer.wrap(ERROR));
+            return;
+        }
+        reply(c, tokens, backend.delete(tokens[1]) ? DELETED : NOT_FOUND);
+    }
+
+    private void processIncr(Connection c, String[] tokens, boolean increment) {
+        if (tokens.length < 3 || tokens.length > 4 || !checkKey(c, tokens[1])) {
+            c.send(ByteBuffer.wrap(ERROR));
+            return;
+        }
+        long delta;
+        try {
+            delta = UnsignedLongs.parseUnsignedLong(tokens[2]);
+        } catch (NumberFormatException ex) {
+            c.send("CLIENT_ERROR invalid numeric delta argument\r\n");
+            return;
+        }
+        Long value;
+        try {
+            value = backend.incr(tokens[1], delta, increment, 0L, 0, false);
+        } catch (NumberFormatException ex) {
+            c.send("CLIENT_ERROR cannot increment or decrement non-numeric value\r\n");
+            return;
+        }
+        if (!isNoreply(tokens, 3)) {
+            c.send(value == null ? ByteBuffer.wrap(NOT_FOUND) :
+                    ByteBuffer.wrap(bytes(UnsignedLongs.toString(value) + "\r\n")));
+        }
+    }
+
+    private boolean checkKey(Connection c, String key) {
+        if (key.length() > MAX_KEY_LENGTH || key.getBytes(Charsets.UTF_8).length > MAX_KEY_LENGTH) {
+            c.send(ByteBuffer.wrap(BAD_FORMAT));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 发送响应，命令的最后一个参数为 {@code noreply} 时不发送。
+     */
+    private static void reply(Connection c, String[] tokens, byte[] response) {
+        if (!tokens[tokens.length - 1].equals("noreply")) {
+            c.send(ByteBuffer.wrap(response));
+        }
+    }
+
+    private static boolean isNoreply(String[] tokens, int index) {
+        return tokens.length > index && tokens[index].equals("noreply");
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(Charsets.US_ASCII);
+    }
+}
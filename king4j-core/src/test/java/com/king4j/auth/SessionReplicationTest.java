@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.auth;
+
+import com.google.common.base.Charsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Replicates sessions between a {@link SessionReplicator} and a {@link SessionReplicationReceiver}
+ * over the loopback interface.
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class SessionReplicationTest {
+
+    private static final long TIMEOUT_MILLIS = 10000L;
+    private static final byte[] SECRET = "replication-secret".getBytes(Charsets.UTF_8);
+
+    private SessionStore primary;
+    private SessionStore backup;
+    private SessionReplicator replicator;
+    private SessionReplicationReceiver receiver;
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        backup = new SessionStore("backup");
+        backup.start();
+        startReceiver(0);
+        port = receiver.getLocalAddress().getPort();
+        primary = new SessionStore("primary");
+        replicator = newReplicator(SECRET);
+        primary.setReplicator(replicator);
+        primary.start();
+    }
+
+    @After
+    public void tearDown() {
+        primary.stop();
+        receiver.stop();
+        backup.stop();
+    }
+
+    @Test
+    public void testReplicatesChangesAndDestroys() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            update("s" + i, 1);
+        }
+        update("s3", 2);
+        primary.remove("s4");
+        awaitInSync();
+        assertNull(backup.get("s4"));
+        assertEquals(2, backup.get("s3").getAttribute("value"));
+        assertEquals(0L, receiver.getFailedCount());
+    }
+
+    @Test
+    public void testResynchronizesBackupAfterOutage() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            update("s" + i, 1);
+        }
+        awaitInSync();
+
+        receiver.stop();
+        for (int i = 0; i < 20; i++) {
+            update("s" + i, 2);
+        }
+        primary.remove("s0");
+        // the deltas written while the backup is down are lost with the connection
+        startReceiver(port);
+
+        awaitInSync();
+        assertNull(backup.get("s0"));
+        assertTrue(replicator.getResyncCount() > 0L);
+    }
+
+    @Test
+    public void testResyncReplacesPassivatedSessions() throws Exception {
+        receiver.stop();
+        backup.stop();
+        backup = new SessionStore("backup");
+        backup.setPassivateAfterIdle(50L, TimeUnit.MILLISECONDS);
+        backup.setSweepInterval(1L, TimeUnit.HOURS);
+        SessionEventPublisher publisher = new SessionEventPublisher("backup");
+        final AtomicInteger created = new AtomicInteger();
+        publisher.addListener(new SessionEventListener() {
+            @Override
+            public void onEvents(List<SessionEvent> events) {
+                for (SessionEvent event : events) {
+                    if (Session.SESSION_CREATED_EVENT.equals(event.getType())) {
+                        created.incrementAndGet();
+                    }
+                }
+            }
+        });
+        backup.setEventPublisher(publisher);
+        backup.start();
+        startReceiver(port);
+
+        long createdAt = System.currentTimeMillis();
+        DefaultSession session = new DefaultSession("s0", 2);
+        primary.add(session);
+        session.setAttribute("value", 1);
+        primary.endAccess(session);
+        awaitInSync();
+        Thread.sleep(100L);
+        backup.sweep();
+        assertEquals(1, backup.getPassivatedCount());
+
+        receiver.stop();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (replicator.isInSync() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20L);
+        }
+        long resyncs = replicator.getResyncCount();
+        // an access replicates nothing, only the resync snapshot brings the new access time
+        Thread.sleep(Math.max(0L, createdAt + 1000L - System.currentTimeMillis()));
+        assertNotNull(primary.get("s0"));
+        startReceiver(port);
+        deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while ((replicator.getResyncCount() == resyncs || !replicator.isInSync()
+                || backup.getPassivatedCount() > 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20L);
+        }
+        assertEquals(0, backup.getPassivatedCount());
+        assertEquals(1, backup.size());
+
+        // the passivated copy would have expired by now, the replicated session has not
+        Thread.sleep(Math.max(0L, createdAt + 2300L - System.currentTimeMillis()));
+        backup.sweep();
+        assertNotNull(backup.get("s0"));
+        backup.stop();
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void testRejectsUnauthenticatedPeers() throws Exception {
+        Socket socket = new Socket("127.0.0.1", port);
+        try {
+            byte[] frame = SessionDelta.snapshot("forged", new DefaultSession("forged", 3600).toByteArray())
+                    .toByteArray();
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(frame.length);
+            out.write(frame);
+            out.flush();
+            socket.setSoTimeout((int) TIMEOUT_MILLIS);
+            assertEquals(-1, socket.getInputStream().read());
+        } catch (SocketException ex) {
+            // closed with the frame unread
+        } finally {
+            socket.close();
+        }
+
+        SessionStore impostor = new SessionStore("impostor");
+        impostor.setReplicator(newReplicator("wrong-secret".getBytes(Charsets.UTF_8)));
+        impostor.start();
+        try {
+            DefaultSession session = new DefaultSession("impostor", 3600);
+            impostor.add(session);
+            impostor.endAccess(session);
+            update("genuine", 1);
+            awaitInSync();
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (receiver.getRejectedCount() < 2L && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20L);
+            }
+        } finally {
+            impostor.stop();
+        }
+        assertTrue(receiver.getRejectedCount() >= 2L);
+        assertNull(backup.get("forged"));
+        assertNull(backup.get("impostor"));
+        assertNotNull(backup.get("genuine"));
+    }
+
+    @Test
+    public void testSkipsDeltasWithDisallowedClasses() throws Exception {
+        update("s0", 1);
+        awaitInSync();
+
+        DefaultSession session = primary.get("s0");
+        session.setAttribute("gadget", new Gadget());
+        primary.endAccess(session);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (receiver.getFailedCount() == 0L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20L);
+        }
+        assertEquals(1L, receiver.getFailedCount());
+        assertNull(backup.get("s0").getAttribute("gadget"));
+
+        // the connection survives the failed delta
+        session = primary.get("s0");
+        session.removeAttribute("gadget");
+        primary.endAccess(session);
+        update("s0", 2);
+        awaitInSync();
+    }
+
+    private void startReceiver(int port) throws IOException {
+        receiver = new SessionReplicationReceiver(backup, port);
+        receiver.setSharedSecret(SECRET);
+        receiver.start();
+    }
+
+    private SessionReplicator newReplicator(byte[] secret) {
+        SessionReplicator replicator = new SessionReplicator("primary",
+                Arrays.asList(new InetSocketAddress("127.0.0.1", port)));
+        replicator.setSharedSecret(secret);
+        replicator.setReconnectDelay(50L);
+        return replicator;
+    }
+
+    private void update(String id, int value) {
+        DefaultSession session = primary.get(id);
+        if (session == null) {
+            session = new DefaultSession(id, 3600);
+            primary.add(session);
+        }
+        session.setAttribute("value", value);
+        primary.endAccess(session);
+    }
+
+    /**
+     * Waits until the backup holds the same sessions and values as the primary.
+     */
+    private void awaitInSync() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (replicator.isInSync() && backup.size() == primary.size() && sameValues()) {
+                return;
+            }
+            Thread.sleep(20L);
+        }
+        fail(String.format("The backup has %s sessions, expected %s.", backup.size(), primary.size()));
+    }
+
+    private boolean sameValues() {
+        for (String id : primary.getSessionIds()) {
+            DefaultSession expected = primary.lookup(id);
+            DefaultSession actual = backup.lookup(id);
+            if (expected == null || actual == null
+                    || !expected.getAttribute("value").equals(actual.getAttribute("value"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A serializable class that is not allowed in replicated sessions.
+     */
+    static class Gadget implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache.jpa;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * {@link JpaCacheWriterTest} 使用的实体。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+@Entity
+public class Account {
+
+    @Id
+    private Long id;
+    private String name;
+
+    protected Account() {
+    }
+
+    public Account(Long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
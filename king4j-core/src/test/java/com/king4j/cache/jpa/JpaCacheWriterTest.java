@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache.jpa;
+
+import com.king4j.cache.CacheBuilder;
+import com.king4j.cache.DefaultCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.Database;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在 H2 内存数据库上测试 {@link JpaCacheWriter} 的直写和延迟写。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class JpaCacheWriterTest {
+
+    private static final AtomicInteger DATABASE_SEQUENCE = new AtomicInteger();
+
+    private LocalContainerEntityManagerFactoryBean factoryBean;
+    private CrudRepository<Account, Long> repository;
+    private DefaultCache<Long, Account> cache;
+
+    @Before
+    public void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(String.format(
+                "jdbc:h2:mem:accounts%s;DB_CLOSE_DELAY=-1", DATABASE_SEQUENCE.incrementAndGet()), "sa", "");
+        dataSource.setDriverClassName("org.h2.Driver");
+        HibernateJpaVendorAdapter vendorAdapter = new HibernateJpaVendorAdapter();
+        vendorAdapter.setDatabase(Database.H2);
+        vendorAdapter.setGenerateDdl(true);
+        factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setJpaVendorAdapter(vendorAdapter);
+        factoryBean.setPackagesToScan(Account.class.getPackage().getName());
+        factoryBean.afterPropertiesSet();
+        EntityManagerFactory entityManagerFactory = factoryBean.getObject();
+
+        // 与 Spring Data 创建的仓库一样，每次调用在仓库方法声明的事务中执行
+        ProxyFactory proxyFactory = new ProxyFactory(new SimpleJpaRepository<Account, Long>(Account.class,
+                SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory)));
+        proxyFactory.addAdvice(new TransactionInterceptor(new JpaTransactionManager(entityManagerFactory),
+                new AnnotationTransactionAttributeSource()));
+        @SuppressWarnings("unchecked")
+        CrudRepository<Account, Long> proxy = (CrudRepository<Account, Long>) proxyFactory.getProxy();
+        repository = proxy;
+    }
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.stop();
+        }
+        factoryBean.destroy();
+    }
+
+    @Test
+    public void testWriteThrough() {
+        cache = CacheBuilder.newBuilder("accounts").writer(new JpaCacheWriter<Account, Long>(repository))
+                .<Long, Account>build();
+        cache.start();
+
+        cache.put(1L, new Account(1L, "first"));
+        cache.put(2L, new Account(2L, "second"));
+        assertEquals("first", repository.findOne(1L).getName());
+        assertEquals(2L, repository.count());
+
+        cache.put(1L, new Account(1L, "updated"));
+        assertEquals("updated", repository.findOne(1L).getName());
+
+        cache.remove(2L);
+        assertNull(repository.findOne(2L));
+        assertNull(cache.getIfPresent(2L));
+        assertEquals(1L, repository.count());
+    }
+
+    @Test
+    public void testWriteBehind() throws InterruptedException {
+        final AtomicInteger batches = new AtomicInteger();
+        JpaCacheWriter<Account, Long> writer = new JpaCacheWriter<Account, Long>(repository) {
+            @Override
+            public void writeAll(Map<Long, Account> entries) throws Exception {
+                batches.incrementAndGet();
+                super.writeAll(entries);
+            }
+        };
+        cache = CacheBuilder.newBuilder("accounts").writer(writer).writeBehind(1L, TimeUnit.SECONDS)
+                .<Long, Account>build();
+        cache.start();
+
+        for (int round = 0; round < 10; round++) {
+            for (long id = 1L; id <= 20L; id++) {
+                cache.put(id, new Account(id, "round" + round));
+            }
+        }
+        cache.remove(20L);
+        // 延迟期间数据库中还没有任何写入
+        assertEquals(0L, repository.count());
+
+        awaitCount(19L);
+        for (long id = 1L; id <= 19L; id++) {
+            assertEquals("round9", repository.findOne(id).getName());
+        }
+        assertNull(repository.findOne(20L));
+        // 同一个键的多次更新被合并，整个批次通过一次 save(Iterable) 提交
+        assertTrue("batches: " + batches, batches.get() <= 2);
+
+        cache.remove(1L);
+        cache.stop();
+        cache = null;
+        // 停止缓存时提交待写入的操作
+        assertNull(repository.findOne(1L));
+        assertEquals(18L, repository.count());
+    }
+
+    private void awaitCount(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (repository.count() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20L);
+        }
+        assertEquals(expected, repository.count());
+    }
+}
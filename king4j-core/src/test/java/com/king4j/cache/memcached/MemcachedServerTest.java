@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2012-2013 King4j Team. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.king4j.cache.memcached;
+
+import com.google.common.base.Charsets;
+import com.king4j.cache.Cache;
+import com.king4j.cache.CacheBuilder;
+import com.king4j.cache.DefaultCache;
+import com.king4j.cache.ValueCodecs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 通过回环地址上的连接测试 {@link MemcachedServer} 的文本协议和二进制协议。
+ *
+ * @author Fuchun
+ * @since 1.0
+ */
+public class MemcachedServerTest {
+
+    private DefaultCache<String, byte[]> cache;
+    private DefaultCache<String, byte[]> compressed;
+    private MemcachedServer server;
+    private Socket socket;
+
+    @Before
+    public void setUp() throws IOException {
+        cache = (DefaultCache<String, byte[]>) CacheBuilder.newBuilder("memcached")
+                .expireAfterWrite(60, TimeUnit.SECONDS).<String, byte[]>build();
+        cache.start();
+        // 只有一个解压缩缓存槽，每次读取都可能返回新的数组
+        compressed = (DefaultCache<String, byte[]>) CacheBuilder.newBuilder("compressed")
+                .expireAfterWrite(60, TimeUnit.SECONDS).<String, byte[]>compressValues(ValueCodecs.bytes(), 0)
+                .decompressedCacheSize(1).<String, byte[]>build();
+        compressed.start();
+        server = new MemcachedServer(new InetSocketAddress("127.0.0.1", 0));
+        server.setDefaultCache(cache);
+        server.addCache("zip", compressed);
+        server.start();
+        socket = new Socket("127.0.0.1", server.getLocalAddress().getPort());
+        socket.setSoTimeout(5000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        socket.close();
+        server.stop();
+        cache.stop();
+        compressed.stop();
+    }
+
+    @Test
+    public void testTextStorageCommands() throws IOException {
+        TextClient client = new TextClient();
+        assertEquals("STORED", client.call("set a 0 0 3\r\nabc"));
+        assertEquals("NOT_STORED", client.call("add a 0 0 1\r\nz"));
+        assertEquals("STORED", client.call("append a 0 0 2\r\nde"));
+        assertEquals("abcde", client.get("a"));
+        assertArrayEquals("abcde".getBytes(Charsets.US_ASCII), cache.getIfPresent("a"));
+
+        assertEquals("STORED", client.call("set n 0 0 2\r\n10"));
+        assertEquals("15", client.call("incr n 5"));
+        assertEquals("0", client.call("decr n 100"));
+        assertEquals("NOT_FOUND", client.call("incr missing 1"));
+
+        assertEquals("DELETED", client.call("delete a"));
+        assertEquals("NOT_FOUND", client.call("delete a"));
+        assertNull(client.get("a"));
+
+        client.send("set quiet 0 0 2 noreply\r\nok");
+        assertEquals("ok", client.get("quiet"));
+    }
+
+    @Test
+    public void testTextCas() throws IOException {
+        TextClient client = new TextClient();
+        assertEquals("STORED", client.call("set a 0 0 3\r\nabc"));
+        long cas = client.gets("a");
+        assertEquals(cas, client.gets("a"));
+        assertEquals("STORED", client.call("cas a 0 0 3 " + cas + "\r\nnew"));
+        assertEquals("EXISTS", client.call("cas a 0 0 3 " + cas + "\r\nold"));
+        assertEquals("new", client.get("a"));
+        assertEquals("NOT_FOUND", client.call("cas missing 0 0 1 " + cas + "\r\nx"));
+
+        // 通过 Java 代码直接修改的值分配新的唯一值
+        cas = client.gets("a");
+        cache.put("a", "java".getBytes(Charsets.US_ASCII));
+        assertEquals("EXISTS", client.call("cas a 0 0 3 " + cas + "\r\nxxx"));
+        assertTrue(client.gets("a") != cas);
+    }
+
+    @Test
+    public void testTextCasOnCompressedCache() throws IOException {
+        TextClient client = new TextClient();
+        assertEquals("STORED", client.call("set zip:a 0 0 3\r\nabc"));
+        assertEquals("STORED", client.call("set zip:b 0 0 3\r\nxyz"));
+        long cas = client.gets("zip:a");
+        assertEquals("xyz", client.get("zip:b"));
+        assertEquals(cas, client.gets("zip:a"));
+        assertEquals("STORED", client.call("cas zip:a 0 0 3 " + cas + "\r\nnew"));
+        assertEquals("EXISTS", client.call("cas zip:a 0 0 3 " + cas + "\r\nold"));
+        assertEquals("new", client.get("zip:a"));
+    }
+
+    @Test
+    public void testBinaryProtocol() throws IOException {
+        BinaryClient client = new BinaryClient();
+        client.send(BinaryProtocol.SET, 1, 0L, new byte[8], "k", "vv");
+        Response set = client.receive();
+        assertEquals(BinaryProtocol.STATUS_OK, set.status);
+        assertEquals(1, set.opaque);
+        assertTrue(set.cas != 0L);
+
+        client.send(BinaryProtocol.GET, 2, 0L, new byte[0], "k", "");
+        Response get = client.receive();
+        assertEquals(BinaryProtocol.STATUS_OK, get.status);
+        assertEquals(set.cas, get.cas);
+        assertEquals("vv", get.value);
+
+        client.send(BinaryProtocol.SET, 3, set.cas, new byte[8], "k", "v2");
+        Response cas = client.receive();
+        assertEquals(BinaryProtocol.STATUS_OK, cas.status);
+        assertTrue(cas.cas != set.cas);
+        client.send(BinaryProtocol.SET, 4, set.cas, new byte[8], "k", "v3");
+        assertEquals(BinaryProtocol.STATUS_KEY_EXISTS, client.receive().status);
+
+        // 未命中的 GETKQ 没有响应，NOOP 的响应说明之前的请求都已处理
+        client.send(BinaryProtocol.GETKQ, 5, 0L, new byte[0], "k", "");
+        client.send(BinaryProtocol.GETKQ, 6, 0L, new byte[0], "missing", "");
+        client.send(BinaryProtocol.NOOP, 7, 0L, new byte[0], "", "");
+        Response hit = client.receive();
+        assertEquals(5, hit.opaque);
+        assertEquals("k", hit.key);
+        assertEquals("v2", hit.value);
+        assertEquals(7, client.receive().opaque);
+
+        client.send(BinaryProtocol.DELETE, 8, 0L, new byte[0], "k", "");
+        assertEquals(BinaryProtocol.STATUS_OK, client.receive().status);
+        client.send(BinaryProtocol.GET, 9, 0L, new byte[0], "k", "");
+        assertEquals(BinaryProtocol.STATUS_KEY_NOT_FOUND, client.receive().status);
+        assertNull(cache.getIfPresent("k"));
+    }
+
+    private class TextClient {
+
+        private final OutputStream out;
+        private final BufferedReader in;
+
+        TextClient() throws IOException {
+            out = socket.getOutputStream();
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.US_ASCII));
+        }
+
+        void send(String command) throws IOException {
+            out.write((command + "\r\n").getBytes(Charsets.US_ASCII));
+            out.flush();
+        }
+
+        String call(String command) throws IOException {
+            send(command);
+            return in.readLine();
+        }
+
+        String get(String key) throws IOException {
+            String header = call("get " + key);
+            if (header.equals("END")) {
+                return null;
+            }
+            String value = in.readLine();
+            assertEquals("END", in.readLine());
+            return value;
+        }
+
+        long gets(String key) throws IOException {
+            String[] header = call("gets " + key).split(" ");
+            in.readLine();
+            assertEquals("END", in.readLine());
+            return Long.parseLong(header[4]);
+        }
+    }
+
+    private class BinaryClient {
+
+        private final DataOutputStream out;
+        private final DataInputStream in;
+
+        BinaryClient() throws IOException {
+            out = new DataOutputStream(socket.getOutputStream());
+            in = new DataInputStream(socket.getInputStream());
+        }
+
+        void send(int opcode, int opaque, long cas, byte[] extras, String key, String value)
+                throws IOException {
+            byte[] keyBytes = key.getBytes(Charsets.US_ASCII);
+            byte[] valueBytes = value.getBytes(Charsets.US_ASCII);
+            out.writeByte(BinaryProtocol.MAGIC_REQUEST);
+            out.writeByte(opcode);
+            out.writeShort(keyBytes.length);
+            out.writeByte(extras.length);
+            out.writeByte(0);
+            out.writeShort(0);
+            out.writeInt(extras.length + keyBytes.length + valueBytes.length);
+            out.writeInt(opaque);
+            out.writeLong(cas);
+            out.write(extras);
+            out.write(keyBytes);
+            out.write(valueBytes);
+            out.flush();
+        }
+
+        Response receive() throws IOException {
+            assertEquals(BinaryProtocol.MAGIC_RESPONSE, in.readByte());
+            in.readByte();
+            int keyLength = in.readShort();
+            int extrasLength = in.readByte();
+            in.readByte();
+            Response response = new Response();
+            response.status = in.readShort();
+            int bodyLength = in.readInt();
+            response.opaque = in.readInt();
+            response.cas = in.readLong();
+            byte[] body = new byte[bodyLength];
+            in.readFully(body);
+            response.key = new String(body, extrasLength, keyLength, Charsets.US_ASCII);
+            int valueOffset = extrasLength + keyLength;
+            response.value = new String(body, valueOffset, bodyLength - valueOffset, Charsets.US_ASCII);
+            return response;
+        }
+    }
+
+    private static class Response {
+
+        short status;
+        int opaque;
+        long cas;
+        String key;
+        String value;
+    }
+}